@@ -0,0 +1,102 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.parser.ODataParser;
+
+/**
+ * Measures how many documents per second can be parsed, for both the xpath and the optimized querying.
+ * Allocation is measured with the gc profiler, it is added when running through the main method or with "-prof gc" on the command line.
+ * Note that the xpath based querying on the larger sizes can take minutes per document, you can limit the parameters with for example "-p size=100KB".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ODataParserBenchmark {
+
+	@Param({ "NAVISION", "GRAPH", "DYNAMICS", "TRIPPIN" })
+	private EdmxGenerator.Shape shape;
+	
+	@Param({ "100KB", "1MB", "10MB", "50MB" })
+	private String size;
+	
+	@Param({ "true", "false" })
+	private boolean optimizedQuerying;
+	
+	private byte [] metadata;
+	private URI url;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		metadata = new EdmxGenerator(shape).generate(parseSize(size));
+		url = new URI("https://example.com/odata/" + shape.name().toLowerCase());
+	}
+	
+	@Benchmark
+	public ODataDefinition parse() throws ParseException {
+		// a new parser every time, we don't want to measure anything that is cached between parses
+		ODataParser parser = new ODataParser();
+		parser.setUseOptimizedQuerying(optimizedQuerying);
+		return parser.parse(url, new ByteArrayInputStream(metadata));
+	}
+	
+	static long parseSize(String size) {
+		String value = size.trim().toUpperCase();
+		if (value.endsWith("KB")) {
+			return Long.parseLong(value.substring(0, value.length() - 2).trim()) * 1024;
+		}
+		else if (value.endsWith("MB")) {
+			return Long.parseLong(value.substring(0, value.length() - 2).trim()) * 1024 * 1024;
+		}
+		return Long.parseLong(value);
+	}
+	
+	public static void main(String...args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(ODataParserBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build()).run();
+	}
+}
@@ -0,0 +1,97 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.parser.ODataParser;
+import be.nabu.libs.odata.parser.ODataSnapshot;
+
+/**
+ * Compares loading a definition from a snapshot with parsing the metadata it was taken from.
+ * The parse uses the optimized querying, the snapshot is taken from that same parse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ODataSnapshotBenchmark {
+
+	@Param({ "NAVISION", "GRAPH", "DYNAMICS", "TRIPPIN" })
+	private EdmxGenerator.Shape shape;
+	
+	@Param({ "1MB", "10MB" })
+	private String size;
+	
+	private byte [] metadata;
+	private byte [] snapshot;
+	private URI url;
+	
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		metadata = new EdmxGenerator(shape).generate(ODataParserBenchmark.parseSize(size));
+		url = new URI("https://example.com/odata/" + shape.name().toLowerCase());
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new ODataSnapshot().write(parse(), output);
+		snapshot = output.toByteArray();
+	}
+	
+	@Benchmark
+	public ODataDefinition parse() throws ParseException {
+		ODataParser parser = new ODataParser();
+		parser.setUseOptimizedQuerying(true);
+		return parser.parse(url, new ByteArrayInputStream(metadata));
+	}
+	
+	@Benchmark
+	public ODataDefinition load() throws IOException {
+		return new ODataSnapshot().read(new ByteArrayInputStream(snapshot));
+	}
+	
+	public static void main(String...args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(ODataSnapshotBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build()).run();
+	}
+}
@@ -0,0 +1,149 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Annotations (e.g. the capabilities) are a fixed structure of Annotation/Record/PropertyValue elements.
+ * Instead of querying that structure once for every value we are interested in, we scan it once and keep the values indexed by term and property.
+ * If the same value is annotated more than once, the first one wins which is in line with how the queries used to work.
+ */
+public class AnnotationIndex {
+
+	// term > the boolean value directly on the annotation, e.g. <Annotation Term="Org.OData.Capabilities.V1.TopSupported" Bool="false"/>
+	private Map<String, String> values = new HashMap<String, String>();
+	// term > property > the boolean value of a property in the record
+	private Map<String, Map<String, String>> propertyValues = new HashMap<String, Map<String, String>>();
+	// term > property > the enum member of a property in the record
+	private Map<String, Map<String, String>> propertyEnumMembers = new HashMap<String, Map<String, String>>();
+	// term > property > the content of the collection of a property in the record (property paths, navigation property paths, strings...)
+	private Map<String, Map<String, List<String>>> propertyCollections = new HashMap<String, Map<String, List<String>>>();
+
+	public void add(Element annotation) {
+		String term = annotation.getAttribute("Term");
+		if (annotation.hasAttribute("Bool") && !values.containsKey(term)) {
+			values.put(term, annotation.getAttribute("Bool"));
+		}
+		if (annotation.hasAttribute("EnumMember")) {
+			getMap(propertyEnumMembers, term).putIfAbsent(null, annotation.getAttribute("EnumMember"));
+		}
+		NodeList children = annotation.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			Node child = children.item(i);
+			if (child instanceof Element) {
+				if ("Record".equals(child.getLocalName())) {
+					addRecord(term, (Element) child);
+				}
+				else if ("Collection".equals(child.getLocalName())) {
+					addCollection(getCollection(term, null), (Element) child);
+				}
+			}
+		}
+	}
+
+	private void addRecord(String term, Element record) {
+		NodeList children = record.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			Node child = children.item(i);
+			if (child instanceof Element && "PropertyValue".equals(child.getLocalName())) {
+				Element propertyValue = (Element) child;
+				String property = propertyValue.getAttribute("Property");
+				if (propertyValue.hasAttribute("Bool")) {
+					getMap(propertyValues, term).putIfAbsent(property, propertyValue.getAttribute("Bool"));
+				}
+				if (propertyValue.hasAttribute("EnumMember")) {
+					getMap(propertyEnumMembers, term).putIfAbsent(property, propertyValue.getAttribute("EnumMember"));
+				}
+				NodeList grandChildren = propertyValue.getChildNodes();
+				for (int j = 0; j < grandChildren.getLength(); j++) {
+					if (grandChildren.item(j) instanceof Element && "Collection".equals(grandChildren.item(j).getLocalName())) {
+						addCollection(getCollection(term, property), (Element) grandChildren.item(j));
+					}
+				}
+			}
+		}
+	}
+
+	private void addCollection(List<String> target, Element collection) {
+		NodeList children = collection.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			if (children.item(i) instanceof Element) {
+				target.add(children.item(i).getTextContent());
+			}
+		}
+	}
+
+	private List<String> getCollection(String term, String property) {
+		Map<String, List<String>> collections = propertyCollections.get(term);
+		if (collections == null) {
+			collections = new HashMap<String, List<String>>();
+			propertyCollections.put(term, collections);
+		}
+		List<String> collection = collections.get(property);
+		if (collection == null) {
+			collection = new ArrayList<String>();
+			collections.put(property, collection);
+		}
+		return collection;
+	}
+
+	private static Map<String, String> getMap(Map<String, Map<String, String>> maps, String term) {
+		Map<String, String> map = maps.get(term);
+		if (map == null) {
+			map = new HashMap<String, String>();
+			maps.put(term, map);
+		}
+		return map;
+	}
+
+	public boolean hasTerm(String term) {
+		return values.containsKey(term) || propertyValues.containsKey(term) || propertyEnumMembers.containsKey(term) || propertyCollections.containsKey(term);
+	}
+
+	public String getValue(String term, String defaultValue) {
+		String value = values.get(term);
+		return value == null ? defaultValue : value;
+	}
+
+	public String getPropertyValue(String term, String property, String defaultValue) {
+		Map<String, String> map = propertyValues.get(term);
+		String value = map == null ? null : map.get(property);
+		return value == null ? defaultValue : value;
+	}
+
+	// the property can be null to get an enum member set directly on the annotation
+	public String getEnumMember(String term, String property) {
+		Map<String, String> map = propertyEnumMembers.get(term);
+		return map == null ? null : map.get(property);
+	}
+
+	// the property can be null to get a collection set directly on the annotation
+	public List<String> getPropertyCollection(String term, String property) {
+		Map<String, List<String>> collections = propertyCollections.get(term);
+		List<String> collection = collections == null ? null : collections.get(property);
+		return collection == null ? new ArrayList<String>() : new ArrayList<String>(collection);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The optimized querying only supports a very small subset of xpath: a path of child steps, each with an optional attribute equality predicate, optionally ending in an attribute selection.
+ * The parser only ever runs a few dozen distinct queries but it runs them a massive amount of times, so we compile each query once into a list of steps and cache it.
+ */
+class CompiledQuery {
+
+	// the parser uses a fixed set of queries, this is mostly a safeguard
+	private static final int CACHE_SIZE = 256;
+	
+	private static Map<String, CompiledQuery> cache = Collections.synchronizedMap(new LRUCache<String, CompiledQuery>(CACHE_SIZE));
+	
+	private Step [] steps;
+	// if the query ends in an attribute selection (e.g. /@Name), this is the name of the attribute
+	private String attribute;
+	// if the query ends in a property path, we return the text content
+	private boolean text;
+	
+	public static CompiledQuery compile(String query) {
+		CompiledQuery compiled = cache.get(query);
+		if (compiled == null) {
+			compiled = new CompiledQuery(query);
+			cache.put(query, compiled);
+		}
+		return compiled;
+	}
+	
+	private CompiledQuery(String query) {
+		// we don't care about namespaces
+		query = query
+			.replace("edm:", "")
+			.replace("edmx:", "");
+		String[] parts = query.split("/");
+		List<Step> steps = new ArrayList<Step>();
+		for (int i = 0; i < parts.length; i++) {
+			String part = parts[i];
+			if (i == parts.length - 1 && part.startsWith("@")) {
+				attribute = part.substring(1);
+				break;
+			}
+			Step step = new Step();
+			step.nodeName = part;
+			if (part.contains("[")) {
+				step.nodeName = part.substring(0, part.indexOf("["));
+				String condition = part.substring(part.indexOf("[") + 1, part.indexOf("]"));
+				if (condition.startsWith("@")) {
+					String conditionContent = condition.substring(1);
+					int equalsIndex = conditionContent.indexOf('=');
+					if (equalsIndex != -1) {
+						step.attributeName = conditionContent.substring(0, equalsIndex).trim();
+						String rawValue = conditionContent.substring(equalsIndex + 1).trim();
+						if (rawValue.startsWith("'") && rawValue.endsWith("'")) {
+							step.attributeValue = rawValue.substring(1, rawValue.length() - 1);
+						}
+						else {
+							step.attributeValue = rawValue;
+						}
+					}
+				}
+			}
+			steps.add(step);
+		}
+		this.steps = steps.toArray(new Step[0]);
+		this.text = attribute == null && (query.endsWith("Collection/PropertyPath") || query.endsWith("Collection/NavigationPropertyPath"));
+	}
+	
+	/**
+	 * Returns null if nothing matches, otherwise a list of elements or (for attribute selections and property paths) strings
+	 */
+	public List<?> evaluate(Element element) {
+		List<Object> results = new ArrayList<Object>();
+		evaluate(element, 0, results);
+		return results.isEmpty() ? null : results;
+	}
+	
+	// depth first so we don't need intermediate lists per step, the document order of the results is the same
+	private void evaluate(Element element, int stepIndex, List<Object> results) {
+		if (stepIndex == steps.length) {
+			if (attribute != null) {
+				if (element.hasAttribute(attribute)) {
+					results.add(element.getAttribute(attribute));
+				}
+			}
+			else if (text) {
+				results.add(element.getTextContent());
+			}
+			else {
+				results.add(element);
+			}
+			return;
+		}
+		Step step = steps[stepIndex];
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element && step.nodeName.equals(child.getLocalName())) {
+				if (step.attributeName == null || step.attributeValue.equals(((Element) child).getAttribute(step.attributeName))) {
+					evaluate((Element) child, stepIndex + 1, results);
+				}
+			}
+		}
+	}
+	
+	private static class Step {
+		private String nodeName, attributeName, attributeValue;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decompresses http content while it is being read.
+ * We don't blindly trust the content encoding header: depending on the client the content might already have been decoded, so we check the actual bytes.
+ */
+class ContentDecoder {
+	
+	/**
+	 * Wraps the input so it is decompressed if it is gzip or deflate encoded, other content is returned as is
+	 */
+	public static InputStream decode(InputStream input, String contentEncoding) throws IOException {
+		if (input == null) {
+			return null;
+		}
+		PushbackInputStream pushback = new PushbackInputStream(input, 2);
+		byte [] magic = new byte[2];
+		int read = 0;
+		while (read < magic.length) {
+			int amount = pushback.read(magic, read, magic.length - read);
+			if (amount < 0) {
+				break;
+			}
+			read += amount;
+		}
+		if (read > 0) {
+			pushback.unread(magic, 0, read);
+		}
+		if (read < 2) {
+			return pushback;
+		}
+		int first = magic[0] & 0xff, second = magic[1] & 0xff;
+		// the gzip magic number
+		if (first == 0x1f && second == 0x8b) {
+			return new GZIPInputStream(pushback, 8192);
+		}
+		// a zlib header has a compression method of 8 (deflate) in the lower bits of the first byte and the two bytes are a multiple of 31
+		else if ((first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0) {
+			return new InflaterInputStream(pushback, new Inflater(), 8192);
+		}
+		// some servers send raw deflate data without the zlib wrapper, this can only be detected by the header
+		// xml (which is all we expect) always starts with "<" or a byte order mark, so we only decode if it does not look like xml
+		else if (contentEncoding != null && contentEncoding.trim().equalsIgnoreCase("deflate") && first != '<' && first != 0xef && first != 0xfe && first != 0xff && !Character.isWhitespace(first)) {
+			return new InflaterInputStream(pushback, new Inflater(true), 8192);
+		}
+		return pushback;
+	}
+}
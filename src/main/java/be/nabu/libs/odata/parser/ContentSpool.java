@@ -0,0 +1,188 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Streaming parsing needs to go over the metadata twice (once to preparse, once to parse) but the input is usually a one-shot network stream.
+ * Small content is kept in memory, once it exceeds the threshold it is spooled to a temporary file which can be read as often as needed.
+ * While spooling we also calculate a hash of the content so we can recognize metadata we have seen before.
+ */
+class ContentSpool implements Closeable {
+
+	private File file;
+	private byte [] content;
+	private String hash;
+	private long size;
+
+	public ContentSpool(InputStream input) throws IOException {
+		this(input, 0);
+	}
+	
+	public ContentSpool(InputStream input, long threshold) throws IOException {
+		OutputStream output = null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			InputStream digesting = new DigestInputStream(input, digest);
+			ByteArrayOutputStream memory = new ByteArrayOutputStream();
+			output = memory;
+			byte [] buffer = new byte[8192];
+			int read;
+			while ((read = digesting.read(buffer)) >= 0) {
+				// switch to a file once we exceed the threshold
+				if (file == null && size + read > threshold) {
+					file = File.createTempFile("odata-metadata", ".xml");
+					output = new BufferedOutputStream(new FileOutputStream(file));
+					memory.writeTo(output);
+					memory = null;
+				}
+				output.write(buffer, 0, read);
+				size += read;
+			}
+			if (file == null) {
+				content = memory.toByteArray();
+			}
+			else {
+				output.close();
+			}
+			hash = toHex(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e) {
+			close(output);
+			close();
+			throw new RuntimeException(e);
+		}
+		catch (IOException e) {
+			close(output);
+			close();
+			throw e;
+		}
+	}
+	
+	private static void close(OutputStream output) {
+		try {
+			if (output != null) {
+				output.close();
+			}
+		}
+		catch (IOException e) {
+			// ignore, we are already handling an exception
+		}
+	}
+
+	public String getHash() {
+		return hash;
+	}
+	
+	/**
+	 * Calculates the hash of the content as if every occurrence of the search bytes was replaced with the replacement bytes.
+	 * This allows us to recognize content that only differs in for example the host.
+	 */
+	public String getHash(byte [] search, byte [] replacement) throws IOException {
+		if (search.length == 0) {
+			return hash;
+		}
+		try (InputStream input = newInputStream()) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte [] buffer = new byte[8192 + search.length];
+			// the bytes at the end of the previous read that could be the start of a match
+			int carry = 0;
+			int read;
+			while ((read = input.read(buffer, carry, buffer.length - carry)) >= 0) {
+				int total = carry + read;
+				int start = 0;
+				int i = 0;
+				while (i <= total - search.length) {
+					if (matches(buffer, i, search)) {
+						digest.update(buffer, start, i - start);
+						digest.update(replacement);
+						i += search.length;
+						start = i;
+					}
+					else {
+						i++;
+					}
+				}
+				int tail = Math.max(start, total - search.length + 1);
+				digest.update(buffer, start, tail - start);
+				System.arraycopy(buffer, tail, buffer, 0, total - tail);
+				carry = total - tail;
+			}
+			digest.update(buffer, 0, carry);
+			return toHex(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static boolean matches(byte [] buffer, int offset, byte [] search) {
+		for (int i = 0; i < search.length; i++) {
+			if (buffer[offset + i] != search[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public long getSize() {
+		return size;
+	}
+	
+	// whether the content is spooled to a file rather than kept in memory
+	public boolean isSpooled() {
+		return file != null;
+	}
+
+	static String toHex(byte [] bytes) {
+		StringBuilder builder = new StringBuilder();
+		for (byte single : bytes) {
+			builder.append(String.format("%02x", single & 0xff));
+		}
+		return builder.toString();
+	}
+
+	public InputStream newInputStream() throws IOException {
+		if (content != null) {
+			return new ByteArrayInputStream(content);
+		}
+		return new BufferedInputStream(new FileInputStream(file));
+	}
+
+	@Override
+	public void close() {
+		content = null;
+		if (file != null && !file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+}
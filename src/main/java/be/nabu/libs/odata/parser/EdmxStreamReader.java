@@ -0,0 +1,265 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Pull parser helpers for the streaming mode of the odata parser.
+ * The metadata is never materialized as a whole, instead we either extract an outline (for preparsing) or we materialize one schema child at a time as a standalone dom fragment.
+ * Because the fragment is a real dom element, the parsing logic itself is shared with the dom based mode.
+ */
+class EdmxStreamReader {
+
+	static final String NS_EDM = "http://docs.oasis-open.org/odata/ns/edm";
+
+	private XMLInputFactory factory;
+	private DocumentBuilder builder;
+
+	public EdmxStreamReader() {
+		factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		// metadata documents have no business with dtds or external entities
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		try {
+			DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+			documentBuilderFactory.setNamespaceAware(true);
+			builder = documentBuilderFactory.newDocumentBuilder();
+		}
+		catch (ParserConfigurationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public XMLStreamReader open(InputStream input) throws XMLStreamException {
+		return factory.createXMLStreamReader(input);
+	}
+
+	/**
+	 * Moves the reader to the next start element that is a direct child of the current element.
+	 * Returns false if the current element is closed before another child is found.
+	 */
+	public boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Skips the current element (including all its children), the reader is left on the end element
+	 */
+	public void skip(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Reads the outline of the schema the reader is currently positioned on, the reader is left on the end element of the schema
+	 */
+	public SchemaOutline outline(XMLStreamReader reader) throws XMLStreamException {
+		return outline(reader, true);
+	}
+	
+	/**
+	 * Reads the outline of the schema, the fingerprints of the types and entity sets are only calculated if requested
+	 */
+	public SchemaOutline outline(XMLStreamReader reader, boolean fingerprints) throws XMLStreamException {
+		SchemaOutline outline = new SchemaOutline();
+		outline.setNamespace(attribute(reader, "Namespace"));
+		outline.setAlias(attribute(reader, "Alias"));
+		while (nextChild(reader)) {
+			String localName = reader.getLocalName();
+			if (!NS_EDM.equals(reader.getNamespaceURI())) {
+				skip(reader);
+			}
+			else if (localName.equals("EnumType")) {
+				String name = attribute(reader, "Name");
+				List<String> members = new ArrayList<String>();
+				while (nextChild(reader)) {
+					if (reader.getLocalName().equals("Member")) {
+						members.add(attribute(reader, "Name"));
+					}
+					skip(reader);
+				}
+				outline.getEnumTypes().put(name, members);
+			}
+			else if (localName.equals("ComplexType") || localName.equals("EntityType")) {
+				String name = attribute(reader, "Name");
+				String baseType = attribute(reader, "BaseType");
+				List<String> references = new ArrayList<String>();
+				List<String> containments = new ArrayList<String>();
+				if (!baseType.isEmpty()) {
+					references.add(baseType);
+				}
+				Fingerprint fingerprint = fingerprints ? new Fingerprint() : null;
+				if (fingerprint != null) {
+					fingerprint.startElement(reader);
+				}
+				// any child element (even an annotation) means it is not empty
+				boolean empty = true;
+				while (nextChild(reader)) {
+					empty = false;
+					if (fingerprint != null) {
+						fingerprint.startElement(reader);
+					}
+					if (NS_EDM.equals(reader.getNamespaceURI()) && (reader.getLocalName().equals("Property") || reader.getLocalName().equals("NavigationProperty"))) {
+						references.add(attribute(reader, "Type"));
+						if (reader.getLocalName().equals("NavigationProperty") && "true".equalsIgnoreCase(attribute(reader, "ContainsTarget"))) {
+							containments.add(attribute(reader, "Type"));
+						}
+					}
+					if (fingerprint != null) {
+						fingerprint.addRest(reader);
+					}
+					else {
+						skip(reader);
+					}
+				}
+				SchemaOutline.TypeOutline type = new SchemaOutline.TypeOutline(name, localName.equals("EntityType"), empty);
+				type.getReferences().addAll(references);
+				type.getContainments().addAll(containments);
+				if (fingerprint != null) {
+					fingerprint.endElement();
+					type.setFingerprint(fingerprint.toString());
+				}
+				if (type.isEntity()) {
+					outline.getEntityTypes().add(type);
+				}
+				else {
+					outline.getComplexTypes().add(type);
+				}
+			}
+			else if (localName.equals("EntityContainer")) {
+				while (nextChild(reader)) {
+					if (NS_EDM.equals(reader.getNamespaceURI()) && reader.getLocalName().equals("EntitySet")) {
+						String name = attribute(reader, "Name");
+						outline.getEntitySets().put(name, attribute(reader, "EntityType"));
+						if (fingerprints) {
+							Fingerprint fingerprint = new Fingerprint();
+							fingerprint.startElement(reader);
+							fingerprint.addRest(reader);
+							outline.getEntitySetFingerprints().put(name, fingerprint.toString());
+						}
+						else {
+							skip(reader);
+						}
+					}
+					else {
+						skip(reader);
+					}
+				}
+			}
+			else {
+				skip(reader);
+			}
+		}
+		return outline;
+	}
+
+	/**
+	 * Materializes the element the reader is currently positioned on as a standalone dom fragment, the reader is left on the end element.
+	 * Each fragment gets its own document so it can be garbage collected independently of the others.
+	 */
+	public Element fragment(XMLStreamReader reader) throws XMLStreamException {
+		Document document = builder.newDocument();
+		Element root = createElement(document, reader);
+		document.appendChild(root);
+		Element current = root;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				Element child = createElement(document, reader);
+				current.appendChild(child);
+				current = child;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				if (current == root) {
+					break;
+				}
+				current = (Element) current.getParentNode();
+			}
+			else if ((event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) && !reader.isWhiteSpace()) {
+				current.appendChild(document.createTextNode(reader.getText()));
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * Copies an element into a standalone dom fragment. The dom is not thread safe (not even for reading) so this allows an element to be processed by another thread.
+	 */
+	public Element fragment(Element element) {
+		Document document = builder.newDocument();
+		Element copy = (Element) document.importNode(element, true);
+		document.appendChild(copy);
+		return copy;
+	}
+
+	private Element createElement(Document document, XMLStreamReader reader) {
+		String prefix = reader.getPrefix();
+		String localName = reader.getLocalName();
+		Element element = document.createElementNS(reader.getNamespaceURI(), prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName);
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String attributeNamespace = reader.getAttributeNamespace(i);
+			if (attributeNamespace == null || attributeNamespace.isEmpty()) {
+				element.setAttributeNS(null, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+			}
+			else {
+				String attributePrefix = reader.getAttributePrefix(i);
+				element.setAttributeNS(attributeNamespace, attributePrefix == null || attributePrefix.isEmpty() ? reader.getAttributeLocalName(i) : attributePrefix + ":" + reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+			}
+		}
+		return element;
+	}
+
+	public static String attribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		// same behavior as the dom: missing attributes are empty strings
+		return value == null ? "" : value;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.types.TypeRegistryImpl;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.Type;
+
+/**
+ * The functions and extension types that are generated for a single entity set.
+ * Generating them does not touch the definition, they are only added to it when applied. This allows us to generate in any order (or in parallel) while still applying in document order.
+ */
+public class EntitySetArtifacts {
+	
+	private EntitySetDescriptor descriptor;
+	private String namespace, collectionName;
+	private Type type;
+	private List<ComplexType> types = new ArrayList<ComplexType>();
+	private List<Function> functions = new ArrayList<Function>();
+	// the configured expansions and managed bindings at the time of parsing, in lazy mode the generation happens later and should not pick up configuration changes
+	private List<String> expansions = new ArrayList<String>(), managedBindings = new ArrayList<String>();
+	// in lazy mode the functions and types are only generated when they are first needed
+	private Runnable generator;
+	private boolean generated;
+	
+	public EntitySetArtifacts(EntitySetDescriptor descriptor, String namespace, Type type, String collectionName) {
+		this.descriptor = descriptor;
+		this.namespace = namespace;
+		this.type = type;
+		this.collectionName = collectionName;
+	}
+	
+	public void apply(ODataDefinitionImpl definition) {
+		for (ComplexType type : types) {
+			((TypeRegistryImpl) definition.getRegistry()).register(type);
+		}
+		definition.getFunctions().addAll(functions);
+	}
+	
+	// generates the functions and types if this was not done yet, returns true if they were generated by this call
+	public synchronized boolean generate() {
+		if (!generated) {
+			if (generator != null) {
+				generator.run();
+				// the generator holds on to the parser
+				generator = null;
+			}
+			generated = true;
+			return true;
+		}
+		return false;
+	}
+	
+	public Runnable getGenerator() {
+		return generator;
+	}
+	public void setGenerator(Runnable generator) {
+		this.generator = generator;
+	}
+	
+	public EntitySetDescriptor getDescriptor() {
+		return descriptor;
+	}
+	public String getNamespace() {
+		return namespace;
+	}
+	// the type of the entity set
+	public Type getType() {
+		return type;
+	}
+	// the collection name of the type at the time the entity set was registered
+	public String getCollectionName() {
+		return collectionName;
+	}
+	// the extension types that need to be registered
+	public List<ComplexType> getTypes() {
+		return types;
+	}
+	public List<Function> getFunctions() {
+		return functions;
+	}
+	public List<String> getExpansions() {
+		return expansions;
+	}
+	public List<String> getManagedBindings() {
+		return managedBindings;
+	}
+}
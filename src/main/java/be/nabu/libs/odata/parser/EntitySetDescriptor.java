@@ -0,0 +1,127 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything we need to know about an entity set (or a contained navigation property that is exposed as one) to generate the functions for it.
+ * It is built in a single scan over the element, the generators only use this descriptor.
+ */
+public class EntitySetDescriptor {
+	
+	public static final String INSERT_RESTRICTIONS = "Org.OData.Capabilities.V1.InsertRestrictions";
+	public static final String SEARCH_RESTRICTIONS = "Org.OData.Capabilities.V1.SearchRestrictions";
+	public static final String DELETE_RESTRICTIONS = "Org.OData.Capabilities.V1.DeleteRestrictions";
+	public static final String UPDATE_RESTRICTIONS = "Org.OData.Capabilities.V1.UpdateRestrictions";
+	public static final String COUNT_RESTRICTIONS = "Org.OData.Capabilities.V1.CountRestrictions";
+	public static final String SELECT_SUPPORT = "Org.OData.Capabilities.V1.SelectSupport";
+	public static final String SKIP_SUPPORTED = "Org.OData.Capabilities.V1.SkipSupported";
+	public static final String TOP_SUPPORTED = "Org.OData.Capabilities.V1.TopSupported";
+	public static final String CHANGE_TRACKING = "Org.OData.Capabilities.V1.ChangeTracking";
+
+	private String name, typeName;
+	private boolean singleton;
+	private AnnotationIndex annotations = new AnnotationIndex();
+	// the key is the path of the navigation property, the value is the target entity set
+	private Map<String, String> bindings = new LinkedHashMap<String, String>();
+	
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public String getTypeName() {
+		return typeName;
+	}
+	public void setTypeName(String typeName) {
+		this.typeName = typeName;
+	}
+	public boolean isSingleton() {
+		return singleton;
+	}
+	public void setSingleton(boolean singleton) {
+		this.singleton = singleton;
+	}
+	public AnnotationIndex getAnnotations() {
+		return annotations;
+	}
+	public Map<String, String> getBindings() {
+		return bindings;
+	}
+	public String getBindingTarget(String path) {
+		return bindings.get(path);
+	}
+	
+	// by default we can insert
+	public boolean isInsertable() {
+		return !singleton && isTrue(INSERT_RESTRICTIONS, "Insertable");
+	}
+	// searching is basically a "q" parameter, it searches object wide and uses a contains
+	// not supported everywhere, if either one is set to false, we can't do it
+	public boolean isSearchable() {
+		return !singleton && isTrue(SEARCH_RESTRICTIONS, "Searchable") && isTrue(SELECT_SUPPORT, "Searchable");
+	}
+	// filter is supported more frequently, does not allow a contains and allows targeting specific fields
+	public boolean isFilterable() {
+		return !singleton && isTrue(SELECT_SUPPORT, "Filterable");
+	}
+	public boolean isDeletable() {
+		return !singleton && isTrue(DELETE_RESTRICTIONS, "Deletable");
+	}
+	public boolean isUpdatable() {
+		return isTrue(UPDATE_RESTRICTIONS, "Updatable");
+	}
+	public boolean isSkipSupported() {
+		return !singleton && "true".equals(annotations.getValue(SKIP_SUPPORTED, "true")) && isTrue(SELECT_SUPPORT, "SkipSupported");
+	}
+	public boolean isTopSupported() {
+		return !singleton && "true".equals(annotations.getValue(TOP_SUPPORTED, "true")) && isTrue(SELECT_SUPPORT, "TopSupported");
+	}
+	public boolean isCountable() {
+		return !singleton && isTrue(COUNT_RESTRICTIONS, "Countable") && isTrue(SELECT_SUPPORT, "CountSupported");
+	}
+	public boolean isSortable() {
+		return !singleton && isTrue(SELECT_SUPPORT, "Sortable");
+	}
+	// whether we can project the fields we want with $select
+	public boolean isSelectable() {
+		return isTrue(SELECT_SUPPORT, "Supported");
+	}
+	// unlike the other capabilities, change tracking is only supported if it is annotated
+	public boolean isChangeTracking() {
+		return !singleton && annotations.hasTerm(CHANGE_TRACKING) && isTrue(CHANGE_TRACKING, "Supported");
+	}
+	
+	public List<String> getNonInsertableProperties() {
+		return annotations.getPropertyCollection(INSERT_RESTRICTIONS, "NonInsertableProperties");
+	}
+	public List<String> getNonInsertableNavigationProperties() {
+		return annotations.getPropertyCollection(INSERT_RESTRICTIONS, "NonInsertableNavigationProperties");
+	}
+	public List<String> getNonUpdatableProperties() {
+		return annotations.getPropertyCollection(UPDATE_RESTRICTIONS, "NonUpdatableProperties");
+	}
+	
+	private boolean isTrue(String term, String property) {
+		return "true".equals(annotations.getPropertyValue(term, property, "true"));
+	}
+}
@@ -0,0 +1,147 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Calculates a hash of a piece of metadata that does not depend on formatting, attribute order or namespace prefixes.
+ * A dom element and the same element read from a stream have the same fingerprint.
+ */
+class Fingerprint {
+	
+	private MessageDigest digest;
+	
+	public Fingerprint() {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public Fingerprint update(String value) {
+		digest.update((value == null ? "\0" : value).getBytes(StandardCharsets.UTF_8));
+		// a separator so "a" + "bc" differs from "ab" + "c"
+		digest.update((byte) 0x1f);
+		return this;
+	}
+	
+	public void startElement(String namespace, String localName, Map<String, String> attributes) {
+		update("<").update(namespace).update(localName);
+		for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+			update(attribute.getKey()).update(attribute.getValue());
+		}
+	}
+	
+	public void text(String text) {
+		// whitespace between elements is formatting
+		if (!text.trim().isEmpty()) {
+			update("#").update(text);
+		}
+	}
+	
+	public void endElement() {
+		update(">");
+	}
+	
+	@Override
+	public String toString() {
+		return ContentSpool.toHex(digest.digest());
+	}
+	
+	public static String of(Element element) {
+		Fingerprint fingerprint = new Fingerprint();
+		fingerprint.add(element);
+		return fingerprint.toString();
+	}
+	
+	private void add(Element element) {
+		Map<String, String> attributes = new TreeMap<String, String>();
+		NamedNodeMap map = element.getAttributes();
+		for (int i = 0; i < map.getLength(); i++) {
+			Attr attribute = (Attr) map.item(i);
+			// namespace declarations are not reported by the stream reader
+			if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+				attributes.put(attribute.getNamespaceURI() == null ? attribute.getLocalName() : attribute.getNamespaceURI() + ":" + attribute.getLocalName(), attribute.getValue());
+			}
+		}
+		startElement(element.getNamespaceURI(), element.getLocalName(), attributes);
+		NodeList children = element.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			Node child = children.item(i);
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				add((Element) child);
+			}
+			else if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+				text(child.getNodeValue());
+			}
+		}
+		endElement();
+	}
+	
+	/**
+	 * Adds the start element the reader is currently positioned on
+	 */
+	public void startElement(XMLStreamReader reader) {
+		Map<String, String> attributes = new TreeMap<String, String>();
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String namespace = reader.getAttributeNamespace(i);
+			attributes.put(namespace == null || namespace.isEmpty() ? reader.getAttributeLocalName(i) : namespace + ":" + reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+		}
+		startElement(reader.getNamespaceURI(), reader.getLocalName(), attributes);
+	}
+	
+	/**
+	 * Adds everything up to and including the end of the element the reader is positioned on, the reader is left on the end element
+	 */
+	public void addRest(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				startElement(reader);
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				endElement();
+				depth--;
+			}
+			else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+				text(reader.getText());
+			}
+		}
+	}
+}
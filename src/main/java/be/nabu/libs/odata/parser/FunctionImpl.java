@@ -24,6 +24,8 @@ public class FunctionImpl implements Function {
 	private boolean action;
 	private ComplexType input, output;
 	private String context, name, method;
+	// whether the entity set of the function can be filtered, this is decided when the function is generated
+	private boolean filterable;
 	@Override
 	public boolean isAction() {
 		return action;
@@ -66,4 +68,10 @@ public class FunctionImpl implements Function {
 	public void setMethod(String method) {
 		this.method = method;
 	}
+	public boolean isFilterable() {
+		return filterable;
+	}
+	public void setFilterable(boolean filterable) {
+		this.filterable = filterable;
+	}
 }
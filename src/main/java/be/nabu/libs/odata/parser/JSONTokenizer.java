@@ -0,0 +1,277 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.Set;
+
+/**
+ * A minimal pull tokenizer for json, it never holds more than the current token in memory.
+ * We use it to read the envelopes of odata responses (batch responses, collections) without binding them as a whole, the values we are interested in can be captured as raw json and bound separately.
+ */
+class JSONTokenizer {
+
+	enum Token {
+		START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, NAME, STRING, NUMBER, TRUE, FALSE, NULL, END
+	}
+	
+	private Reader reader;
+	// a character we read too far (e.g. the end of a number)
+	private int peeked = -2;
+	private StringBuilder text = new StringBuilder();
+	// while capturing, every character we read is recorded
+	private StringBuilder capture;
+	// while skipping, the content of strings is not retained
+	private boolean skipping;
+	private Token current;
+	private long offset;
+	
+	public JSONTokenizer(Reader reader) {
+		this.reader = reader;
+	}
+	
+	private int read() throws IOException {
+		if (peeked != -2) {
+			int c = peeked;
+			peeked = -2;
+			return c;
+		}
+		int c = reader.read();
+		if (c >= 0) {
+			offset++;
+			if (capture != null) {
+				capture.append((char) c);
+			}
+		}
+		return c;
+	}
+	
+	/**
+	 * Moves to the next token, separators are skipped. A string followed by a colon is reported as a name.
+	 */
+	public Token next() throws IOException, ParseException {
+		int c = read();
+		while (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == ',' || c == ':') {
+			c = read();
+		}
+		text.setLength(0);
+		switch (c) {
+			case -1: current = Token.END; break;
+			case '{': current = Token.START_OBJECT; break;
+			case '}': current = Token.END_OBJECT; break;
+			case '[': current = Token.START_ARRAY; break;
+			case ']': current = Token.END_ARRAY; break;
+			case '"':
+				readString();
+				// check if it is the name of a field
+				c = read();
+				while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+					c = read();
+				}
+				if (c == ':') {
+					current = Token.NAME;
+				}
+				else {
+					peeked = c;
+					current = Token.STRING;
+				}
+			break;
+			case 't': expect("rue"); current = Token.TRUE; text.append("true"); break;
+			case 'f': expect("alse"); current = Token.FALSE; text.append("false"); break;
+			case 'n': expect("ull"); current = Token.NULL; text.append("null"); break;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+						text.append((char) c);
+						c = read();
+					}
+					peeked = c;
+					current = Token.NUMBER;
+				}
+				else {
+					throw new ParseException("Unexpected character '" + (char) c + "'", (int) offset);
+				}
+		}
+		return current;
+	}
+	
+	private void expect(String rest) throws IOException, ParseException {
+		for (int i = 0; i < rest.length(); i++) {
+			if (read() != rest.charAt(i)) {
+				throw new ParseException("Invalid literal", (int) offset);
+			}
+		}
+	}
+	
+	private void readString() throws IOException, ParseException {
+		while (true) {
+			int c = read();
+			if (c < 0) {
+				throw new ParseException("Unterminated string", (int) offset);
+			}
+			else if (c == '"') {
+				return;
+			}
+			else if (skipping) {
+				// an escaped character can not end the string
+				if (c == '\\') {
+					read();
+				}
+			}
+			else if (c == '\\') {
+				c = read();
+				switch (c) {
+					case 'b': text.append('\b'); break;
+					case 'f': text.append('\f'); break;
+					case 'n': text.append('\n'); break;
+					case 'r': text.append('\r'); break;
+					case 't': text.append('\t'); break;
+					case 'u':
+						char [] hex = new char[4];
+						for (int i = 0; i < 4; i++) {
+							hex[i] = (char) read();
+						}
+						try {
+							text.append((char) Integer.parseInt(new String(hex), 16));
+						}
+						catch (NumberFormatException e) {
+							throw new ParseException("Invalid unicode escape", (int) offset);
+						}
+					break;
+					default: text.append((char) c);
+				}
+			}
+			else {
+				text.append((char) c);
+			}
+		}
+	}
+	
+	public Token getCurrent() {
+		return current;
+	}
+	
+	// the name, the (unescaped) string or the literal of the current token
+	public String getText() {
+		return text.toString();
+	}
+	
+	/**
+	 * If the current token starts an object or array, skips to the end of it
+	 */
+	public void skipValue() throws IOException, ParseException {
+		if (current == Token.START_OBJECT || current == Token.START_ARRAY) {
+			int depth = 1;
+			while (depth > 0) {
+				Token token = next();
+				if (token == Token.START_OBJECT || token == Token.START_ARRAY) {
+					depth++;
+				}
+				else if (token == Token.END_OBJECT || token == Token.END_ARRAY) {
+					depth--;
+				}
+				else if (token == Token.END) {
+					throw new ParseException("Unexpected end of json", (int) offset);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the value that starts at the current token as json, for objects and arrays the tokenizer is left on the end of the value
+	 */
+	public String capture() throws IOException, ParseException {
+		switch (current) {
+			case START_OBJECT:
+			case START_ARRAY:
+				capture = new StringBuilder(current == Token.START_OBJECT ? "{" : "[");
+				try {
+					skipValue();
+					return capture.toString();
+				}
+				finally {
+					capture = null;
+				}
+			case STRING:
+				return quote(getText());
+			case NUMBER:
+			case TRUE:
+			case FALSE:
+			case NULL:
+				return getText();
+			default:
+				throw new ParseException("Can not capture a " + current, (int) offset);
+		}
+	}
+	
+	/**
+	 * Captures the object that starts at the current token, only retaining the fields that are part of the projection (and the annotations).
+	 * The values of the other fields are skipped without being retained, the tokenizer is left on the end of the object.
+	 */
+	public String capture(Set<String> projection) throws IOException, ParseException {
+		if (current != Token.START_OBJECT) {
+			throw new ParseException("Can only project an object, not a " + current, (int) offset);
+		}
+		StringBuilder builder = new StringBuilder("{");
+		while (next() == Token.NAME) {
+			String name = getText();
+			if (name.startsWith("@") || projection.contains(name)) {
+				next();
+				builder.append(builder.length() == 1 ? "" : ",").append(quote(name)).append(":").append(capture());
+			}
+			else {
+				skipping = true;
+				try {
+					next();
+					skipValue();
+				}
+				finally {
+					skipping = false;
+				}
+			}
+		}
+		if (current != Token.END_OBJECT) {
+			throw new ParseException("Unexpected " + current + " in object", (int) offset);
+		}
+		return builder.append("}").toString();
+	}
+	
+	static String quote(String value) {
+		StringBuilder builder = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': builder.append("\\\""); break;
+				case '\\': builder.append("\\\\"); break;
+				case '\n': builder.append("\\n"); break;
+				case '\r': builder.append("\\r"); break;
+				case '\t': builder.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						builder.append(String.format("\\u%04x", (int) c));
+					}
+					else {
+						builder.append(c);
+					}
+			}
+		}
+		return builder.append('"').toString();
+	}
+}
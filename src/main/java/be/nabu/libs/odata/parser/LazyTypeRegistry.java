@@ -0,0 +1,85 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.types.TypeRegistryImpl;
+import be.nabu.libs.types.api.ComplexType;
+
+/**
+ * In lazy mode the extension types of an entity set (e.g. the Insert and Select types) are only generated when the entity set is first used.
+ * This registry knows which types will be generated by which entity set so a lookup can trigger the generation.
+ */
+class LazyTypeRegistry extends TypeRegistryImpl {
+
+	// the suffixes of the extension types that can be generated for an entity set
+	private static final String [] EXTENSIONS = new String [] { "Insert", "Select", "Update" };
+	
+	private ODataDefinitionImpl definition;
+	// the key is the namespace and name of the extension type
+	private Map<String, EntitySetArtifacts> pending = new HashMap<String, EntitySetArtifacts>();
+	
+	public LazyTypeRegistry(ODataDefinitionImpl definition) {
+		this.definition = definition;
+	}
+	
+	public synchronized void expect(EntitySetArtifacts artifacts) {
+		for (String extension : EXTENSIONS) {
+			pending.put(artifacts.getNamespace() + ":" + artifacts.getDescriptor().getName() + extension, artifacts);
+		}
+	}
+	
+	synchronized void resolved(EntitySetArtifacts artifacts) {
+		pending.values().removeIf(x -> x == artifacts);
+	}
+	
+	@Override
+	public ComplexType getComplexType(String namespace, String name) {
+		ComplexType type = super.getComplexType(namespace, name);
+		if (type == null) {
+			EntitySetArtifacts artifacts;
+			synchronized (this) {
+				artifacts = pending.get(namespace + ":" + name);
+			}
+			if (artifacts != null) {
+				definition.generate(artifacts);
+				type = super.getComplexType(namespace, name);
+			}
+		}
+		return type;
+	}
+
+	@Override
+	public List<ComplexType> getComplexTypes(String namespace) {
+		List<EntitySetArtifacts> list;
+		synchronized (this) {
+			list = new ArrayList<EntitySetArtifacts>(pending.values());
+		}
+		for (EntitySetArtifacts artifacts : list) {
+			if (namespace == null ? artifacts.getNamespace() == null : namespace.equals(artifacts.getNamespace())) {
+				definition.generate(artifacts);
+			}
+		}
+		return super.getComplexTypes(namespace);
+	}
+}
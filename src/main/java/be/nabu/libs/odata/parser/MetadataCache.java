@@ -0,0 +1,142 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * A local copy of the metadata documents we fetched, along with the validators (etag, last modified) the server sent.
+ * This allows us to do conditional requests and reuse the local copy if the server reports that nothing changed.
+ */
+public class MetadataCache {
+
+	private File directory;
+
+	public MetadataCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns null if we don't have a copy of the metadata
+	 */
+	public Entry get(URI url) {
+		File content = getContentFile(url);
+		File validators = getValidatorFile(url);
+		if (!content.exists() || !validators.exists()) {
+			return null;
+		}
+		Properties properties = new Properties();
+		try (InputStream input = new FileInputStream(validators)) {
+			properties.load(input);
+		}
+		catch (IOException e) {
+			return null;
+		}
+		return new Entry(content, properties.getProperty("etag"), properties.getProperty("lastModified"));
+	}
+
+	/**
+	 * Stores the content along with the validators, the content is consumed entirely
+	 */
+	public Entry put(URI url, InputStream content, String etag, String lastModified) throws IOException {
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Could not create metadata cache directory: " + directory);
+		}
+		File contentFile = getContentFile(url);
+		File validatorFile = getValidatorFile(url);
+		// concurrent refreshes of the same url each write their own temporary file, the last one to be moved wins
+		File temporary = File.createTempFile(contentFile.getName() + "-", ".tmp", directory);
+		try {
+			Files.copy(content, temporary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			// the old validators no longer apply once we start replacing the content
+			validatorFile.delete();
+			Files.move(temporary.toPath(), contentFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			temporary.delete();
+		}
+		// if there are no validators, there is no point in storing them, we will not be able to do conditional requests
+		if (etag != null || lastModified != null) {
+			Properties properties = new Properties();
+			if (etag != null) {
+				properties.setProperty("etag", etag);
+			}
+			if (lastModified != null) {
+				properties.setProperty("lastModified", lastModified);
+			}
+			try (OutputStream output = new FileOutputStream(validatorFile)) {
+				properties.store(output, url.toString());
+			}
+		}
+		return new Entry(contentFile, etag, lastModified);
+	}
+	
+	private File getContentFile(URI url) {
+		return new File(directory, getName(url) + ".xml");
+	}
+	
+	private File getValidatorFile(URI url) {
+		return new File(directory, getName(url) + ".properties");
+	}
+	
+	private String getName(URI url) {
+		try {
+			return ContentSpool.toHex(MessageDigest.getInstance("SHA-256").digest(url.toString().getBytes(StandardCharsets.UTF_8)));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public static class Entry {
+		private File content;
+		private String etag, lastModified;
+		
+		public Entry(File content, String etag, String lastModified) {
+			this.content = content;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+		public String getEtag() {
+			return etag;
+		}
+		public String getLastModified() {
+			return lastModified;
+		}
+		public InputStream newInputStream() throws IOException {
+			return new BufferedInputStream(new FileInputStream(content));
+		}
+	}
+}
@@ -27,7 +27,8 @@ public class NavigationPropertyImpl implements NavigationProperty {
 	private Element<?> element;
 	private Structure updateType;
 	private boolean containsTarget;
-	private org.w3c.dom.Element domElement;
+	// contained navigation properties are exposed as entity sets, this captures what we need from the metadata to do so
+	private EntitySetDescriptor entitySetDescriptor;
 	
 	@Override
 	public String getQualifiedName() {
@@ -60,11 +61,11 @@ public class NavigationPropertyImpl implements NavigationProperty {
 		this.containsTarget = containsTarget;
 	}
 	
-	public org.w3c.dom.Element getDomElement() {
-		return domElement;
+	public EntitySetDescriptor getEntitySetDescriptor() {
+		return entitySetDescriptor;
 	}
-	public void setDomElement(org.w3c.dom.Element domElement) {
-		this.domElement = domElement;
+	public void setEntitySetDescriptor(EntitySetDescriptor entitySetDescriptor) {
+		this.entitySetDescriptor = entitySetDescriptor;
 	}
 	
 }
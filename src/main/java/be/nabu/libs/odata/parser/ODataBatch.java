@@ -0,0 +1,556 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Groups a number of requests so they can be sent to the server in as few round trips as possible.
+ * Requests can be grouped in change sets, the server executes a change set atomically.
+ * After execution each call has the responses to its requests, in the same order.
+ * Unless the batch continues on error, execution stops at the first request that fails: the server skips the rest of the batch and if the batch is sent in multiple requests, the remaining requests are not sent.
+ * Calls that were not executed have no responses.
+ */
+public class ODataBatch {
+
+	public enum Format {
+		// multipart/mixed, supported by all odata v4 services
+		MULTIPART,
+		// the json format introduced in odata 4.01
+		JSON
+	}
+	
+	private Format format = Format.MULTIPART;
+	// whether the server should continue with the next request if one fails
+	private boolean continueOnError;
+	private List<Entry> entries = new ArrayList<Entry>();
+	private List<Call> calls = new ArrayList<Call>();
+	// the change set we are currently adding to
+	private Entry changeSet;
+	
+	public ODataBatch() {
+		// auto
+	}
+	
+	public ODataBatch(Format format, boolean continueOnError) {
+		this.format = format;
+		this.continueOnError = continueOnError;
+	}
+	
+	public Call add(ODataRequest...requests) {
+		Call call = new Call(null);
+		for (ODataRequest request : requests) {
+			call.requests.add(request);
+		}
+		return add(call);
+	}
+	
+	/**
+	 * Adds an invocation of one of the generated modifying functions
+	 */
+	public Call add(Function function, ComplexContent input) throws IOException {
+		Call call = new Call(function);
+		call.requests.addAll(ODataRequest.forFunction(function, input));
+		return add(call);
+	}
+	
+	private Call add(Call call) {
+		for (ODataRequest request : call.requests) {
+			Item item = new Item(request, call);
+			if (changeSet != null) {
+				changeSet.items.add(item);
+			}
+			else {
+				Entry entry = new Entry(false);
+				entry.items.add(item);
+				entries.add(entry);
+			}
+		}
+		calls.add(call);
+		return call;
+	}
+	
+	/**
+	 * All requests added until the change set is ended are executed atomically
+	 */
+	public void beginChangeSet() {
+		if (changeSet != null) {
+			throw new IllegalStateException("A change set has already been started");
+		}
+		changeSet = new Entry(true);
+		entries.add(changeSet);
+	}
+	
+	public void endChangeSet() {
+		if (changeSet == null) {
+			throw new IllegalStateException("No change set has been started");
+		}
+		if (changeSet.items.isEmpty()) {
+			entries.remove(changeSet);
+		}
+		changeSet = null;
+	}
+	
+	public List<Call> getCalls() {
+		return calls;
+	}
+	public Format getFormat() {
+		return format;
+	}
+	public void setFormat(Format format) {
+		this.format = format;
+	}
+	public boolean isContinueOnError() {
+		return continueOnError;
+	}
+	public void setContinueOnError(boolean continueOnError) {
+		this.continueOnError = continueOnError;
+	}
+	
+	List<Entry> getEntries() {
+		if (changeSet != null) {
+			throw new IllegalStateException("The change set has not been ended");
+		}
+		return entries;
+	}
+	
+	/**
+	 * An invocation that has been added to the batch, the responses are available once the batch is executed.
+	 * If the server stopped processing the batch before it reached a request, that request has no response (or null if a later request of the same call does).
+	 */
+	public static class Call {
+		private Function function;
+		private List<ODataRequest> requests = new ArrayList<ODataRequest>();
+		private List<ODataResponse> responses = new ArrayList<ODataResponse>();
+		
+		Call(Function function) {
+			this.function = function;
+		}
+		
+		// the generated function this call is for, if any
+		public Function getFunction() {
+			return function;
+		}
+		public List<ODataRequest> getRequests() {
+			return requests;
+		}
+		public List<ODataResponse> getResponses() {
+			return responses;
+		}
+		public boolean isSuccessful() {
+			if (responses.size() < requests.size()) {
+				return false;
+			}
+			for (ODataResponse response : responses) {
+				if (response == null || !response.isSuccessful()) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		ODataResponse getResponse(ODataRequest request) {
+			int index = requests.indexOf(request);
+			return index < responses.size() ? responses.get(index) : null;
+		}
+		
+		void setResponse(ODataRequest request, ODataResponse response) {
+			while (responses.size() < requests.size()) {
+				responses.add(null);
+			}
+			responses.set(requests.indexOf(request), response);
+		}
+	}
+	
+	// either a single request or a change set
+	static class Entry {
+		private boolean changeSet;
+		private List<Item> items = new ArrayList<Item>();
+		
+		Entry(boolean changeSet) {
+			this.changeSet = changeSet;
+		}
+		int size() {
+			return items.size();
+		}
+	}
+	
+	// whether every request in the entries has a successful response
+	static boolean isSuccessful(List<Entry> entries) {
+		for (Entry entry : entries) {
+			for (Item item : entry.items) {
+				ODataResponse response = item.call.getResponse(item.request);
+				if (response == null || !response.isSuccessful()) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	static class Item {
+		private ODataRequest request;
+		private Call call;
+		private String id;
+		
+		Item(ODataRequest request, Call call) {
+			this.request = request;
+			this.call = call;
+		}
+	}
+	
+	private static final byte [] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+	
+	/**
+	 * Writes the entries in the given format, returns the content type of the result
+	 */
+	static String write(List<Entry> entries, Format format, OutputStream output) throws IOException {
+		int counter = 0;
+		for (Entry entry : entries) {
+			for (Item item : entry.items) {
+				item.id = Integer.toString(++counter);
+			}
+		}
+		if (format == Format.JSON) {
+			writeJson(entries, output);
+			return "application/json";
+		}
+		String boundary = "batch_" + UUID.randomUUID();
+		for (Entry entry : entries) {
+			write(output, "--" + boundary);
+			if (entry.changeSet) {
+				String changeSetBoundary = "changeset_" + UUID.randomUUID();
+				write(output, "Content-Type: multipart/mixed; boundary=" + changeSetBoundary);
+				write(output, "");
+				for (Item item : entry.items) {
+					write(output, "--" + changeSetBoundary);
+					writePart(output, item);
+				}
+				write(output, "--" + changeSetBoundary + "--");
+			}
+			else {
+				writePart(output, entry.items.get(0));
+			}
+		}
+		write(output, "--" + boundary + "--");
+		return "multipart/mixed; boundary=" + boundary;
+	}
+	
+	private static void writePart(OutputStream output, Item item) throws IOException {
+		write(output, "Content-Type: application/http");
+		write(output, "Content-Transfer-Encoding: binary");
+		write(output, "Content-ID: " + item.id);
+		write(output, "");
+		write(output, item.request.getMethod() + " " + item.request.getPath() + " HTTP/1.1");
+		for (Map.Entry<String, String> header : item.request.getHeaders().entrySet()) {
+			write(output, header.getKey() + ": " + header.getValue());
+		}
+		if (!item.request.getHeaders().containsKey("Accept")) {
+			write(output, "Accept: application/json");
+		}
+		write(output, "");
+		if (item.request.getContent() != null) {
+			output.write(item.request.getContent());
+		}
+		output.write(CRLF);
+	}
+	
+	private static void write(OutputStream output, String line) throws IOException {
+		output.write(line.getBytes(StandardCharsets.UTF_8));
+		output.write(CRLF);
+	}
+	
+	private static void writeJson(List<Entry> entries, OutputStream output) throws IOException {
+		StringBuilder builder = new StringBuilder("{\"requests\":[");
+		int groups = 0;
+		boolean first = true;
+		for (Entry entry : entries) {
+			String group = entry.changeSet ? "g" + (++groups) : null;
+			for (Item item : entry.items) {
+				if (!first) {
+					builder.append(",");
+				}
+				first = false;
+				builder.append("{\"id\":").append(JSONTokenizer.quote(item.id));
+				if (group != null) {
+					builder.append(",\"atomicityGroup\":").append(JSONTokenizer.quote(group));
+				}
+				builder.append(",\"method\":").append(JSONTokenizer.quote(item.request.getMethod()));
+				builder.append(",\"url\":").append(JSONTokenizer.quote(item.request.getPath()));
+				builder.append(",\"headers\":{");
+				String contentType = null;
+				boolean firstHeader = true;
+				for (Map.Entry<String, String> header : item.request.getHeaders().entrySet()) {
+					if (header.getKey().equalsIgnoreCase("Content-Type")) {
+						contentType = header.getValue();
+					}
+					if (!firstHeader) {
+						builder.append(",");
+					}
+					firstHeader = false;
+					builder.append(JSONTokenizer.quote(header.getKey().toLowerCase())).append(":").append(JSONTokenizer.quote(header.getValue()));
+				}
+				builder.append("}");
+				if (item.request.getContent() != null) {
+					String content = new String(item.request.getContent(), StandardCharsets.UTF_8);
+					// json content is embedded as is, anything else as a string
+					builder.append(",\"body\":").append(contentType != null && contentType.contains("json") ? content : JSONTokenizer.quote(content));
+				}
+				builder.append("}");
+			}
+		}
+		builder.append("]}");
+		output.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Reads the batch response and hands the responses to the calls they belong to
+	 */
+	static void read(List<Entry> entries, String contentType, InputStream input) throws IOException, ParseException {
+		Map<String, Item> items = new HashMap<String, Item>();
+		for (Entry entry : entries) {
+			for (Item item : entry.items) {
+				items.put(item.id, item);
+			}
+		}
+		if (contentType != null && contentType.toLowerCase().startsWith("application/json")) {
+			readJson(items, input);
+		}
+		else {
+			String boundary = getBoundary(contentType);
+			if (boundary == null) {
+				throw new ParseException("Expected a multipart batch response, not: " + contentType, 0);
+			}
+			List<byte[]> parts = split(readAll(input), boundary);
+			// the server stops at the first error unless we asked it to continue, so there may be fewer parts than entries
+			for (int i = 0; i < parts.size() && i < entries.size(); i++) {
+				Entry entry = entries.get(i);
+				Part part = new Part(parts.get(i));
+				String partBoundary = getBoundary(part.headers.get("content-type"));
+				if (partBoundary != null) {
+					List<byte[]> changeSetParts = split(part.content, partBoundary);
+					for (int j = 0; j < changeSetParts.size(); j++) {
+						Part changeSetPart = new Part(changeSetParts.get(j));
+						// the content id is echoed, fall back to the order
+						Item item = items.get(changeSetPart.headers.get("content-id"));
+						if (item == null && j < entry.items.size()) {
+							item = entry.items.get(j);
+						}
+						if (item != null) {
+							item.call.setResponse(item.request, parseHttp(changeSetPart.content));
+						}
+					}
+				}
+				// a change set that failed as a whole has a single response
+				else {
+					for (Item item : entry.items) {
+						item.call.setResponse(item.request, parseHttp(part.content));
+					}
+				}
+			}
+		}
+	}
+	
+	private static void readJson(Map<String, Item> items, InputStream input) throws IOException, ParseException {
+		JSONTokenizer tokenizer = new JSONTokenizer(new InputStreamReader(input, StandardCharsets.UTF_8));
+		JSONTokenizer.Token token;
+		int depth = 0;
+		while ((token = tokenizer.next()) != JSONTokenizer.Token.END) {
+			if (token == JSONTokenizer.Token.START_OBJECT) {
+				depth++;
+				// each response is an object in the responses array
+				if (depth == 2) {
+					readJsonResponse(items, tokenizer);
+					depth--;
+				}
+			}
+			else if (token == JSONTokenizer.Token.END_OBJECT) {
+				depth--;
+			}
+		}
+	}
+	
+	private static void readJsonResponse(Map<String, Item> items, JSONTokenizer tokenizer) throws IOException, ParseException {
+		String id = null;
+		int status = 0;
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		String body = null;
+		boolean bodyIsString = false;
+		JSONTokenizer.Token token;
+		while ((token = tokenizer.next()) == JSONTokenizer.Token.NAME) {
+			String name = tokenizer.getText();
+			token = tokenizer.next();
+			if (name.equals("id")) {
+				id = tokenizer.getText();
+			}
+			else if (name.equals("status")) {
+				status = Integer.parseInt(tokenizer.getText());
+			}
+			else if (name.equals("headers") && token == JSONTokenizer.Token.START_OBJECT) {
+				while (tokenizer.next() == JSONTokenizer.Token.NAME) {
+					String header = tokenizer.getText();
+					tokenizer.next();
+					headers.put(header, tokenizer.getText());
+				}
+			}
+			else if (name.equals("body")) {
+				bodyIsString = token == JSONTokenizer.Token.STRING;
+				body = bodyIsString ? tokenizer.getText() : tokenizer.capture();
+			}
+			else {
+				tokenizer.skipValue();
+			}
+		}
+		Item item = items.get(id);
+		if (item != null) {
+			byte [] content = body == null ? null : body.getBytes(StandardCharsets.UTF_8);
+			item.call.setResponse(item.request, new ODataResponse(status, null, headers, content == null ? null : new ByteArrayInputStream(content)));
+		}
+	}
+	
+	static String getBoundary(String contentType) {
+		if (contentType == null || !contentType.toLowerCase().startsWith("multipart/")) {
+			return null;
+		}
+		for (String parameter : contentType.split(";")) {
+			parameter = parameter.trim();
+			if (parameter.toLowerCase().startsWith("boundary=")) {
+				return parameter.substring("boundary=".length()).replace("\"", "");
+			}
+		}
+		return null;
+	}
+	
+	private static byte [] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte [] buffer = new byte[8192];
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, read);
+		}
+		return output.toByteArray();
+	}
+	
+	// splits multipart content in its parts, the line break before a delimiter belongs to the delimiter
+	private static List<byte[]> split(byte [] content, String boundary) {
+		byte [] delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+		List<byte[]> parts = new ArrayList<byte[]>();
+		int start = -1;
+		int i = 0;
+		while (i <= content.length - delimiter.length) {
+			if ((i == 0 || content[i - 1] == '\n') && matches(content, i, delimiter)) {
+				if (start >= 0) {
+					int end = i;
+					if (end > start && content[end - 1] == '\n') {
+						end--;
+					}
+					if (end > start && content[end - 1] == '\r') {
+						end--;
+					}
+					parts.add(copy(content, start, end));
+				}
+				i += delimiter.length;
+				// the closing delimiter
+				if (i + 1 < content.length && content[i] == '-' && content[i + 1] == '-') {
+					break;
+				}
+				// skip the rest of the delimiter line
+				while (i < content.length && content[i] != '\n') {
+					i++;
+				}
+				start = ++i;
+			}
+			else {
+				i++;
+			}
+		}
+		return parts;
+	}
+	
+	private static boolean matches(byte [] content, int offset, byte [] search) {
+		for (int i = 0; i < search.length; i++) {
+			if (content[offset + i] != search[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static byte [] copy(byte [] content, int start, int end) {
+		byte [] copy = new byte[end - start];
+		System.arraycopy(content, start, copy, 0, copy.length);
+		return copy;
+	}
+	
+	// an embedded http response: a status line, headers and content
+	private static ODataResponse parseHttp(byte [] content) throws ParseException {
+		Part part = new Part(content);
+		String statusLine = part.firstLine;
+		String [] status = statusLine == null ? new String[0] : statusLine.split(" ", 3);
+		if (status.length < 2) {
+			throw new ParseException("Invalid status line in batch response: " + statusLine, 0);
+		}
+		return new ODataResponse(Integer.parseInt(status[1]), status.length > 2 ? status[2] : null, part.headers, new ByteArrayInputStream(part.content));
+	}
+	
+	// a block of headers followed by content, for embedded http messages the first line is the status line
+	private static class Part {
+		private String firstLine;
+		private Map<String, String> headers = new HashMap<String, String>();
+		private byte [] content;
+		
+		Part(byte [] bytes) {
+			int i = 0;
+			while (i < bytes.length) {
+				int end = i;
+				while (end < bytes.length && bytes[end] != '\n') {
+					end++;
+				}
+				String line = new String(bytes, i, (end > i && bytes[end - 1] == '\r' ? end - 1 : end) - i, StandardCharsets.UTF_8);
+				i = end + 1;
+				if (line.isEmpty()) {
+					break;
+				}
+				int index = line.indexOf(':');
+				if (index > 0 && !line.startsWith("HTTP/")) {
+					headers.put(line.substring(0, index).trim().toLowerCase(), line.substring(index + 1).trim());
+				}
+				else if (firstLine == null) {
+					firstLine = line;
+				}
+			}
+			content = i >= bytes.length ? new byte[0] : copy(bytes, i, bytes.length);
+		}
+	}
+}
@@ -0,0 +1,460 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.http.api.HTTPRequest;
+import be.nabu.libs.http.api.HTTPResponse;
+import be.nabu.libs.http.api.client.HTTPClient;
+import be.nabu.libs.http.core.DefaultHTTPRequest;
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.libs.types.binding.json.JSONBinding;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.mime.api.ContentPart;
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.api.ModifiablePart;
+import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.MimeUtils;
+import be.nabu.utils.mime.impl.PlainMimeContentPart;
+import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
+
+/**
+ * Executes requests against the service described by a definition, using the same http client as the parser.
+ * Batches are split in multiple round trips if they exceed the batch size, change sets are never split.
+ */
+public class ODataClient {
+
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private HTTPClient httpClient;
+	private ODataDefinition definition;
+	private URI root;
+	// the maximum amount of requests in a single batch
+	private int batchSize = Integer.parseInt(System.getProperty("odata.batchSize", "100"));
+	// the preferred amount of results per page when listing
+	private int pageSize = Integer.parseInt(System.getProperty("odata.pageSize", "1000"));
+	// the amount of pages that can be fetched ahead of the caller
+	private int prefetch = Integer.parseInt(System.getProperty("odata.prefetch", "1"));
+	// the maximum length of the urls we generate when combining keys in a filter
+	private int maxUrlLength = Integer.parseInt(System.getProperty("odata.maxUrlLength", "2048"));
+	// runs the background fetching, by default each listing gets its own thread
+	private Executor executor;
+	
+	public ODataClient(HTTPClient httpClient, ODataDefinition definition) {
+		this(httpClient, definition, null);
+	}
+	
+	/**
+	 * The root can be used to override the endpoint of the definition, for example because it is on a non-standard port
+	 */
+	public ODataClient(HTTPClient httpClient, ODataDefinition definition, URI root) {
+		this.httpClient = httpClient;
+		this.definition = definition;
+		try {
+			this.root = root != null ? root : new URI(definition.getScheme(), definition.getHost(), definition.getBasePath(), null);
+		}
+		catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid endpoint in definition", e);
+		}
+	}
+	
+	public ODataResponse execute(ODataRequest request) throws IOException {
+		Map<String, String> headers = new LinkedHashMap<String, String>(request.getHeaders());
+		if (!containsKey(headers, "Accept")) {
+			headers.put("Accept", "application/json");
+		}
+		return execute(request.getMethod(), request.getPath(), headers, request.getContent());
+	}
+	
+	/**
+	 * Executes the batch, afterwards the calls in the batch have their responses.
+	 * A large batch is sent in multiple requests, unless the batch continues on error we stop sending once a request fails.
+	 */
+	public void execute(ODataBatch batch) throws IOException {
+		boolean continueOnError = batch.isContinueOnError();
+		if (continueOnError && Boolean.FALSE.equals(definition.getBatchContinueOnErrorSupported())) {
+			logger.warn("The service does not support continuing a batch on error, the batch will stop at the first error");
+			continueOnError = false;
+		}
+		List<ODataBatch.Entry> chunk = new ArrayList<ODataBatch.Entry>();
+		int size = 0;
+		for (ODataBatch.Entry entry : batch.getEntries()) {
+			if (!chunk.isEmpty() && size + entry.size() > batchSize) {
+				execute(chunk, batch.getFormat(), continueOnError);
+				// the server stopped at the first error, the remaining calls are not executed either
+				if (!continueOnError && !ODataBatch.isSuccessful(chunk)) {
+					return;
+				}
+				chunk.clear();
+				size = 0;
+			}
+			chunk.add(entry);
+			size += entry.size();
+		}
+		if (!chunk.isEmpty()) {
+			execute(chunk, batch.getFormat(), continueOnError);
+		}
+	}
+	
+	private void execute(List<ODataBatch.Entry> entries, ODataBatch.Format format, boolean continueOnError) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		String contentType = ODataBatch.write(entries, format, output);
+		Map<String, String> headers = new LinkedHashMap<String, String>();
+		headers.put("Content-Type", contentType);
+		headers.put("Accept", format == ODataBatch.Format.JSON ? "application/json" : "multipart/mixed");
+		if (continueOnError) {
+			headers.put("Prefer", "odata.continue-on-error");
+		}
+		try (ODataResponse response = execute("POST", "$batch", headers, output.toByteArray())) {
+			if (!response.isSuccessful()) {
+				throw new IOException("Batch request failed with " + response + ": " + new String(response.getBytes(), "UTF-8"));
+			}
+			ODataBatch.read(entries, response.getHeader("Content-Type"), response.getContent());
+		}
+		catch (ParseException e) {
+			throw new IOException("Could not parse the batch response", e);
+		}
+	}
+	
+	/**
+	 * Executes a generated get function, returns null if the entity does not exist.
+	 * If the input selects fields, the other fields are skipped while decoding the response.
+	 */
+	public ComplexContent get(Function function, ComplexContent input) throws IOException {
+		Element<?> result = function.getOutput().get("result");
+		if (!"GET".equals(function.getMethod()) || result == null) {
+			throw new IllegalArgumentException("Not a generated get function: " + function.getContext() + "." + function.getName());
+		}
+		String path = function.getContext() + "(" + ODataRequest.key(input, "select") + ")" + ODataRequest.query(function, input, null, null);
+		try (ODataResponse response = execute(new ODataRequest("GET", path))) {
+			if (response.getCode() == 404) {
+				return null;
+			}
+			else if (!response.isSuccessful()) {
+				throw new IOException("Could not get " + path + ", the server responded with " + response + ": " + new String(response.getBytes(), "UTF-8"));
+			}
+			return decode(response.getContent(), (ComplexType) result.getType(), ODataRequest.getFields(function, input));
+		}
+	}
+	
+	/**
+	 * Executes a generated get many function, fetching the entities for all the keys in as few requests as possible.
+	 * If the service supports the "in" operator, the keys are combined in filters like "id in (1,2,3)", otherwise they are chained with "or".
+	 * The filters are split so the urls stay within the maximum length. If the entity set can not be filtered, the keys are fetched with individual requests in a batch.
+	 * Keys that do not exist are not reported and the order of the results does not necessarily match the order of the keys.
+	 */
+	public List<ComplexContent> getMany(Function function, ComplexContent input) throws IOException {
+		if (!"GET-MANY".equals(function.getMethod())) {
+			throw new IllegalArgumentException("Not a generated get many function: " + function.getContext() + "." + function.getName());
+		}
+		Element<?> key = null;
+		for (Element<?> child : TypeUtils.getAllChildren(function.getInput())) {
+			if (!"select".equals(child.getName())) {
+				key = child;
+			}
+		}
+		Object value = ODataRequest.get(input, key.getName());
+		// no need to fetch the same key twice
+		Set<Object> keys = new LinkedHashSet<Object>();
+		for (Object single : value instanceof Collection ? (Collection<?>) value : value == null ? new ArrayList<Object>() : Arrays.asList(value)) {
+			if (single != null) {
+				keys.add(single);
+			}
+		}
+		List<ComplexContent> results = new ArrayList<ComplexContent>();
+		if (keys.isEmpty()) {
+			return results;
+		}
+		// the projection and expansions are the same for every request
+		String query = ODataRequest.query(function, input, null, null);
+		Set<String> fields = ODataRequest.getFields(function, input);
+		if (function instanceof FunctionImpl && ((FunctionImpl) function).isFilterable()) {
+			String name = ODataRequest.getJSONName(key);
+			boolean in = isInSupported();
+			List<String> chunk = new ArrayList<String>();
+			for (Object single : keys) {
+				String literal = ODataRequest.formatLiteral(single, false);
+				chunk.add(literal);
+				// if adding the key makes the url too long, we send what we have and start a new chunk
+				if (chunk.size() > 1 && (chunk.size() > pageSize || getLength(function, query, filter(name, chunk, in)) > maxUrlLength)) {
+					chunk.remove(chunk.size() - 1);
+					getMany(function, query, filter(name, chunk, in), fields, results);
+					chunk.clear();
+					chunk.add(literal);
+				}
+			}
+			getMany(function, query, filter(name, chunk, in), fields, results);
+		}
+		else {
+			ComplexType type = (ComplexType) function.getOutput().get("results").getType();
+			List<Object> remaining = new ArrayList<Object>(keys);
+			while (!remaining.isEmpty()) {
+				ODataBatch batch = new ODataBatch();
+				batch.setContinueOnError(true);
+				for (Object single : remaining) {
+					batch.add(new ODataRequest("GET", function.getContext() + "(" + ODataRequest.formatKey(single) + ")" + query));
+				}
+				execute(batch);
+				// a server that does not continue on error stops at the first key that does not exist, the keys it did not get to are sent in a new batch
+				List<Object> unanswered = new ArrayList<Object>();
+				List<ODataBatch.Call> calls = batch.getCalls();
+				for (int i = 0; i < calls.size(); i++) {
+					if (calls.get(i).getResponses().isEmpty()) {
+						unanswered.add(remaining.get(i));
+					}
+					else {
+						decode(calls.get(i), type, fields, results);
+					}
+				}
+				if (unanswered.size() == remaining.size()) {
+					throw new IOException("No response for " + calls.get(0).getRequests().get(0));
+				}
+				remaining = unanswered;
+			}
+		}
+		return results;
+	}
+	
+	private static void decode(ODataBatch.Call call, ComplexType type, Set<String> fields, List<ComplexContent> results) throws IOException {
+		ODataResponse response = call.getResponses().get(0);
+		try {
+			// keys that do not exist are skipped
+			if (response.getCode() == 404) {
+				return;
+			}
+			else if (!response.isSuccessful()) {
+				throw new IOException("Could not get " + call.getRequests().get(0) + ", the server responded with " + response + ": " + new String(response.getBytes(), "UTF-8"));
+			}
+			results.add(decode(response.getContent(), type, fields));
+		}
+		finally {
+			response.close();
+		}
+	}
+	
+	private void getMany(Function function, String query, String filter, Set<String> fields, List<ComplexContent> results) throws IOException {
+		String link = function.getContext() + query + (query.isEmpty() ? "?" : "&") + "$filter=" + ODataRequest.encode(filter);
+		// the server might page the results
+		while (link != null) {
+			ODataRequest request = new ODataRequest("GET", relativize(link));
+			request.getHeaders().put("Prefer", "odata.maxpagesize=" + pageSize);
+			try (ODataResponse response = execute(request)) {
+				if (!response.isSuccessful()) {
+					throw new IOException("Could not get " + function.getContext() + " by key, the server responded with " + response + ": " + new String(response.getBytes(), "UTF-8"));
+				}
+				try (ODataResultDecoder decoder = new ODataResultDecoder(response.getContent(), function)) {
+					decoder.setProjection(fields);
+					while (decoder.hasNext()) {
+						results.add(decoder.next());
+					}
+					link = decoder.getNextLink();
+				}
+			}
+		}
+	}
+	
+	// e.g. "id in (1,2,3)" or "id eq 1 or id eq 2 or id eq 3"
+	private static String filter(String name, List<String> literals, boolean in) {
+		StringBuilder builder = new StringBuilder();
+		for (String literal : literals) {
+			if (builder.length() > 0) {
+				builder.append(in ? "," : " or ");
+			}
+			builder.append(in ? literal : name + " eq " + literal);
+		}
+		return in ? name + " in (" + builder.toString() + ")" : builder.toString();
+	}
+	
+	// the length of the full url for the filter
+	private int getLength(Function function, String query, String filter) {
+		return root.toString().length() + function.getContext().length() + query.length() + "?$filter=".length() + ODataRequest.encode(filter).length();
+	}
+	
+	// the "in" operator was introduced in odata 4.01, some 4.0 services support it anyway and advertise it as a filter function
+	private boolean isInSupported() {
+		String version = definition.getVersion();
+		return (version != null && version.trim().compareTo("4.01") >= 0) 
+			|| (definition.getFilterFunctions() != null && definition.getFilterFunctions().contains("in"));
+	}
+	
+	private static ComplexContent decode(InputStream input, ComplexType type, Set<String> fields) throws IOException {
+		JSONTokenizer tokenizer = new JSONTokenizer(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+		try {
+			if (tokenizer.next() != JSONTokenizer.Token.START_OBJECT) {
+				throw new IOException("Expected a json object");
+			}
+			String record = fields == null ? tokenizer.capture() : tokenizer.capture(fields);
+			JSONBinding binding = new JSONBinding(type, StandardCharsets.UTF_8);
+			binding.setIgnoreUnknownElements(true);
+			return binding.unmarshal(new ByteArrayInputStream(record.getBytes(StandardCharsets.UTF_8)), new Window[0]);
+		}
+		catch (ParseException e) {
+			throw new IOException("Could not parse the entity", e);
+		}
+	}
+	
+	/**
+	 * Iterates over all the results of a generated list function, fetching pages in the background
+	 */
+	public ODataPagingIterator list(Function function, ComplexContent input) {
+		return new ODataPagingIterator(this, function, input, pageSize, prefetch, executor);
+	}
+	
+	/**
+	 * Iterates over the changes returned by a generated delta function, following the pages until the new delta link is returned
+	 */
+	public ODataDeltaIterator delta(Function function, ComplexContent input) {
+		return new ODataDeltaIterator(this, function, input, pageSize);
+	}
+	
+	// links returned by the server (e.g. the next link) can be absolute or relative to the service root
+	String relativize(String link) {
+		URI uri = URI.create(link);
+		if (uri.isAbsolute()) {
+			String path = uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+			String rootPath = root.getRawPath() == null ? "" : root.getRawPath();
+			return path.startsWith(rootPath) ? path.substring(rootPath.length()) : path;
+		}
+		return link;
+	}
+	
+	ODataResponse execute(String method, String path, Map<String, String> headers, byte [] content) throws IOException {
+		String target = root.getPath() == null ? "" : root.getPath();
+		if (!target.endsWith("/")) {
+			target += "/";
+		}
+		target += path.startsWith("/") ? path.substring(1) : path;
+		List<Header> requestHeaders = new ArrayList<Header>();
+		requestHeaders.add(new MimeHeader("Host", root.getHost()));
+		requestHeaders.add(new MimeHeader("OData-Version", "4.0"));
+		requestHeaders.add(new MimeHeader("Accept-Encoding", "gzip, deflate"));
+		requestHeaders.add(new MimeHeader("Content-Length", Integer.toString(content == null ? 0 : content.length)));
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			requestHeaders.add(new MimeHeader(header.getKey(), header.getValue()));
+		}
+		ModifiablePart part = content == null
+			? new PlainMimeEmptyPart(null, requestHeaders.toArray(new Header[0]))
+			: new PlainMimeContentPart(null, IOUtils.wrap(content, true), requestHeaders.toArray(new Header[0]));
+		HTTPRequest request = new DefaultHTTPRequest(method, target, part);
+		try {
+			HTTPResponse response = httpClient.execute(request, null, "https".equals(root.getScheme()), true);
+			Map<String, String> responseHeaders = new LinkedHashMap<String, String>();
+			InputStream responseContent = null;
+			if (response.getContent() != null) {
+				for (Header header : response.getContent().getHeaders()) {
+					responseHeaders.put(header.getName(), getFullValue(header));
+				}
+				if (response.getContent() instanceof ContentPart) {
+					Header contentEncoding = MimeUtils.getHeader("Content-Encoding", response.getContent().getHeaders());
+					responseContent = ContentDecoder.decode(IOUtils.toInputStream(((ContentPart) response.getContent()).getReadable()), contentEncoding == null ? null : contentEncoding.getValue());
+				}
+			}
+			return new ODataResponse(response.getCode(), response.getMessage(), responseHeaders, responseContent);
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException("Could not execute " + method + " " + target, e);
+		}
+	}
+	
+	// parameters (like the boundary of a multipart) are parsed as comments
+	private static String getFullValue(Header header) {
+		StringBuilder builder = new StringBuilder(header.getValue() == null ? "" : header.getValue());
+		if (header.getComments() != null) {
+			for (String comment : header.getComments()) {
+				builder.append("; ").append(comment);
+			}
+		}
+		return builder.toString();
+	}
+	
+	private static boolean containsKey(Map<String, String> headers, String name) {
+		for (String key : headers.keySet()) {
+			if (key.equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public ODataDefinition getDefinition() {
+		return definition;
+	}
+	public URI getRoot() {
+		return root;
+	}
+	public int getPageSize() {
+		return pageSize;
+	}
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+	public int getPrefetch() {
+		return prefetch;
+	}
+	public void setPrefetch(int prefetch) {
+		this.prefetch = prefetch;
+	}
+	public Executor getExecutor() {
+		return executor;
+	}
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+	public int getMaxUrlLength() {
+		return maxUrlLength;
+	}
+	public void setMaxUrlLength(int maxUrlLength) {
+		this.maxUrlLength = maxUrlLength;
+	}
+	public int getBatchSize() {
+		return batchSize;
+	}
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+}
@@ -0,0 +1,236 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.property.ValueUtils;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.api.SimpleType;
+import be.nabu.libs.types.api.Type;
+import be.nabu.libs.types.api.TypeRegistry;
+import be.nabu.libs.types.properties.MaxOccursProperty;
+import be.nabu.libs.types.properties.MinOccursProperty;
+
+/**
+ * The differences between two versions of a definition. Types and functions that were not rebuilt during a reparse are the same instances in both versions.
+ * Types are identified by their qualified name, properties by the name of the type and the property, entity sets by the context of their functions and functions by their context and name.
+ */
+public class ODataDefinitionDiff {
+
+	private ODataDefinition definition;
+	private List<String> addedTypes = new ArrayList<String>(), removedTypes = new ArrayList<String>(), changedTypes = new ArrayList<String>();
+	private List<String> addedProperties = new ArrayList<String>(), removedProperties = new ArrayList<String>(), changedProperties = new ArrayList<String>();
+	private List<String> addedEntitySets = new ArrayList<String>(), removedEntitySets = new ArrayList<String>(), changedEntitySets = new ArrayList<String>();
+	private List<String> addedFunctions = new ArrayList<String>(), removedFunctions = new ArrayList<String>(), changedFunctions = new ArrayList<String>();
+	
+	public static ODataDefinitionDiff compare(ODataDefinition previous, ODataDefinition next) {
+		ODataDefinitionDiff diff = new ODataDefinitionDiff();
+		diff.setDefinition(next);
+		
+		Map<String, Type> previousTypes = types(previous.getRegistry()), nextTypes = types(next.getRegistry());
+		for (Map.Entry<String, Type> type : nextTypes.entrySet()) {
+			Type previousType = previousTypes.get(type.getKey());
+			if (previousType == null) {
+				diff.getAddedTypes().add(type.getKey());
+			}
+			// a type that was reused is the exact same instance
+			else if (previousType != type.getValue()) {
+				diff.getChangedTypes().add(type.getKey());
+				if (previousType instanceof ComplexType && type.getValue() instanceof ComplexType) {
+					compareProperties(diff, type.getKey(), (ComplexType) previousType, (ComplexType) type.getValue());
+				}
+			}
+		}
+		for (String type : previousTypes.keySet()) {
+			if (!nextTypes.containsKey(type)) {
+				diff.getRemovedTypes().add(type);
+			}
+		}
+		
+		Map<String, Function> previousFunctions = functions(previous), nextFunctions = functions(next);
+		List<String> previousEntitySets = new ArrayList<String>(), nextEntitySets = new ArrayList<String>();
+		for (Function function : previousFunctions.values()) {
+			if (function.getContext() != null && !previousEntitySets.contains(function.getContext())) {
+				previousEntitySets.add(function.getContext());
+			}
+		}
+		for (Map.Entry<String, Function> function : nextFunctions.entrySet()) {
+			String context = function.getValue().getContext();
+			if (context != null && !nextEntitySets.contains(context)) {
+				nextEntitySets.add(context);
+			}
+			Function previousFunction = previousFunctions.get(function.getKey());
+			if (previousFunction == null) {
+				diff.getAddedFunctions().add(function.getKey());
+			}
+			else if (previousFunction != function.getValue()) {
+				diff.getChangedFunctions().add(function.getKey());
+				if (context != null && previousEntitySets.contains(context) && !diff.getChangedEntitySets().contains(context)) {
+					diff.getChangedEntitySets().add(context);
+				}
+			}
+		}
+		for (String function : previousFunctions.keySet()) {
+			if (!nextFunctions.containsKey(function)) {
+				diff.getRemovedFunctions().add(function);
+			}
+		}
+		for (String entitySet : nextEntitySets) {
+			if (!previousEntitySets.contains(entitySet)) {
+				diff.getAddedEntitySets().add(entitySet);
+			}
+		}
+		for (String entitySet : previousEntitySets) {
+			if (!nextEntitySets.contains(entitySet)) {
+				diff.getRemovedEntitySets().add(entitySet);
+			}
+			// a function that disappears from an entity set that still exists also changes it
+			else if (!diff.getChangedEntitySets().contains(entitySet)) {
+				for (String function : diff.getRemovedFunctions()) {
+					if (function.startsWith(entitySet + ".")) {
+						diff.getChangedEntitySets().add(entitySet);
+						break;
+					}
+				}
+			}
+		}
+		return diff;
+	}
+	
+	private static void compareProperties(ODataDefinitionDiff diff, String typeName, ComplexType previous, ComplexType next) {
+		Map<String, Element<?>> previousChildren = children(previous), nextChildren = children(next);
+		for (Map.Entry<String, Element<?>> child : nextChildren.entrySet()) {
+			Element<?> previousChild = previousChildren.get(child.getKey());
+			if (previousChild == null) {
+				diff.getAddedProperties().add(typeName + "." + child.getKey());
+			}
+			else if (!signature(previousChild).equals(signature(child.getValue()))) {
+				diff.getChangedProperties().add(typeName + "." + child.getKey());
+			}
+		}
+		for (String child : previousChildren.keySet()) {
+			if (!nextChildren.containsKey(child)) {
+				diff.getRemovedProperties().add(typeName + "." + child);
+			}
+		}
+	}
+	
+	// the aspects of a property that matter to someone using it
+	private static String signature(Element<?> element) {
+		Type type = element.getType();
+		String typeName;
+		if (type instanceof SimpleType && (type.getNamespace() == null || type.getName() == null)) {
+			typeName = ((SimpleType<?>) type).getInstanceClass().getName();
+		}
+		else {
+			typeName = type.getNamespace() + ":" + type.getName();
+		}
+		Integer minOccurs = ValueUtils.getValue(MinOccursProperty.getInstance(), element.getProperties());
+		Integer maxOccurs = ValueUtils.getValue(MaxOccursProperty.getInstance(), element.getProperties());
+		return typeName + "[" + minOccurs + "," + maxOccurs + "]";
+	}
+	
+	private static Map<String, Element<?>> children(ComplexType type) {
+		Map<String, Element<?>> children = new LinkedHashMap<String, Element<?>>();
+		for (Element<?> child : TypeUtils.getAllChildren(type)) {
+			children.put(child.getName(), child);
+		}
+		return children;
+	}
+	
+	private static Map<String, Type> types(TypeRegistry registry) {
+		Map<String, Type> types = new LinkedHashMap<String, Type>();
+		if (registry != null) {
+			for (String namespace : registry.getNamespaces()) {
+				for (SimpleType<?> simpleType : registry.getSimpleTypes(namespace)) {
+					types.put(namespace + "." + simpleType.getName(), simpleType);
+				}
+				for (ComplexType complexType : registry.getComplexTypes(namespace)) {
+					types.put(namespace + "." + complexType.getName(), complexType);
+				}
+			}
+		}
+		return types;
+	}
+	
+	private static Map<String, Function> functions(ODataDefinition definition) {
+		Map<String, Function> functions = new LinkedHashMap<String, Function>();
+		if (definition.getFunctions() != null) {
+			for (Function function : definition.getFunctions()) {
+				functions.put(function.getContext() + "." + function.getName(), function);
+			}
+		}
+		return functions;
+	}
+	
+	public boolean hasChanges() {
+		return !addedTypes.isEmpty() || !removedTypes.isEmpty() || !changedTypes.isEmpty()
+			|| !addedFunctions.isEmpty() || !removedFunctions.isEmpty() || !changedFunctions.isEmpty();
+	}
+	
+	public ODataDefinition getDefinition() {
+		return definition;
+	}
+	public void setDefinition(ODataDefinition definition) {
+		this.definition = definition;
+	}
+	public List<String> getAddedTypes() {
+		return addedTypes;
+	}
+	public List<String> getRemovedTypes() {
+		return removedTypes;
+	}
+	public List<String> getChangedTypes() {
+		return changedTypes;
+	}
+	public List<String> getAddedProperties() {
+		return addedProperties;
+	}
+	public List<String> getRemovedProperties() {
+		return removedProperties;
+	}
+	public List<String> getChangedProperties() {
+		return changedProperties;
+	}
+	public List<String> getAddedEntitySets() {
+		return addedEntitySets;
+	}
+	public List<String> getRemovedEntitySets() {
+		return removedEntitySets;
+	}
+	public List<String> getChangedEntitySets() {
+		return changedEntitySets;
+	}
+	public List<String> getAddedFunctions() {
+		return addedFunctions;
+	}
+	public List<String> getRemovedFunctions() {
+		return removedFunctions;
+	}
+	public List<String> getChangedFunctions() {
+		return changedFunctions;
+	}
+}
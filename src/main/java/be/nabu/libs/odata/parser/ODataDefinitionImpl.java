@@ -17,12 +17,18 @@
 
 package be.nabu.libs.odata.parser;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import be.nabu.libs.odata.ODataDefinition;
 import be.nabu.libs.odata.types.ConformanceLevel;
 import be.nabu.libs.odata.types.Function;
 import be.nabu.libs.odata.types.NavigationProperty;
+import be.nabu.libs.types.TypeRegistryImpl;
+import be.nabu.libs.types.api.ComplexType;
 import be.nabu.libs.types.api.TypeRegistry;
 
 public class ODataDefinitionImpl implements ODataDefinition {
@@ -34,6 +40,17 @@ public class ODataDefinitionImpl implements ODataDefinition {
 	private TypeRegistry registry;
 	private List<Function> functions;
 	private List<NavigationProperty> navigationProperties;
+	// the navigation properties indexed by the qualified name of the type they belong to
+	private Map<String, List<NavigationProperty>> navigationPropertyIndex = new HashMap<String, List<NavigationProperty>>();
+	// the list we indexed and how many of its entries are in the index, this allows us to pick up navigation properties that were added to the list directly
+	private List<NavigationProperty> indexedNavigationProperties;
+	private int indexedNavigationPropertiesSize;
+	// in lazy mode, the entity sets whose functions are only generated when they are requested
+	private List<EntitySetArtifacts> lazyEntitySets;
+	// how many of the lazy entity sets have been added to the functions
+	private volatile int resolvedLazyEntitySets;
+	// the fingerprints of the metadata this definition was parsed from, this allows a reparse to reuse whatever did not change
+	private Map<String, String> fingerprints;
 	
 	@Override
 	public String getVersion() {
@@ -114,6 +131,9 @@ public class ODataDefinitionImpl implements ODataDefinition {
 	}
 	@Override
 	public List<Function> getFunctions() {
+		if (lazyEntitySets != null && resolvedLazyEntitySets < lazyEntitySets.size()) {
+			resolveLazyEntitySets();
+		}
 		return functions;
 	}
 	public void setFunctions(List<Function> functions) {
@@ -126,5 +146,115 @@ public class ODataDefinitionImpl implements ODataDefinition {
 	public void setNavigationProperties(List<NavigationProperty> navigationProperties) {
 		this.navigationProperties = navigationProperties;
 	}
+	
+	public Map<String, String> getFingerprints() {
+		return fingerprints;
+	}
+	public void setFingerprints(Map<String, String> fingerprints) {
+		this.fingerprints = fingerprints;
+	}
+	
+	public synchronized void addLazyEntitySet(EntitySetArtifacts artifacts) {
+		if (lazyEntitySets == null) {
+			lazyEntitySets = new ArrayList<EntitySetArtifacts>();
+		}
+		lazyEntitySets.add(artifacts);
+		if (registry instanceof LazyTypeRegistry) {
+			((LazyTypeRegistry) registry).expect(artifacts);
+		}
+	}
+	
+	/**
+	 * Returns the functions for a single entity set, in lazy mode only that entity set is generated
+	 */
+	public List<Function> getFunctions(String entitySet) {
+		List<EntitySetArtifacts> list;
+		synchronized (this) {
+			list = lazyEntitySets == null ? null : new ArrayList<EntitySetArtifacts>(lazyEntitySets);
+		}
+		if (list != null) {
+			for (EntitySetArtifacts artifacts : list) {
+				if (artifacts.getDescriptor().getName().equals(entitySet)) {
+					generate(artifacts);
+					return artifacts.getFunctions();
+				}
+			}
+		}
+		// the functions of entity sets that were generated eagerly are not tracked separately, the context is the name of the entity set
+		List<Function> result = new ArrayList<Function>();
+		if (functions != null) {
+			for (Function function : functions) {
+				if (entitySet.equals(function.getContext())) {
+					result.add(function);
+				}
+			}
+		}
+		return result;
+	}
+	
+	// generates the functions and types of a lazy entity set and registers the types
+	synchronized void generate(EntitySetArtifacts artifacts) {
+		if (artifacts.generate()) {
+			for (ComplexType type : artifacts.getTypes()) {
+				((TypeRegistryImpl) registry).register(type);
+			}
+			if (registry instanceof LazyTypeRegistry) {
+				((LazyTypeRegistry) registry).resolved(artifacts);
+			}
+		}
+	}
+	
+	// the functions are added in the order of the entity sets, regardless of the order in which they were generated
+	private synchronized void resolveLazyEntitySets() {
+		if (functions == null) {
+			functions = new ArrayList<Function>();
+		}
+		for (int i = resolvedLazyEntitySets; i < lazyEntitySets.size(); i++) {
+			EntitySetArtifacts artifacts = lazyEntitySets.get(i);
+			generate(artifacts);
+			functions.addAll(artifacts.getFunctions());
+		}
+		resolvedLazyEntitySets = lazyEntitySets.size();
+	}
+	
+	public synchronized void addNavigationProperty(NavigationProperty navigationProperty) {
+		if (navigationProperties == null) {
+			navigationProperties = new ArrayList<NavigationProperty>();
+		}
+		synchronizeNavigationPropertyIndex();
+		navigationProperties.add(navigationProperty);
+		index(navigationProperty);
+		indexedNavigationPropertiesSize++;
+	}
+	
+	public synchronized List<NavigationProperty> getNavigationPropertiesFor(String qualifiedName) {
+		synchronizeNavigationPropertyIndex();
+		List<NavigationProperty> list = navigationPropertyIndex.get(qualifiedName);
+		return list == null ? Collections.<NavigationProperty>emptyList() : new ArrayList<NavigationProperty>(list);
+	}
+	
+	// the list is expected to be append-only, if it was replaced or shrunk we rebuild the index, if it grew we index the new entries
+	private void synchronizeNavigationPropertyIndex() {
+		if (navigationProperties != indexedNavigationProperties || (navigationProperties != null && navigationProperties.size() < indexedNavigationPropertiesSize)) {
+			navigationPropertyIndex.clear();
+			indexedNavigationProperties = navigationProperties;
+			indexedNavigationPropertiesSize = 0;
+		}
+		if (navigationProperties != null) {
+			for (int i = indexedNavigationPropertiesSize; i < navigationProperties.size(); i++) {
+				index(navigationProperties.get(i));
+			}
+			indexedNavigationPropertiesSize = navigationProperties.size();
+		}
+	}
+	
+	private void index(NavigationProperty navigationProperty) {
+		List<NavigationProperty> list = navigationPropertyIndex.get(navigationProperty.getQualifiedName());
+		if (list == null) {
+			list = new ArrayList<NavigationProperty>();
+			navigationPropertyIndex.put(navigationProperty.getQualifiedName(), list);
+		}
+		list.add(navigationProperty);
+	}
 
 }
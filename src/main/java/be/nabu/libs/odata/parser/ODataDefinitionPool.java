@@ -0,0 +1,85 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+import be.nabu.libs.odata.ODataDefinition;
+
+/**
+ * Shares parsed definitions between tenants of the same product.
+ * A definition is keyed by the hash of its metadata (with the host normalized out) and the configuration of the parser, tenants get a thin wrapper with their own scheme, host and base path.
+ * The pool only holds weak references: a shared definition disappears once no tenant uses it anymore.
+ * Shared definitions must be treated as immutable, a change made for one tenant is visible to all of them.
+ */
+public class ODataDefinitionPool {
+
+	private Map<String, KeyedReference> definitions = new HashMap<String, KeyedReference>();
+	private ReferenceQueue<ODataDefinition> queue = new ReferenceQueue<ODataDefinition>();
+
+	/**
+	 * Returns null if there is no shared definition for this key
+	 */
+	public synchronized ODataDefinition get(String key) {
+		purge();
+		KeyedReference reference = definitions.get(key);
+		return reference == null ? null : reference.get();
+	}
+	
+	/**
+	 * Shares the definition under the given key. If another definition was shared under the same key in the meantime, that one is returned instead.
+	 */
+	public synchronized ODataDefinition share(String key, ODataDefinition definition) {
+		purge();
+		KeyedReference reference = definitions.get(key);
+		ODataDefinition existing = reference == null ? null : reference.get();
+		if (existing != null) {
+			return existing;
+		}
+		definitions.put(key, new KeyedReference(key, definition, queue));
+		return definition;
+	}
+	
+	public synchronized int size() {
+		purge();
+		return definitions.size();
+	}
+	
+	// remove the entries for definitions that have been garbage collected
+	private void purge() {
+		KeyedReference reference;
+		while ((reference = (KeyedReference) queue.poll()) != null) {
+			// only remove it if it was not replaced in the meantime
+			if (definitions.get(reference.key) == reference) {
+				definitions.remove(reference.key);
+			}
+		}
+	}
+	
+	private static class KeyedReference extends WeakReference<ODataDefinition> {
+		private String key;
+		
+		public KeyedReference(String key, ODataDefinition definition, ReferenceQueue<ODataDefinition> queue) {
+			super(definition, queue);
+			this.key = key;
+		}
+	}
+}
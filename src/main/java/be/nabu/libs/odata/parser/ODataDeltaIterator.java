@@ -0,0 +1,129 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Iterates over the entities that were added or changed since the delta link of a previous sync, or over all entities if there is no previous sync.
+ * Removed entities are collected separately, once the iteration is done the new delta link can be stored for the next sync.
+ */
+public class ODataDeltaIterator implements Iterator<ComplexContent>, Closeable {
+
+	private ODataClient client;
+	private Function function;
+	private int pageSize;
+	private String link;
+	private ODataResponse response;
+	private ODataResultDecoder decoder;
+	private List<ComplexContent> removed = new ArrayList<ComplexContent>();
+	private String deltaLink;
+	
+	ODataDeltaIterator(ODataClient client, Function function, ComplexContent input, int pageSize) {
+		if (!"DELTA".equals(function.getMethod())) {
+			throw new IllegalArgumentException("Not a generated delta function: " + function.getContext() + "." + function.getName());
+		}
+		this.client = client;
+		this.function = function;
+		this.pageSize = pageSize;
+		String previous = (String) ODataRequest.get(input, "deltaLink");
+		this.link = previous != null && !previous.trim().isEmpty() ? previous : function.getContext() + ODataRequest.query(input, null, null);
+	}
+	
+	@Override
+	public boolean hasNext() {
+		try {
+			while (decoder == null || !decoder.hasNext()) {
+				if (decoder != null) {
+					removed.addAll(decoder.getRemoved());
+					// the last page has the delta link instead of a next link
+					if (decoder.getDeltaLink() != null) {
+						deltaLink = decoder.getDeltaLink();
+					}
+					link = decoder.getNextLink();
+					close();
+				}
+				if (link == null) {
+					return false;
+				}
+				ODataRequest request = new ODataRequest("GET", client.relativize(link));
+				// the delta link itself already tracks changes, but it does no harm
+				request.getHeaders().put("Prefer", "odata.track-changes, odata.maxpagesize=" + pageSize);
+				response = client.execute(request);
+				if (!response.isSuccessful()) {
+					String message = new String(response.getBytes(), StandardCharsets.UTF_8);
+					close();
+					throw new IOException("Could not get the changes of " + function.getContext() + ", the server responded with " + message);
+				}
+				decoder = new ODataResultDecoder(response.getContent(), function);
+			}
+			return true;
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	@Override
+	public ComplexContent next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return decoder.next();
+	}
+	
+	/**
+	 * The removed entities encountered so far, all of them are known once the iteration is done
+	 */
+	public List<ComplexContent> getRemoved() {
+		List<ComplexContent> removed = new ArrayList<ComplexContent>(this.removed);
+		if (decoder != null) {
+			removed.addAll(decoder.getRemoved());
+		}
+		return removed;
+	}
+	
+	/**
+	 * The link to request the next changes with, only available once the iteration is done
+	 */
+	public String getDeltaLink() {
+		return deltaLink;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		decoder = null;
+		if (response != null) {
+			try {
+				response.close();
+			}
+			finally {
+				response = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.types.api.ComplexContent;
+
+/**
+ * Iterates over all the results of a generated list function, page by page.
+ * Server driven paging (@odata.nextLink) is followed, if the server does not page (or stops paging before the requested page size is reached) we fall back to $skip and $top.
+ * While the caller is processing results, the next ones are fetched and decoded (one record at a time) in the background. At most a fixed amount of pages worth of records is fetched ahead, after that the fetching waits for the caller.
+ * Always close the iterator if you stop before the end, otherwise the background fetching stays blocked.
+ */
+public class ODataPagingIterator implements Iterator<ComplexContent>, Closeable {
+
+	private ODataClient client;
+	private Function function;
+	private ComplexContent input;
+	private int pageSize;
+	// either records or the end of the results
+	private BlockingQueue<Object> results;
+	private ComplexContent current;
+	private End end;
+	// the fetching runs on a thread we may not own (e.g. a shared executor) so we never interrupt it, instead it checks this flag regularly
+	private volatile boolean closed;
+	private volatile Long totalCount;
+	
+	ODataPagingIterator(ODataClient client, Function function, ComplexContent input, int pageSize, int prefetch, Executor executor) {
+		if (!"list".equals(function.getName()) || !"GET".equals(function.getMethod())) {
+			throw new IllegalArgumentException("Not a generated list function: " + function.getContext() + "." + function.getName());
+		}
+		this.client = client;
+		this.function = function;
+		this.input = input;
+		this.pageSize = pageSize;
+		this.results = new ArrayBlockingQueue<Object>(Math.max(1, prefetch) * Math.max(1, pageSize));
+		Runnable runnable = () -> fetch();
+		if (executor == null) {
+			Thread thread = new Thread(runnable, "odata-paging-" + function.getContext());
+			thread.setDaemon(true);
+			thread.start();
+		}
+		else {
+			executor.execute(runnable);
+		}
+	}
+	
+	private void fetch() {
+		try {
+			Long limit = toLong(ODataRequest.get(input, "limit"));
+			Long offset = toLong(ODataRequest.get(input, "offset"));
+			Set<String> fields = ODataRequest.getFields(function, input);
+			// without $skip we can only rely on server driven paging
+			boolean canSkip = function.getInput().get("offset") != null && function.getInput().get("limit") != null;
+			long skip = offset == null ? 0 : offset;
+			long delivered = 0;
+			while (!closed) {
+				// a new window of at most one page, limited by what is left of the requested limit
+				Long top = canSkip ? (limit == null ? pageSize : Math.min(pageSize, limit - delivered)) : limit;
+				if (top != null && top <= 0) {
+					break;
+				}
+				String link = function.getContext() + ODataRequest.query(function, input, canSkip || offset != null ? skip : null, top);
+				long windowCount = 0;
+				// the server might page within our window
+				while (link != null && !closed) {
+					ODataRequest request = new ODataRequest("GET", client.relativize(link));
+					request.getHeaders().put("Prefer", "odata.maxpagesize=" + pageSize);
+					link = null;
+					try (ODataResponse response = client.execute(request)) {
+						if (!response.isSuccessful()) {
+							throw new IOException("Could not list " + function.getContext() + ", the server responded with " + response + ": " + new String(response.getBytes(), StandardCharsets.UTF_8));
+						}
+						try (ODataResultDecoder decoder = new ODataResultDecoder(response.getContent(), function)) {
+							decoder.setProjection(fields);
+							while (decoder.hasNext() && !closed) {
+								offer(decoder.next());
+								windowCount++;
+								if (totalCount == null) {
+									totalCount = decoder.getCount();
+								}
+								// a server that ignores $top should not make us exceed the limit
+								if (top != null && windowCount >= top) {
+									break;
+								}
+							}
+							if (top == null || windowCount < top) {
+								link = decoder.getNextLink();
+							}
+						}
+					}
+				}
+				delivered += windowCount;
+				skip += windowCount;
+				// if the window is not full, there is no more data
+				if (!canSkip || windowCount < top) {
+					break;
+				}
+			}
+			offer(new End(null));
+		}
+		catch (InterruptedException e) {
+			// interrupted by whoever owns the thread, we stop fetching
+		}
+		catch (Exception e) {
+			try {
+				offer(new End(e));
+			}
+			catch (InterruptedException e1) {
+				// interrupted by whoever owns the thread, we stop fetching
+			}
+		}
+	}
+	
+	private void offer(Object result) throws InterruptedException {
+		// this waits if the caller has not caught up yet, but we check regularly whether the iterator was closed in the meantime
+		while (!closed) {
+			if (results.offer(result, 100, TimeUnit.MILLISECONDS)) {
+				break;
+			}
+		}
+	}
+	
+	private static Long toLong(Object value) {
+		return value instanceof Number ? ((Number) value).longValue() : null;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if (current == null && end == null && !closed) {
+			Object result;
+			try {
+				result = results.take();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the next result", e);
+			}
+			if (result instanceof End) {
+				end = (End) result;
+				if (end.exception != null) {
+					throw new IllegalStateException("Could not fetch the results of " + function.getContext(), end.exception);
+				}
+			}
+			else {
+				current = (ComplexContent) result;
+			}
+		}
+		return current != null;
+	}
+	
+	@Override
+	public ComplexContent next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		ComplexContent result = current;
+		current = null;
+		return result;
+	}
+	
+	// the total amount of results if it was requested (and the first results have been fetched)
+	public Long getTotalCount() {
+		return totalCount;
+	}
+	
+	@Override
+	public void close() {
+		closed = true;
+		// a fetch that is waiting for room will notice it is closed
+		results.clear();
+	}
+	
+	private static class End {
+		private Exception exception;
+		
+		End(Exception exception) {
+			this.exception = exception;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import be.nabu.libs.odata.types.Function;
+
+/**
+ * The state that is built up while parsing a single definition.
+ * It is kept apart from the parser so one (configured) parser can be used for many parses, even concurrently.
+ */
+class ODataParseContext {
+	
+	private URI url;
+	private ODataParseMetrics metrics;
+	// you can create aliases to namespaces as shorthands (basically a lot like prefixes...)
+	private Map<String, String> aliases = new ConcurrentHashMap<String, String>();
+	// the key is the name of the entity type, the value is the name of the entity set
+	private Map<String, String> existingEntitySets = new ConcurrentHashMap<String, String>();
+	// the ids of the complex types that have no content, they are switched to java.lang.Object
+	private Set<String> emptyComplexTypes = ConcurrentHashMap.newKeySet();
+	// if only some entity sets are requested, the qualified names of the types and the names of the entity sets that should be parsed
+	private Set<String> includedTypes, includedEntitySets;
+	// when reparsing, the previous definition and the types and entity sets that have to be rebuilt, everything else is reused
+	private ODataDefinitionImpl previous;
+	private Set<String> dirtyTypes, dirtyEntitySets;
+	// the functions of the previous definition by entity set
+	private Map<String, List<Function>> previousFunctions;
+	// a copy of the entity configurations of the parser when the parse started, a later change does not affect this parse
+	private List<ODataEntityConfiguration> entityConfigurations;
+	
+	public ODataParseContext(URI url, ODataParseMetrics metrics) {
+		this.url = url;
+		this.metrics = metrics;
+	}
+	
+	public URI getUrl() {
+		return url;
+	}
+	public ODataParseMetrics getMetrics() {
+		return metrics;
+	}
+	public Map<String, String> getAliases() {
+		return aliases;
+	}
+	public Map<String, String> getExistingEntitySets() {
+		return existingEntitySets;
+	}
+	public Set<String> getEmptyComplexTypes() {
+		return emptyComplexTypes;
+	}
+	public boolean isIncludedType(String qualifiedName) {
+		return includedTypes == null || includedTypes.contains(qualifiedName);
+	}
+	public boolean isIncludedEntitySet(String name) {
+		return includedEntitySets == null || includedEntitySets.contains(name);
+	}
+	public Set<String> getIncludedTypes() {
+		return includedTypes;
+	}
+	public void setIncludedTypes(Set<String> includedTypes) {
+		this.includedTypes = includedTypes;
+	}
+	public Set<String> getIncludedEntitySets() {
+		return includedEntitySets;
+	}
+	public void setIncludedEntitySets(Set<String> includedEntitySets) {
+		this.includedEntitySets = includedEntitySets;
+	}
+	// a type is reused if we are reparsing and neither it nor anything it depends on changed
+	public boolean isReusedType(String qualifiedName) {
+		return dirtyTypes != null && !dirtyTypes.contains(qualifiedName);
+	}
+	public boolean isReusedEntitySet(String name) {
+		return dirtyEntitySets != null && !dirtyEntitySets.contains(name);
+	}
+	public ODataDefinitionImpl getPrevious() {
+		return previous;
+	}
+	public void setPrevious(ODataDefinitionImpl previous) {
+		this.previous = previous;
+	}
+	public Set<String> getDirtyTypes() {
+		return dirtyTypes;
+	}
+	public void setDirtyTypes(Set<String> dirtyTypes) {
+		this.dirtyTypes = dirtyTypes;
+	}
+	public Set<String> getDirtyEntitySets() {
+		return dirtyEntitySets;
+	}
+	public void setDirtyEntitySets(Set<String> dirtyEntitySets) {
+		this.dirtyEntitySets = dirtyEntitySets;
+	}
+	public synchronized List<Function> getPreviousFunctions(String entitySet) {
+		if (previousFunctions == null) {
+			previousFunctions = new HashMap<String, List<Function>>();
+			if (previous != null && previous.getFunctions() != null) {
+				for (Function function : previous.getFunctions()) {
+					List<Function> list = previousFunctions.get(function.getContext());
+					if (list == null) {
+						list = new ArrayList<Function>();
+						previousFunctions.put(function.getContext(), list);
+					}
+					list.add(function);
+				}
+			}
+		}
+		List<Function> list = previousFunctions.get(entitySet);
+		return list == null ? new ArrayList<Function>() : list;
+	}
+	public List<ODataEntityConfiguration> getEntityConfigurations() {
+		return entityConfigurations;
+	}
+	public void setEntityConfigurations(List<ODataEntityConfiguration> entityConfigurations) {
+		this.entityConfigurations = entityConfigurations;
+	}
+}
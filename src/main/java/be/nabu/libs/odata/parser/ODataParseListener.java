@@ -0,0 +1,40 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.net.URI;
+
+/**
+ * Allows you to follow the progress of a parse, for example to export timings to a metrics system.
+ * Listeners are called from the parsing thread (or threads in parallel mode) so they should be fast and thread safe.
+ */
+public interface ODataParseListener {
+	/**
+	 * Called when a phase has finished, the duration is in nanoseconds
+	 */
+	public default void phaseFinished(URI url, ODataParsePhase phase, long duration) {
+		// do nothing
+	}
+	/**
+	 * Called when the parse is done, the exception is null if it was successful
+	 */
+	public default void parseFinished(URI url, ODataParseMetrics metrics, Exception exception) {
+		// do nothing
+	}
+}
@@ -0,0 +1,121 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of a single parse. All the counters can be updated concurrently (in parallel mode).
+ * Note that in lazy mode the functions are only counted if they are generated while parsing.
+ */
+public class ODataParseMetrics {
+	
+	// the total duration of each phase in nanoseconds
+	private Map<ODataParsePhase, AtomicLong> durations = new EnumMap<ODataParsePhase, AtomicLong>(ODataParsePhase.class);
+	private AtomicLong types = new AtomicLong(), 
+		properties = new AtomicLong(),
+		navigationProperties = new AtomicLong(),
+		entitySets = new AtomicLong(),
+		functions = new AtomicLong(),
+		optimizedQueries = new AtomicLong(),
+		xpathQueries = new AtomicLong();
+	
+	public ODataParseMetrics() {
+		for (ODataParsePhase phase : ODataParsePhase.values()) {
+			durations.put(phase, new AtomicLong());
+		}
+	}
+	
+	void addDuration(ODataParsePhase phase, long duration) {
+		durations.get(phase).addAndGet(duration);
+	}
+	public long getDuration(ODataParsePhase phase) {
+		return durations.get(phase).get();
+	}
+	// the sum of all the phases
+	public long getTotalDuration() {
+		long total = 0;
+		for (AtomicLong duration : durations.values()) {
+			total += duration.get();
+		}
+		return total;
+	}
+	
+	public long getTypes() {
+		return types.get();
+	}
+	public long getProperties() {
+		return properties.get();
+	}
+	public long getNavigationProperties() {
+		return navigationProperties.get();
+	}
+	public long getEntitySets() {
+		return entitySets.get();
+	}
+	public long getFunctions() {
+		return functions.get();
+	}
+	public long getOptimizedQueries() {
+		return optimizedQueries.get();
+	}
+	public long getXpathQueries() {
+		return xpathQueries.get();
+	}
+
+	void addTypes(long amount) {
+		types.addAndGet(amount);
+	}
+	void addProperties(long amount) {
+		properties.addAndGet(amount);
+	}
+	void addNavigationProperties(long amount) {
+		navigationProperties.addAndGet(amount);
+	}
+	void addEntitySets(long amount) {
+		entitySets.addAndGet(amount);
+	}
+	void addFunctions(long amount) {
+		functions.addAndGet(amount);
+	}
+	void addOptimizedQueries(long amount) {
+		optimizedQueries.addAndGet(amount);
+	}
+	void addXpathQueries(long amount) {
+		xpathQueries.addAndGet(amount);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (ODataParsePhase phase : ODataParsePhase.values()) {
+			builder.append(phase.name().toLowerCase()).append("=").append(getDuration(phase) / 1000000).append("ms, ");
+		}
+		builder.append("types=").append(types.get())
+			.append(", properties=").append(properties.get())
+			.append(", navigationProperties=").append(navigationProperties.get())
+			.append(", entitySets=").append(entitySets.get())
+			.append(", functions=").append(functions.get())
+			.append(", optimizedQueries=").append(optimizedQueries.get())
+			.append(", xpathQueries=").append(xpathQueries.get());
+		return builder.toString();
+	}
+}
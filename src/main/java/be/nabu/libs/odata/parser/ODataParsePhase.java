@@ -0,0 +1,38 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+/**
+ * The phases of a parse, in the order they (first) occur.
+ * Most phases run once per schema so they can be reported multiple times for a single parse.
+ */
+public enum ODataParsePhase {
+	// requesting the metadata from the server, the content itself is only read in the next phase
+	FETCH,
+	// reading the metadata into a dom, in streaming mode this is spooling the content and extracting the outlines
+	DOCUMENT,
+	// registering all the types and collection names so they can reference one another
+	PREPARSE,
+	// parsing the types and entity sets
+	PARSE,
+	// exposing contained navigation properties
+	NAVIGATION,
+	// running the linkers that were deferred until all types were parsed
+	LINKING
+}
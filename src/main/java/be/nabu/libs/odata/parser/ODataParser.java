@@ -17,23 +17,38 @@
 
 package be.nabu.libs.odata.parser;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.net.ssl.SSLContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,8 +68,8 @@ import be.nabu.libs.http.api.client.HTTPClient;
 import be.nabu.libs.http.client.nio.NIOHTTPClientImpl;
 import be.nabu.libs.http.core.CustomCookieStore;
 import be.nabu.libs.http.core.DefaultHTTPRequest;
-import be.nabu.libs.http.server.nio.MemoryMessageDataProvider;
 import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.types.ConformanceLevel;
 import be.nabu.libs.odata.types.Function;
 import be.nabu.libs.odata.types.NavigationProperty;
 import be.nabu.libs.property.ValueUtils;
@@ -99,7 +114,9 @@ import be.nabu.utils.io.IOUtils;
 import be.nabu.utils.io.api.ByteBuffer;
 import be.nabu.utils.io.api.ReadableContainer;
 import be.nabu.utils.mime.api.ContentPart;
+import be.nabu.utils.mime.api.Header;
 import be.nabu.utils.mime.impl.MimeHeader;
+import be.nabu.utils.mime.impl.MimeUtils;
 import be.nabu.utils.mime.impl.PlainMimeEmptyPart;
 import be.nabu.utils.xml.BaseNamespaceResolver;
 import be.nabu.utils.xml.XMLUtils;
@@ -122,9 +139,36 @@ public class ODataParser {
 	
 	private static final String NS_EDM = "http://docs.oasis-open.org/odata/ns/edm";
 	private static final String NS_EDMX = "http://docs.oasis-open.org/odata/ns/edmx";
+	
+	private static final String SUPPORTED_FORMATS = "Org.OData.Capabilities.V1.SupportedFormats";
+	private static final String FILTER_FUNCTIONS = "Org.OData.Capabilities.V1.FilterFunctions";
+	private static final String CONFORMANCE_LEVEL = "Org.OData.Capabilities.V1.ConformanceLevel";
+	private static final String ASYNCHRONOUS_REQUESTS_SUPPORTED = "Org.OData.Capabilities.V1.AsynchronousRequestsSupported";
+	private static final String BATCH_CONTINUE_ON_ERROR_SUPPORTED = "Org.OData.Capabilities.V1.BatchContinueOnErrorSupported";
+	private static final String BATCH_SUPPORT = "Org.OData.Capabilities.V1.BatchSupport";
+	private static final String CROSS_JOIN_SUPPORTED = "Org.OData.Capabilities.V1.CrossJoinSupported";
 
 	private Logger logger = LoggerFactory.getLogger(getClass());
 	private String baseId;
+	// when enabled, the metadata is read with a pull parser instead of being loaded as a single dom
+	private boolean streaming = "true".equals(System.getProperty("odata.streaming", "false"));
+	// metadata that is downloaded or has to be read more than once is kept in memory up to this size (in bytes), beyond that it is spooled to a temporary file
+	private long spoolThreshold = Long.parseLong(System.getProperty("odata.spoolThreshold", "" + (4 * 1024 * 1024)));
+	// when set, parsed definitions are stored as binary snapshots and reused as long as the metadata does not change
+	private ODataSnapshotStore snapshotStore;
+	// when set, metadata is requested conditionally and the local copy is reused if it did not change
+	private MetadataCache metadataCache;
+	// when set, only these entity sets (and the types they need) are parsed, when not set everything is parsed
+	private List<String> entitySets;
+	// when set, definitions with the same metadata (apart from the host) are shared across tenants
+	private ODataDefinitionPool definitionPool;
+	// when enabled, the functions and extension types of an entity set are only generated when they are first requested
+	private boolean lazy = "true".equals(System.getProperty("odata.lazy", "false"));
+	// when set, types and entity sets are parsed in parallel, the resulting definition is identical to the one parsed sequentially
+	private ForkJoinPool forkJoinPool = "true".equals(System.getProperty("odata.parallel", "false")) ? ForkJoinPool.commonPool() : null;
+	// when enabled, every parsed definition carries the fingerprints of its metadata so it can serve as the basis for a later reparse
+	// this is implied when reparsing or when definitions are stored or shared, otherwise we don't spend time hashing the document
+	private boolean fingerprinting = "true".equals(System.getProperty("odata.fingerprinting", "false"));
 	
 	public static void main(String...args) throws URISyntaxException, ParseException {
 		ODataDefinition definition = new ODataParser().parse(new URI("https://services.odata.org/V4/TripPinService"));
@@ -132,16 +176,41 @@ public class ODataParser {
 		System.out.println("Version: " + definition.getVersion());
 	}
 	
-	// you can create aliases to namespaces as shorthands (basically a lot like prefixes...)
-	private Map<String, String> aliases = new HashMap<String, String>();
+	// the state of the parses that are currently running, the definition is passed around anyway so we use it to find the matching context
+	private Map<ODataDefinition, ODataParseContext> contexts = Collections.synchronizedMap(new IdentityHashMap<ODataDefinition, ODataParseContext>());
 
-	private PathAnalyzer<Object> pathAnalyzer;
+	private PathAnalyzer<Object> pathAnalyzer = new PathAnalyzer<Object>(new PlainOperationProvider());
 	
 	private List<ODataEntityConfiguration> entityConfigurations;
 	
+	private List<ODataParseListener> parseListeners = new CopyOnWriteArrayList<ODataParseListener>();
+	
 	public ODataDefinition parse(URI url) throws ParseException {
-		try (InputStream metadata = getMetadata(url)) {
-			return parse(url, metadata);
+		ODataParseMetrics metrics = new ODataParseMetrics();
+		long started = System.nanoTime();
+		InputStream fetched = null;
+		Exception exception = null;
+		try {
+			fetched = getMetadata(url);
+			if (fetched == null) {
+				throw new ParseException("Could not retrieve the metadata for: " + url, 0);
+			}
+		}
+		catch (ParseException | RuntimeException e) {
+			exception = e;
+			throw e;
+		}
+		finally {
+			// a failed fetch is reported like a failed parse, the parse itself notifies the listeners once it is done
+			phaseFinished(url, metrics, ODataParsePhase.FETCH, started);
+			if (exception != null) {
+				for (ODataParseListener listener : parseListeners) {
+					listener.parseFinished(url, metrics, exception);
+				}
+			}
+		}
+		try (InputStream metadata = fetched) {
+			return parse(url, metadata, metrics);
 		}
 		catch (ParseException e) {
 			throw e;
@@ -152,21 +221,195 @@ public class ODataParser {
 	}
 	
 	public ODataDefinition parse(URI url, InputStream input) throws ParseException {
+		return parse(url, input, new ODataParseMetrics());
+	}
+	
+	/**
+	 * Parses the metadata again, reusing everything from the previous definition that did not change (directly or through something it depends on).
+	 * The diff lists what was added, removed or changed compared to the previous definition, unchanged objects are the same instances as in the previous definition.
+	 * If the previous definition was parsed without fingerprints (see {@link #setFingerprinting(boolean)}), everything is rebuilt and reported as changed.
+	 */
+	public ODataDefinitionDiff reparse(ODataDefinition previous, URI url, InputStream input) throws ParseException {
+		ODataParseMetrics metrics = new ODataParseMetrics();
+		ODataDefinition definition = parse(url, input, metrics, previous);
+		return ODataDefinitionDiff.compare(previous, definition);
+	}
+	
+	private ODataDefinition parse(URI url, InputStream input, ODataParseMetrics metrics) throws ParseException {
+		return parse(url, input, metrics, null);
+	}
+	
+	private ODataDefinition parse(URI url, InputStream input, ODataParseMetrics metrics, ODataDefinition previous) throws ParseException {
+		Exception exception = null;
+		try {
+			return parseDefinition(url, input, metrics, previous);
+		}
+		catch (ParseException | RuntimeException e) {
+			exception = e;
+			throw e;
+		}
+		finally {
+			for (ODataParseListener listener : parseListeners) {
+				listener.parseFinished(url, metrics, exception);
+			}
+		}
+	}
+	
+	private ODataDefinition parseDefinition(URI url, InputStream input, ODataParseMetrics metrics, ODataDefinition previous) throws ParseException {
+		// tenants of the same product share a single definition, a reparse always builds a new one
+		if (definitionPool != null && previous == null) {
+			long started = System.nanoTime();
+			try (ContentSpool spool = new ContentSpool(input, spoolThreshold)) {
+				phaseFinished(url, metrics, ODataParsePhase.DOCUMENT, started);
+				String key = getSnapshotKey(url.getHost() == null ? spool.getHash() : spool.getHash(url.getHost().getBytes(StandardCharsets.UTF_8), "{host}".getBytes(StandardCharsets.UTF_8)));
+				ODataDefinition shared = definitionPool.get(key);
+				if (shared == null) {
+					try (InputStream content = spool.newInputStream()) {
+						shared = definitionPool.share(key, parseContent(url, content, metrics, null));
+					}
+				}
+				else {
+					logger.debug("Sharing definition for " + url);
+				}
+				return new ODataTenantDefinition(shared, url);
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return parseContent(url, input, metrics, previous);
+	}
+	
+	private ODataDefinition parseContent(URI url, InputStream input, ODataParseMetrics metrics, ODataDefinition previous) throws ParseException {
+		if (snapshotStore != null) {
+			long started = System.nanoTime();
+			try (ContentSpool spool = new ContentSpool(input, spoolThreshold)) {
+				phaseFinished(url, metrics, ODataParsePhase.DOCUMENT, started);
+				String snapshotKey = getSnapshotKey(spool.getHash());
+				// when reparsing we want to reuse the instances of the previous definition rather than the ones in the snapshot
+				ODataDefinitionImpl definition = previous == null ? snapshotStore.load(url, snapshotKey) : null;
+				if (definition != null) {
+					logger.debug("Loaded snapshot for " + url);
+					definition.setScheme(url.getScheme());
+					definition.setHost(url.getHost());
+					definition.setBasePath(url.getPath());
+					return definition;
+				}
+				definition = newDefinition(url, metrics, previous);
+				try {
+					parse(url, spool, definition);
+				}
+				finally {
+					contexts.remove(definition);
+				}
+				snapshotStore.save(url, snapshotKey, definition);
+				return definition;
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		ODataDefinitionImpl definition = newDefinition(url, metrics, previous);
+		try {
+			parse(url, input, definition);
+		}
+		finally {
+			contexts.remove(definition);
+		}
+		return definition;
+	}
+	
+	// the generated definition depends not only on the metadata but also on the configuration of the parser
+	private String getSnapshotKey(String contentHash) {
+		StringBuilder builder = new StringBuilder(contentHash);
+		builder.append(";").append(baseId);
+		if (entitySets != null) {
+			builder.append(";").append(entitySets);
+		}
+		if (entityConfigurations != null) {
+			for (ODataEntityConfiguration entityConfiguration : entityConfigurations) {
+				builder.append(";").append(entityConfiguration.getEntity())
+					.append(":").append(entityConfiguration.getExpansions())
+					.append(":").append(entityConfiguration.getManagedBindings());
+			}
+		}
+		try {
+			return ContentSpool.toHex(MessageDigest.getInstance("SHA-256").digest(builder.toString().getBytes(StandardCharsets.UTF_8)));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// the configurations can be changed while a definition is being parsed or generated, so each parse works on its own copy
+	private static List<ODataEntityConfiguration> copy(List<ODataEntityConfiguration> entityConfigurations) {
+		if (entityConfigurations == null) {
+			return null;
+		}
+		List<ODataEntityConfiguration> copy = new ArrayList<ODataEntityConfiguration>();
+		for (ODataEntityConfiguration entityConfiguration : entityConfigurations) {
+			ODataEntityConfiguration cloned = new ODataEntityConfiguration();
+			cloned.setEntity(entityConfiguration.getEntity());
+			cloned.setExpansions(entityConfiguration.getExpansions() == null ? null : new ArrayList<String>(entityConfiguration.getExpansions()));
+			cloned.setManagedBindings(entityConfiguration.getManagedBindings() == null ? null : new ArrayList<String>(entityConfiguration.getManagedBindings()));
+			copy.add(cloned);
+		}
+		return copy;
+	}
+	
+	private ODataDefinitionImpl newDefinition(URI url, ODataParseMetrics metrics, ODataDefinition previous) {
 		ODataDefinitionImpl definition = new ODataDefinitionImpl();
 		definition.setScheme(url.getScheme());
 		definition.setHost(url.getHost());
 		definition.setBasePath(url.getPath());
-		definition.setRegistry(new TypeRegistryImpl());
+		definition.setRegistry(lazy ? new LazyTypeRegistry(definition) : new TypeRegistryImpl());
 		definition.setFunctions(new ArrayList<Function>());
 		definition.setNavigationProperties(new ArrayList<NavigationProperty>());
-		parse(url, input, definition);
+		ODataParseContext context = new ODataParseContext(url, metrics);
+		context.setEntityConfigurations(copy(entityConfigurations));
+		// a tenant definition is a view on a shared one
+		if (previous instanceof ODataTenantDefinition) {
+			previous = ((ODataTenantDefinition) previous).getDefinition();
+		}
+		if (previous instanceof ODataDefinitionImpl) {
+			context.setPrevious((ODataDefinitionImpl) previous);
+		}
+		contexts.put(definition, context);
 		return definition;
 	}
 	
-	public HTTPClient getHTTPClient() {
+	// records the duration of a phase that started at the given time, the current time is returned so phases can be chained
+	private long phaseFinished(URI url, ODataParseMetrics metrics, ODataParsePhase phase, long started) {
+		long now = System.nanoTime();
+		metrics.addDuration(phase, now - started);
+		for (ODataParseListener listener : parseListeners) {
+			listener.phaseFinished(url, phase, now - started);
+		}
+		return now;
+	}
+	
+	private long phaseFinished(ODataDefinition definition, ODataParsePhase phase, long started) {
+		ODataParseContext context = getContext(definition);
+		return phaseFinished(context.getUrl(), context.getMetrics(), phase, started);
+	}
+	
+	// we only need fingerprints if the definition is reparsed now or might be the basis for a reparse later on
+	private boolean isFingerprinting(ODataDefinition definition) {
+		return fingerprinting || snapshotStore != null || definitionPool != null || getContext(definition).getPrevious() != null;
+	}
+	
+	private ODataParseContext getContext(ODataDefinition definition) {
+		ODataParseContext context = contexts.get(definition);
+		if (context == null) {
+			throw new IllegalStateException("The definition is not being parsed");
+		}
+		return context;
+	}
+	
+	public synchronized HTTPClient getHTTPClient() {
 		if (httpClient == null) {
 			try {
-				httpClient = new NIOHTTPClientImpl(SSLContext.getDefault(), 5, 5, 10, new EventDispatcherImpl(), new MemoryMessageDataProvider(), new CookieManager(new CustomCookieStore(), CookiePolicy.ACCEPT_NONE), Executors.defaultThreadFactory());
+				httpClient = new NIOHTTPClientImpl(SSLContext.getDefault(), 5, 5, 10, new EventDispatcherImpl(), new SpoolingMessageDataProvider(spoolThreshold), new CookieManager(new CustomCookieStore(), CookiePolicy.ACCEPT_NONE), Executors.defaultThreadFactory());
 			}
 			catch (Exception e) {
 				throw new RuntimeException(e);
@@ -174,25 +417,50 @@ public class ODataParser {
 		}
 		return httpClient;
 	}
-	public void setHttpClient(HTTPClient httpClient) {
+	public synchronized void setHttpClient(HTTPClient httpClient) {
 		this.httpClient = httpClient;
 	}
 	
 	public InputStream getMetadata(URI url) {
 		URI child = URIUtils.getChild(url, "$metadata");
 		HTTPClient httpClient = getHTTPClient();
-		HTTPRequest request = new DefaultHTTPRequest("GET", child.getPath(), new PlainMimeEmptyPart(null, 
+		// if we have a local copy, we only want the metadata if it changed
+		MetadataCache.Entry cached = metadataCache == null ? null : metadataCache.get(child);
+		List<Header> headers = new ArrayList<Header>(Arrays.asList(
 			new MimeHeader("Content-Length", "0"),
 			new MimeHeader("Accept", "application/xml"),
+			// metadata compresses really well
+			new MimeHeader("Accept-Encoding", "gzip, deflate"),
 			new MimeHeader("User-Agent", "User agent"),
 			new MimeHeader("Host", child.getHost())
 		));
+		if (cached != null && cached.getEtag() != null) {
+			headers.add(new MimeHeader("If-None-Match", cached.getEtag()));
+		}
+		if (cached != null && cached.getLastModified() != null) {
+			headers.add(new MimeHeader("If-Modified-Since", cached.getLastModified()));
+		}
+		HTTPRequest request = new DefaultHTTPRequest("GET", child.getPath(), new PlainMimeEmptyPart(null, headers.toArray(new Header[0])));
 		try {
 			HTTPResponse response = httpClient.execute(request, null, child.getScheme().equals("https"), true);
-			if (response.getCode() >= 200 && response.getCode() < 300) {
+			if (response.getCode() == 304 && cached != null) {
+				logger.debug("Metadata for " + url + " is not modified, using the local copy");
+				return cached.newInputStream();
+			}
+			else if (response.getCode() >= 200 && response.getCode() < 300) {
 				if (response.getContent() instanceof ContentPart) {
 					ReadableContainer<ByteBuffer> readable = ((ContentPart) response.getContent()).getReadable();
-					return IOUtils.toInputStream(readable);
+					Header contentEncoding = MimeUtils.getHeader("Content-Encoding", response.getContent().getHeaders());
+					// we decompress while reading so the decompressed metadata is never in memory as a whole
+					InputStream decoded = ContentDecoder.decode(IOUtils.toInputStream(readable), contentEncoding == null ? null : contentEncoding.getValue());
+					if (metadataCache != null) {
+						Header etag = MimeUtils.getHeader("ETag", response.getContent().getHeaders());
+						Header lastModified = MimeUtils.getHeader("Last-Modified", response.getContent().getHeaders());
+						try (InputStream input = decoded) {
+							return metadataCache.put(child, input, etag == null ? null : etag.getValue(), lastModified == null ? null : lastModified.getValue()).newInputStream();
+						}
+					}
+					return decoded;
 				}
 			}
 		}
@@ -206,8 +474,21 @@ public class ODataParser {
 	}
 
 	private void parse(URI url, InputStream metadata, ODataDefinitionImpl definition) throws ParseException {
+		if (streaming) {
+			long started = System.nanoTime();
+			try (ContentSpool spool = new ContentSpool(metadata, spoolThreshold)) {
+				phaseFinished(definition, ODataParsePhase.DOCUMENT, started);
+				parseStreaming(spool, definition);
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return;
+		}
 		try {
+			long started = System.nanoTime();
 			Document document = XMLUtils.toDocument(metadata, true);
+			phaseFinished(definition, ODataParsePhase.DOCUMENT, started);
 			if (!document.getDocumentElement().getLocalName().equals("Edmx")) {
 				throw new ParseException("Not an edmx document, the root tag is: " + document.getDocumentElement().getTagName(), 0);
 			}
@@ -222,6 +503,20 @@ public class ODataParser {
 		}
 	}
 	
+	private void parse(URI url, ContentSpool spool, ODataDefinitionImpl definition) throws ParseException {
+		if (streaming) {
+			parseStreaming(spool, definition);
+		}
+		else {
+			try (InputStream input = spool.newInputStream()) {
+				parse(url, input, definition);
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
 	private void parseRoot(Element element, ODataDefinitionImpl definition) {
 		NodeList children = element.getElementsByTagNameNS(NS_EDMX, "DataServices");
 		for (int i = 0; i < children.getLength(); i++) {
@@ -232,82 +527,611 @@ public class ODataParser {
 	private void parseDataServices(Element element, ODataDefinitionImpl definition) {
 		NodeList children = element.getElementsByTagNameNS(NS_EDM, "Schema");
 		// allow for out-of-order things to reference each other
+		long started = System.nanoTime();
+		List<SchemaOutline> outlines = new ArrayList<SchemaOutline>();
+		boolean fingerprint = isFingerprinting(definition);
 		for (int i = 0; i < children.getLength(); i++) {
-			preparseSchema((Element) children.item(i), definition);
+			outlines.add(outline((Element) children.item(i), fingerprint));
 		}
+		include(outlines, definition);
+		invalidate(outlines, definition);
+		for (SchemaOutline outline : outlines) {
+			preparseSchema(outline, definition);
+		}
+		phaseFinished(definition, ODataParsePhase.PREPARSE, started);
 		for (int i = 0; i < children.getLength(); i++) {
 			parseSchema((Element) children.item(i), definition);
 		}
 	}
 	
-	private void preparseSchema(Element element, ODataDefinitionImpl definition) {
-		String namespace = element.getAttribute("Namespace");
-		String alias = element.getAttribute("Alias");
-		if (alias != null && !alias.trim().isEmpty()) {
-			aliases.put(alias, namespace);
-		}
+	private SchemaOutline outline(Element element, boolean fingerprint) {
+		SchemaOutline outline = new SchemaOutline();
+		outline.setNamespace(element.getAttribute("Namespace"));
+		outline.setAlias(element.getAttribute("Alias"));
 		NodeList children = element.getElementsByTagNameNS(NS_EDM, "EnumType");
 		for (int i = 0; i < children.getLength(); i++) {
-			parseEnumType((Element) children.item(i), definition, namespace);
+			List<String> values = new ArrayList<String>();
+			NodeList members = ((Element) children.item(i)).getElementsByTagNameNS(NS_EDM, "Member");
+			for (int j = 0; j < members.getLength(); j++) {
+				values.add(((Element) members.item(j)).getAttribute("Name"));
+			}
+			outline.getEnumTypes().put(((Element) children.item(i)).getAttribute("Name"), values);
 		}
-		// preparsing
 		children = element.getElementsByTagNameNS(NS_EDM, "ComplexType");
 		for (int i = 0; i < children.getLength(); i++) {
-			preparseComplexType((Element) children.item(i), definition, namespace);
+			outline.getComplexTypes().add(outlineType((Element) children.item(i), false, fingerprint));
 		}
 		children = element.getElementsByTagNameNS(NS_EDM, "EntityType");
 		for (int i = 0; i < children.getLength(); i++) {
-			preparseComplexType((Element) children.item(i), definition, namespace);
+			outline.getEntityTypes().add(outlineType((Element) children.item(i), true, fingerprint));
 		}
-		// make sure we have the correct collection names
 		children = element.getElementsByTagNameNS(NS_EDM, "EntitySet");
 		for (int i = 0; i < children.getLength(); i++) {
-			preparseEntitySet(definition, (Element) children.item(i), namespace);
+			outline.getEntitySets().put(((Element) children.item(i)).getAttribute("Name"), ((Element) children.item(i)).getAttribute("EntityType"));
+			if (fingerprint) {
+				outline.getEntitySetFingerprints().put(((Element) children.item(i)).getAttribute("Name"), Fingerprint.of((Element) children.item(i)));
+			}
+		}
+		return outline;
+	}
+	
+	private SchemaOutline.TypeOutline outlineType(Element element, boolean entity, boolean fingerprint) {
+		SchemaOutline.TypeOutline outline = new SchemaOutline.TypeOutline(element.getAttribute("Name"), entity, isEmpty(element));
+		if (fingerprint) {
+			outline.setFingerprint(Fingerprint.of(element));
+		}
+		if (element.hasAttribute("BaseType")) {
+			outline.getReferences().add(element.getAttribute("BaseType"));
 		}
+		NodeList childNodes = element.getChildNodes();
+		for (int i = 0; i < childNodes.getLength(); i++) {
+			if (childNodes.item(i).getNodeType() == Node.ELEMENT_NODE && NS_EDM.equals(childNodes.item(i).getNamespaceURI())) {
+				String localName = childNodes.item(i).getLocalName();
+				if (localName.equals("Property") || localName.equals("NavigationProperty")) {
+					outline.getReferences().add(((Element) childNodes.item(i)).getAttribute("Type"));
+					if (localName.equals("NavigationProperty") && "true".equalsIgnoreCase(((Element) childNodes.item(i)).getAttribute("ContainsTarget"))) {
+						outline.getContainments().add(((Element) childNodes.item(i)).getAttribute("Type"));
+					}
+				}
+			}
+		}
+		return outline;
+	}
+	
+	// check if it is empty, for example ms graph sharepoint odata has an element like this:
+	// <ComplexType Name="root" />
+	// we want to switch this to java.lang.object
+	private boolean isEmpty(Element element) {
+		NodeList childNodes = element.getChildNodes();
+		for (int i = 0; i < childNodes.getLength(); i++) {
+			if (childNodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// if only some entity sets are requested, we determine which types they need (directly or indirectly) so we can skip the rest
+	private void include(List<SchemaOutline> outlines, ODataDefinitionImpl definition) {
+		if (entitySets == null) {
+			return;
+		}
+		ODataParseContext context = getContext(definition);
+		// we need the aliases to resolve the references
+		for (SchemaOutline outline : outlines) {
+			if (outline.getAlias() != null && !outline.getAlias().trim().isEmpty()) {
+				context.getAliases().put(outline.getAlias(), outline.getNamespace());
+			}
+		}
+		Map<String, SchemaOutline.TypeOutline> types = new HashMap<String, SchemaOutline.TypeOutline>();
+		for (SchemaOutline outline : outlines) {
+			for (SchemaOutline.TypeOutline type : outline.getComplexTypes()) {
+				types.put(outline.getNamespace() + "." + type.getName(), type);
+			}
+			for (SchemaOutline.TypeOutline type : outline.getEntityTypes()) {
+				types.put(outline.getNamespace() + "." + type.getName(), type);
+			}
+		}
+		Set<String> includedTypes = new HashSet<String>();
+		Deque<String> todo = new ArrayDeque<String>();
+		for (SchemaOutline outline : outlines) {
+			for (Map.Entry<String, String> entitySet : outline.getEntitySets().entrySet()) {
+				if (entitySets.contains(entitySet.getKey())) {
+					todo.add(qualify(entitySet.getValue(), context));
+				}
+			}
+		}
+		while (!todo.isEmpty()) {
+			String name = todo.pop();
+			// enumerations have no outline but they do need to be included
+			if (includedTypes.add(name) && types.containsKey(name)) {
+				for (String reference : types.get(name).getReferences()) {
+					String qualified = qualify(reference, context);
+					if (!qualified.startsWith("Edm.") && !includedTypes.contains(qualified)) {
+						todo.add(qualified);
+					}
+				}
+			}
+		}
+		logger.debug("Including " + includedTypes.size() + " of " + types.size() + " types for entity sets: " + entitySets);
+		context.setIncludedTypes(includedTypes);
+		context.setIncludedEntitySets(new HashSet<String>(entitySets));
+	}
+	
+	// calculates the fingerprints of the metadata and, when reparsing, determines what has to be rebuilt
+	private void invalidate(List<SchemaOutline> outlines, ODataDefinitionImpl definition) {
+		ODataParseContext context = getContext(definition);
+		for (SchemaOutline outline : outlines) {
+			if (outline.getAlias() != null && !outline.getAlias().trim().isEmpty()) {
+				context.getAliases().put(outline.getAlias(), outline.getNamespace());
+			}
+		}
+		// the outlines have no fingerprints, a reparse based on this definition will rebuild everything
+		if (!isFingerprinting(definition)) {
+			return;
+		}
+		Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+		// anything that influences how the types are resolved and what is generated
+		Fingerprint configuration = new Fingerprint().update(getSnapshotKey(""));
+		Map<String, SchemaOutline.TypeOutline> types = new HashMap<String, SchemaOutline.TypeOutline>();
+		for (SchemaOutline outline : outlines) {
+			String namespace = outline.getNamespace();
+			configuration.update(namespace).update(outline.getAlias());
+			for (Map.Entry<String, List<String>> enumType : outline.getEnumTypes().entrySet()) {
+				if (context.isIncludedType(namespace + "." + enumType.getKey())) {
+					Fingerprint fingerprint = new Fingerprint().update(enumType.getKey());
+					for (String value : enumType.getValue()) {
+						fingerprint.update(value);
+					}
+					fingerprints.put(namespace + "." + enumType.getKey(), fingerprint.toString());
+				}
+			}
+			List<SchemaOutline.TypeOutline> typeOutlines = new ArrayList<SchemaOutline.TypeOutline>(outline.getComplexTypes());
+			typeOutlines.addAll(outline.getEntityTypes());
+			for (SchemaOutline.TypeOutline type : typeOutlines) {
+				if (context.isIncludedType(namespace + "." + type.getName())) {
+					fingerprints.put(namespace + "." + type.getName(), type.getFingerprint());
+					types.put(namespace + "." + type.getName(), type);
+				}
+			}
+			for (Map.Entry<String, String> entitySet : outline.getEntitySets().entrySet()) {
+				String type = qualify(entitySet.getValue(), context);
+				if (context.isIncludedType(type)) {
+					fingerprints.put("entitySet:" + entitySet.getKey(), outline.getEntitySetFingerprints().get(entitySet.getKey()));
+					fingerprints.put("entitySetType:" + entitySet.getKey(), type);
+				}
+			}
+		}
+		fingerprints.put("configuration", configuration.toString());
+		definition.setFingerprints(fingerprints);
+		
+		ODataDefinitionImpl previous = context.getPrevious();
+		Map<String, String> previousFingerprints = previous == null ? null : previous.getFingerprints();
+		// if we don't know what the previous definition was based on or it was parsed differently, we rebuild everything
+		if (previousFingerprints == null || !fingerprints.get("configuration").equals(previousFingerprints.get("configuration"))) {
+			return;
+		}
+		Set<String> dirtyTypes = new HashSet<String>();
+		for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+			if (fingerprint.getKey().startsWith("entitySet")) {
+				// an entity set that is added or removed changes the collection name of the type
+				if (fingerprint.getKey().startsWith("entitySetType:") && !fingerprint.getValue().equals(previousFingerprints.get(fingerprint.getKey()))) {
+					dirtyTypes.add(fingerprint.getValue());
+				}
+			}
+			else if (!fingerprint.getValue().equals(previousFingerprints.get(fingerprint.getKey()))) {
+				dirtyTypes.add(fingerprint.getKey());
+			}
+		}
+		for (Map.Entry<String, String> fingerprint : previousFingerprints.entrySet()) {
+			if (!fingerprints.containsKey(fingerprint.getKey())) {
+				dirtyTypes.add(fingerprint.getKey().startsWith("entitySetType:") ? fingerprint.getValue() : fingerprint.getKey());
+			}
+		}
+		// if something changes, everything that references it (directly or indirectly) has to be rebuilt as well because it holds on to the old instance
+		Map<String, List<String>> referencedBy = new HashMap<String, List<String>>();
+		for (Map.Entry<String, SchemaOutline.TypeOutline> type : types.entrySet()) {
+			for (String reference : type.getValue().getReferences()) {
+				String qualified = qualify(reference, context);
+				List<String> list = referencedBy.get(qualified);
+				if (list == null) {
+					list = new ArrayList<String>();
+					referencedBy.put(qualified, list);
+				}
+				list.add(type.getKey());
+			}
+		}
+		Deque<String> todo = new ArrayDeque<String>(dirtyTypes);
+		while (!todo.isEmpty()) {
+			String name = todo.pop();
+			List<String> dependents = new ArrayList<String>();
+			if (referencedBy.containsKey(name)) {
+				dependents.addAll(referencedBy.get(name));
+			}
+			// parsing a type modifies the types it contains (they get a parent id), to be safe we rebuild those as well
+			if (types.containsKey(name)) {
+				for (String containment : types.get(name).getContainments()) {
+					dependents.add(qualify(containment, context));
+				}
+			}
+			for (String dependent : dependents) {
+				if (dirtyTypes.add(dependent)) {
+					todo.add(dependent);
+				}
+			}
+		}
+		Set<String> dirtyEntitySets = new HashSet<String>();
+		for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+			if (fingerprint.getKey().startsWith("entitySet:")) {
+				String name = fingerprint.getKey().substring("entitySet:".length());
+				if (!fingerprint.getValue().equals(previousFingerprints.get(fingerprint.getKey())) || dirtyTypes.contains(fingerprints.get("entitySetType:" + name))) {
+					dirtyEntitySets.add(name);
+				}
+			}
+		}
+		logger.debug("Reparsing " + dirtyTypes.size() + " of " + types.size() + " types and " + dirtyEntitySets.size() + " entity sets");
+		context.setDirtyTypes(dirtyTypes);
+		context.setDirtyEntitySets(dirtyEntitySets);
+	}
+	
+	// resolves a (possibly aliased) type reference to the qualified name of the type
+	private String qualify(String reference, ODataParseContext context) {
+		String typeName = cleanup(reference);
+		int index = typeName.lastIndexOf('.');
+		if (index > 0) {
+			String namespace = typeName.substring(0, index);
+			if (context.getAliases().containsKey(namespace)) {
+				return context.getAliases().get(namespace) + typeName.substring(index);
+			}
+		}
+		return typeName;
+	}
+	
+	private void preparseSchema(SchemaOutline outline, ODataDefinitionImpl definition) {
+		String namespace = outline.getNamespace();
+		String alias = outline.getAlias();
+		if (alias != null && !alias.trim().isEmpty()) {
+			getContext(definition).getAliases().put(alias, namespace);
+		}
+		ODataParseContext context = getContext(definition);
+		for (Map.Entry<String, List<String>> enumType : outline.getEnumTypes().entrySet()) {
+			if (context.isIncludedType(namespace + "." + enumType.getKey()) && !reuseType(definition, namespace, enumType.getKey(), false)) {
+				parseEnumType(enumType.getKey(), enumType.getValue(), definition, namespace);
+			}
+		}
+		// preparsing
+		for (SchemaOutline.TypeOutline complexType : outline.getComplexTypes()) {
+			if (context.isIncludedType(namespace + "." + complexType.getName()) && !reuseType(definition, namespace, complexType.getName(), complexType.isEmpty())) {
+				preparseComplexType(complexType, definition, namespace);
+			}
+		}
+		for (SchemaOutline.TypeOutline entityType : outline.getEntityTypes()) {
+			if (context.isIncludedType(namespace + "." + entityType.getName()) && !reuseType(definition, namespace, entityType.getName(), entityType.isEmpty())) {
+				preparseComplexType(entityType, definition, namespace);
+			}
+		}
+		// make sure we have the correct collection names
+		// this is done for all entity sets of the included types (not just the included entity sets) to end up with the same collection names as a full parse
+		for (Map.Entry<String, String> entitySet : outline.getEntitySets().entrySet()) {
+			// a reused type already has the correct collection name
+			if (context.isIncludedType(qualify(entitySet.getValue(), context)) && !context.isReusedType(qualify(entitySet.getValue(), context))) {
+				preparseEntitySet(definition, entitySet.getKey(), entitySet.getValue());
+			}
+		}
+	}
+	
+	// when reparsing, we register the type of the previous definition if it can be reused
+	private boolean reuseType(ODataDefinitionImpl definition, String namespace, String name, boolean empty) {
+		ODataParseContext context = getContext(definition);
+		if (!context.isReusedType(namespace + "." + name)) {
+			return false;
+		}
+		ComplexType complexType = context.getPrevious().getRegistry().getComplexType(namespace, name);
+		if (complexType != null) {
+			((TypeRegistryImpl) definition.getRegistry()).register(complexType);
+			if (empty && complexType instanceof DefinedType) {
+				context.getEmptyComplexTypes().add(((DefinedType) complexType).getId());
+			}
+			return true;
+		}
+		SimpleType<?> simpleType = context.getPrevious().getRegistry().getSimpleType(namespace, name);
+		if (simpleType != null) {
+			((TypeRegistryImpl) definition.getRegistry()).register(simpleType);
+			return true;
+		}
+		// we can't find it, so we have to rebuild it after all
+		context.getDirtyTypes().add(namespace + "." + name);
+		return false;
+	}
+	
+	// the navigation properties of a reused type are reused as well, the linkers have already been applied to the type
+	private ParsedComplexType reuseComplexType(ODataDefinitionImpl definition, String qualifiedName) {
+		ParsedComplexType parsed = new ParsedComplexType();
+		parsed.getNavigationProperties().addAll(getContext(definition).getPrevious().getNavigationPropertiesFor(qualifiedName));
+		return parsed;
+	}
+	
+	// in streaming mode we go over the document twice: once to gather the outlines for preparsing and once to parse each schema child in isolation
+	// the second pass only ever materializes a single schema child (e.g. one entity type) as a dom fragment, so peak memory is determined by the largest child rather than the whole document
+	private void parseStreaming(ContentSpool spool, ODataDefinitionImpl definition) throws ParseException {
+		EdmxStreamReader streamReader = new EdmxStreamReader();
+		long started = System.nanoTime();
+		try {
+			List<SchemaOutline> outlines = new ArrayList<SchemaOutline>();
+			try (InputStream input = spool.newInputStream()) {
+				XMLStreamReader reader = streamReader.open(input);
+				try {
+					if (!streamReader.nextChild(reader) || !reader.getLocalName().equals("Edmx")) {
+						throw new ParseException("Not an edmx document, the root tag is: " + (reader.isStartElement() ? reader.getLocalName() : null), 0);
+					}
+					definition.setVersion(EdmxStreamReader.attribute(reader, "Version"));
+					while (streamReader.nextChild(reader)) {
+						if (NS_EDMX.equals(reader.getNamespaceURI()) && reader.getLocalName().equals("DataServices")) {
+							while (streamReader.nextChild(reader)) {
+								if (NS_EDM.equals(reader.getNamespaceURI()) && reader.getLocalName().equals("Schema")) {
+									outlines.add(streamReader.outline(reader, isFingerprinting(definition)));
+								}
+								else {
+									streamReader.skip(reader);
+								}
+							}
+						}
+						else {
+							streamReader.skip(reader);
+						}
+					}
+				}
+				finally {
+					reader.close();
+				}
+			}
+			started = phaseFinished(definition, ODataParsePhase.DOCUMENT, started);
+			include(outlines, definition);
+			invalidate(outlines, definition);
+			for (SchemaOutline outline : outlines) {
+				preparseSchema(outline, definition);
+			}
+			phaseFinished(definition, ODataParsePhase.PREPARSE, started);
+			try (InputStream input = spool.newInputStream()) {
+				XMLStreamReader reader = streamReader.open(input);
+				try {
+					// we already validated the root
+					streamReader.nextChild(reader);
+					while (streamReader.nextChild(reader)) {
+						if (NS_EDMX.equals(reader.getNamespaceURI()) && reader.getLocalName().equals("DataServices")) {
+							while (streamReader.nextChild(reader)) {
+								if (NS_EDM.equals(reader.getNamespaceURI()) && reader.getLocalName().equals("Schema")) {
+									parseSchema(streamReader, reader, definition);
+								}
+								else {
+									streamReader.skip(reader);
+								}
+							}
+						}
+						else {
+							streamReader.skip(reader);
+						}
+					}
+				}
+				finally {
+					reader.close();
+				}
+			}
+		}
+		catch (ParseException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// the streaming equivalent of parseSchema(Element, ...), it takes care to produce the navigation properties and runnables in the same order
+	private void parseSchema(EdmxStreamReader streamReader, XMLStreamReader reader, ODataDefinitionImpl definition) throws XMLStreamException {
+		long started = System.nanoTime();
+		String namespace = EdmxStreamReader.attribute(reader, "Namespace");
+		String alias = EdmxStreamReader.attribute(reader, "Alias");
+		if (alias != null && !alias.trim().isEmpty()) {
+			getContext(definition).getAliases().put(alias, namespace);
+		}
+		// the dom based parsing processes all complex types before all entity types, in the stream they can be interleaved
+		// we keep them apart to end up with the same order
+		ParsedComplexType complexTypes = new ParsedComplexType();
+		ParsedComplexType entityTypes = new ParsedComplexType();
+		OrderedTasks<ParsedComplexType> complexTasks = new OrderedTasks<ParsedComplexType>(forkJoinPool, complexTypes::add);
+		OrderedTasks<ParsedComplexType> entityTasks = new OrderedTasks<ParsedComplexType>(forkJoinPool, entityTypes::add);
+		// entity sets need fully parsed types (e.g. for primary keys), so the containers are always parsed last
+		List<Element> containers = new ArrayList<Element>();
+		while (streamReader.nextChild(reader)) {
+			String localName = reader.getLocalName();
+			if (!NS_EDM.equals(reader.getNamespaceURI())) {
+				streamReader.skip(reader);
+			}
+			else if ((localName.equals("ComplexType") || localName.equals("EntityType")) && !getContext(definition).isIncludedType(namespace + "." + EdmxStreamReader.attribute(reader, "Name"))) {
+				streamReader.skip(reader);
+			}
+			else if ((localName.equals("ComplexType") || localName.equals("EntityType")) && getContext(definition).isReusedType(namespace + "." + EdmxStreamReader.attribute(reader, "Name"))) {
+				String qualifiedName = namespace + "." + EdmxStreamReader.attribute(reader, "Name");
+				(localName.equals("ComplexType") ? complexTasks : entityTasks).submit(() -> reuseComplexType(definition, qualifiedName));
+				streamReader.skip(reader);
+			}
+			else if (localName.equals("ComplexType")) {
+				Element fragment = streamReader.fragment(reader);
+				complexTasks.submit(() -> parseComplexType(fragment, definition, namespace));
+			}
+			else if (localName.equals("EntityType")) {
+				Element fragment = streamReader.fragment(reader);
+				entityTasks.submit(() -> parseComplexType(fragment, definition, namespace));
+			}
+			else if (localName.equals("EntityContainer")) {
+				containers.add(streamReader.fragment(reader));
+			}
+			else {
+				streamReader.skip(reader);
+			}
+		}
+		complexTasks.finish();
+		entityTasks.finish();
+		complexTypes.add(entityTypes);
+		for (NavigationProperty navigationProperty : complexTypes.getNavigationProperties()) {
+			definition.addNavigationProperty(navigationProperty);
+		}
+		for (Element container : containers) {
+			parseEntityContainer(container, definition, namespace);
+		}
+		containers = null;
+		
+		started = phaseFinished(definition, ODataParsePhase.PARSE, started);
+		// make sure we expose "contained" navigation properties
+		processNavigationProperties(definition, namespace);
+		started = phaseFinished(definition, ODataParsePhase.NAVIGATION, started);
+		
+		for (Runnable runnable : complexTypes.getRunnables()) {
+			runnable.run();
+		}
+		phaseFinished(definition, ODataParsePhase.LINKING, started);
 	}
 	
 	private void parseSchema(Element element, ODataDefinitionImpl definition) {
+		long started = System.nanoTime();
 		String namespace = element.getAttribute("Namespace");
 		String alias = element.getAttribute("Alias");
 		if (alias != null && !alias.trim().isEmpty()) {
-			aliases.put(alias, namespace);
+			getContext(definition).getAliases().put(alias, namespace);
 		}
-		// things that need to run after the parsing is done
-		List<Runnable> runnables = new ArrayList<Runnable>();
+		// the runnables are things that need to run after the parsing is done
+		ParsedComplexType parsed = new ParsedComplexType();
+		OrderedTasks<ParsedComplexType> tasks = new OrderedTasks<ParsedComplexType>(forkJoinPool, parsed::add);
+		// the dom can not be shared between threads, so in parallel mode each type is copied to a fragment of its own
+		EdmxStreamReader streamReader = forkJoinPool == null ? null : new EdmxStreamReader();
 		// actual parsing
+		ODataParseContext context = getContext(definition);
 		NodeList children = element.getElementsByTagNameNS(NS_EDM, "ComplexType");
 		for (int i = 0; i < children.getLength(); i++) {
-			runnables.addAll(parseComplexType((Element) children.item(i), definition, namespace));
+			String qualifiedName = namespace + "." + ((Element) children.item(i)).getAttribute("Name");
+			if (!context.isIncludedType(qualifiedName)) {
+				continue;
+			}
+			else if (context.isReusedType(qualifiedName)) {
+				tasks.submit(() -> reuseComplexType(definition, qualifiedName));
+				continue;
+			}
+			Element child = streamReader == null ? (Element) children.item(i) : streamReader.fragment((Element) children.item(i));
+			tasks.submit(() -> parseComplexType(child, definition, namespace));
 		}
 		children = element.getElementsByTagNameNS(NS_EDM, "EntityType");
 		for (int i = 0; i < children.getLength(); i++) {
-			runnables.addAll(parseComplexType((Element) children.item(i), definition, namespace));
+			String qualifiedName = namespace + "." + ((Element) children.item(i)).getAttribute("Name");
+			if (!context.isIncludedType(qualifiedName)) {
+				continue;
+			}
+			else if (context.isReusedType(qualifiedName)) {
+				tasks.submit(() -> reuseComplexType(definition, qualifiedName));
+				continue;
+			}
+			Element child = streamReader == null ? (Element) children.item(i) : streamReader.fragment((Element) children.item(i));
+			tasks.submit(() -> parseComplexType(child, definition, namespace));
+		}
+		tasks.finish();
+		for (NavigationProperty navigationProperty : parsed.getNavigationProperties()) {
+			definition.addNavigationProperty(navigationProperty);
 		}
 		children = element.getElementsByTagNameNS(NS_EDM, "EntityContainer");
 		for (int i = 0; i < children.getLength(); i++) {
 			parseEntityContainer((Element) children.item(i), definition, namespace);
 		}
 		
+		started = phaseFinished(definition, ODataParsePhase.PARSE, started);
 		// make sure we expose "contained" navigation properties
 		processNavigationProperties(definition, namespace);
+		started = phaseFinished(definition, ODataParsePhase.NAVIGATION, started);
 		
-		for (Runnable runnable : runnables) {
+		for (Runnable runnable : parsed.getRunnables()) {
 			runnable.run();
 		}
+		phaseFinished(definition, ODataParsePhase.LINKING, started);
 	}
 	
 	private void parseEntityContainer(Element element, ODataDefinitionImpl definition, String namespace) {
+		parseCapabilities(element, definition);
 		// an entity set is an actual set that provides access to a certain type
 		// for example the type might be Person, the entity set might be People of type Person
 		// we expose entitysets as functions
+		// registering an entity set updates shared state so it is always done sequentially, generating the functions can be done in parallel
+		OrderedTasks<EntitySetArtifacts> tasks = new OrderedTasks<EntitySetArtifacts>(forkJoinPool, artifacts -> applyEntitySet(definition, artifacts));
 		NodeList children = element.getElementsByTagNameNS(NS_EDM, "EntitySet");
 		for (int i = 0; i < children.getLength(); i++) {
-			parseEntitySet(definition, (Element) children.item(i), namespace);
+			String name = ((Element) children.item(i)).getAttribute("Name");
+			if (!getContext(definition).isIncludedEntitySet(name)) {
+				continue;
+			}
+			else if (getContext(definition).isReusedEntitySet(name)) {
+				EntitySetArtifacts artifacts = reuseEntitySet(definition, name, getType(definition, cleanup(((Element) children.item(i)).getAttribute("EntityType"))), namespace);
+				if (lazy) {
+					definition.addLazyEntitySet(artifacts);
+				}
+				else {
+					tasks.submit(() -> artifacts);
+				}
+				continue;
+			}
+			EntitySetArtifacts artifacts = registerEntitySet(definition, describeEntitySet((Element) children.item(i)), namespace);
+			if (lazy) {
+				deferEntitySet(definition, artifacts);
+			}
+			else {
+				tasks.submit(() -> generateEntitySet(definition, artifacts));
+			}
 		}
+		tasks.finish();
 	}
 
-	// the key is the name of the entity type, the value is the name of the entity set
-	private Map<String, String> existingEntitySets = new HashMap<String, String>();
+	// the capabilities of the service as a whole are annotated on the entity container, we scan its annotations once
+	private void parseCapabilities(Element container, ODataDefinitionImpl definition) {
+		AnnotationIndex annotations = new AnnotationIndex();
+		NodeList children = container.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			if (children.item(i) instanceof Element && "Annotation".equals(children.item(i).getLocalName())) {
+				annotations.add((Element) children.item(i));
+			}
+		}
+		// if there are multiple containers, the first one to annotate a capability wins
+		if (definition.getSupportedFormats() == null && annotations.hasTerm(SUPPORTED_FORMATS)) {
+			definition.setSupportedFormats(annotations.getPropertyCollection(SUPPORTED_FORMATS, null));
+		}
+		if (definition.getFilterFunctions() == null && annotations.hasTerm(FILTER_FUNCTIONS)) {
+			definition.setFilterFunctions(annotations.getPropertyCollection(FILTER_FUNCTIONS, null));
+		}
+		if (definition.getConformanceLevel() == null) {
+			// e.g. Org.OData.Capabilities.V1.ConformanceLevelType/Intermediate
+			String conformanceLevel = annotations.getEnumMember(CONFORMANCE_LEVEL, null);
+			if (conformanceLevel != null) {
+				conformanceLevel = conformanceLevel.trim().replaceAll("^.*/", "");
+				try {
+					definition.setConformanceLevel(ConformanceLevel.valueOf(conformanceLevel.toUpperCase()));
+				}
+				catch (IllegalArgumentException e) {
+					logger.warn("Unknown conformance level: " + conformanceLevel);
+				}
+			}
+		}
+		if (definition.getAsynchronousRequestsSupported() == null && annotations.hasTerm(ASYNCHRONOUS_REQUESTS_SUPPORTED)) {
+			definition.setAsynchronousRequestsSupported("true".equalsIgnoreCase(annotations.getValue(ASYNCHRONOUS_REQUESTS_SUPPORTED, "true")));
+		}
+		if (definition.getBatchContinueOnErrorSupported() == null) {
+			if (annotations.hasTerm(BATCH_CONTINUE_ON_ERROR_SUPPORTED)) {
+				definition.setBatchContinueOnErrorSupported("true".equalsIgnoreCase(annotations.getValue(BATCH_CONTINUE_ON_ERROR_SUPPORTED, "true")));
+			}
+			// the newer vocabulary groups the batch capabilities in a record
+			else if (annotations.hasTerm(BATCH_SUPPORT)) {
+				definition.setBatchContinueOnErrorSupported("true".equalsIgnoreCase(annotations.getPropertyValue(BATCH_SUPPORT, "ContinueOnErrorSupported", "false")));
+			}
+		}
+		if (definition.getCrossJoinSupported() == null && annotations.hasTerm(CROSS_JOIN_SUPPORTED)) {
+			definition.setCrossJoinSupported("true".equalsIgnoreCase(annotations.getValue(CROSS_JOIN_SUPPORTED, "true")));
+		}
+	}
+	
 	// all navigation properties can be accessed through the parent
 	// for non-contained navigation properties they can _also_ be accessed through the root
 	// however contained navigation properties can only be accessed through the parent so it is imperative that we expose them as well as an entity set with additional input parameters
@@ -316,6 +1140,7 @@ public class ODataParser {
 	// currently we only support 1 deep with any guarantees
 	// note that the runner runs through the definition in order so maintaining that order when injecting parent fields should be enough
 	private void processNavigationProperties(ODataDefinitionImpl definition, String namespace) {
+		Map<String, String> existingEntitySets = getContext(definition).getExistingEntitySets();
 		for (NavigationProperty property : definition.getNavigationProperties()) {
 			// http://docs.oasis-open.org/odata/odata/v4.0/cos01/part3-csdl/odata-v4.0-cos01-part3-csdl.html#_Toc372793924
 			// if it is a contained property, it can _only_ be accessed by the parent
@@ -328,7 +1153,22 @@ public class ODataParser {
 			// if nesting is detected, the parent id must be a list (or always a list?)
 			// if multiple parents are detected, all must be optional
 			// if a root set is detected, parent ids must be optional
-			if (property.isContainsTarget()) {
+			if (property.isContainsTarget() && getContext(definition).isReusedType(property.getQualifiedName()) && getContext(definition).isReusedType(property.getElement().getType().getNamespace() + "." + property.getElement().getType().getName())) {
+				// the types have already been enriched, we only need to reuse the entity set (if the original parse exposed one)
+				Type parentType = getType(definition, property.getQualifiedName());
+				Type childType = property.getElement().getType();
+				String name = property.getElement().getName();
+				if (existingEntitySets.containsKey(parentType.getName()) && !existingEntitySets.containsKey(childType.getName()) && !existingEntitySets.containsValue(name)) {
+					EntitySetArtifacts artifacts = reuseEntitySet(definition, name, childType, namespace);
+					if (lazy) {
+						definition.addLazyEntitySet(artifacts);
+					}
+					else {
+						applyEntitySet(definition, artifacts);
+					}
+				}
+			}
+			else if (property.isContainsTarget()) {
 				ComplexType parent = (ComplexType) getType(definition, property.getQualifiedName());
 				be.nabu.libs.types.api.Element<?> primaryKey = null;
 				// find the primary key
@@ -344,8 +1184,8 @@ public class ODataParser {
 				}
 				else {
 					Type originalType = property.getElement().getType();
-					if (originalType instanceof ModifiableComplexType && property instanceof NavigationPropertyImpl) {
-						Element domElement = ((NavigationPropertyImpl) property).getDomElement();
+					if (originalType instanceof ModifiableComplexType && property instanceof NavigationPropertyImpl && ((NavigationPropertyImpl) property).getEntitySetDescriptor() != null) {
+						EntitySetDescriptor descriptor = ((NavigationPropertyImpl) property).getEntitySetDescriptor();
 						ModifiableComplexType type = (ModifiableComplexType) originalType;
 						Type parentType = getType(definition, property.getQualifiedName());
 						if (existingEntitySets.containsKey(parentType.getName())) {
@@ -361,10 +1201,15 @@ public class ODataParser {
 							cloned.setProperty(new ValueImpl<Boolean>(PrimaryKeyProperty.getInstance(), false));
 							type.add(cloned);
 							// only one entity set per type? for example sharepoint has a native "drives" entity set and both nested "drive" and "drives" entity sets, all these should be accessed through the global "drives"
-							String typeName = cleanup(domElement.getAttribute("Type"));
-							Type childType = getType(definition, typeName);
+							Type childType = getType(definition, descriptor.getTypeName());
 							if (!existingEntitySets.containsKey(childType.getName()) && !existingEntitySets.containsValue(property.getElement().getName())) {
-								parseEntitySet(definition, domElement, namespace);
+								EntitySetArtifacts artifacts = registerEntitySet(definition, descriptor, namespace);
+								if (lazy) {
+									deferEntitySet(definition, artifacts);
+								}
+								else {
+									applyEntitySet(definition, generateEntitySet(definition, artifacts));
+								}
 							}
 						}
 						else {
@@ -389,13 +1234,11 @@ public class ODataParser {
 
 	// we want to make sure that all collection names are correctly set before we start using them
 	// this is especially relevant for navigationproperties that do not have a specific NavigationPropertyBinding with a target attribute at which point we fall back to the collection name set on the structure itself
-	private void preparseEntitySet(ODataDefinitionImpl definition, Element childElement, String namespace) {
-		String name = childElement.getAttribute("Name");
+	private void preparseEntitySet(ODataDefinitionImpl definition, String name, String entityType) {
 		try {
-			boolean singleton = childElement.getLocalName().equals("Singleton");
-			String typeName = cleanup(childElement.getAttribute(singleton || childElement.getTagName().equalsIgnoreCase("NavigationProperty") ? "Type" : "EntityType"));
+			String typeName = cleanup(entityType);
 			if (typeName.trim().isEmpty()) {
-				throw new IllegalArgumentException("Can not find correct type for " + childElement.getTagName() + " with name: " + name);
+				throw new IllegalArgumentException("Can not find correct type for EntitySet with name: " + name);
 			}
 			Type type = getType(definition, typeName);
 			if (!isObject(type)) {
@@ -412,47 +1255,119 @@ public class ODataParser {
 		return type instanceof BeanType && ((BeanType<?>) type).getBeanClass().equals(Object.class);
 	}
 	
-	private void parseEntitySet(ODataDefinitionImpl definition, Element childElement, String namespace) {
+	// we scan the entity set once and capture everything the function generation needs
+	private EntitySetDescriptor describeEntitySet(Element childElement) {
+		EntitySetDescriptor descriptor = new EntitySetDescriptor();
 		String name = childElement.getAttribute("Name");
 		boolean singleton = childElement.getLocalName().equals("Singleton");
-		String typeName = cleanup(childElement.getAttribute(singleton || childElement.getTagName().equalsIgnoreCase("NavigationProperty") ? "Type" : "EntityType"));
+		String typeName = cleanup(childElement.getAttribute(singleton || childElement.getLocalName().equalsIgnoreCase("NavigationProperty") ? "Type" : "EntityType"));
 		if (typeName.trim().isEmpty()) {
 			throw new IllegalArgumentException("Can not find correct type for " + childElement.getTagName() + " with name: " + name);
 		}
+		descriptor.setName(name);
+		descriptor.setTypeName(typeName);
+		descriptor.setSingleton(singleton);
+		NodeList children = childElement.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			if (children.item(i) instanceof Element) {
+				Element child = (Element) children.item(i);
+				if (child.getLocalName().equals("Annotation")) {
+					descriptor.getAnnotations().add(child);
+				}
+				else if (child.getLocalName().equals("NavigationPropertyBinding") && !descriptor.getBindings().containsKey(child.getAttribute("Path"))) {
+					descriptor.getBindings().put(child.getAttribute("Path"), child.getAttribute("Target"));
+				}
+			}
+		}
+		return descriptor;
+	}
+	
+	// registers the entity set in the shared state, this must be done in document order
+	private EntitySetArtifacts registerEntitySet(ODataDefinitionImpl definition, EntitySetDescriptor descriptor, String namespace) {
+		String name = descriptor.getName();
+		String typeName = descriptor.getTypeName();
 		Type type = getType(definition, typeName);
 		// because of aliases etc, the full namespace name might not match the configured name, hence we just use the base name
-		existingEntitySets.put(type.getName(), name);
+		getContext(definition).getExistingEntitySets().put(type.getName(), name);
+		getContext(definition).getMetrics().addEntitySets(1);
 		
 		// update the collection name if it is NOT an object!
 		if (!isObject(type)) {
 			((ModifiableType) type).setProperty(new ValueImpl<String>(CollectionNameProperty.getInstance(), name));
 			((ModifiableType) type).setProperty(new ValueImpl<String>(CollectionCrudProviderProperty.getInstance(), "odata"));
 		}
+		// the select extension needs to inherit at the very least the collection name, we capture it now as another entity set of the same type might update it
+		EntitySetArtifacts artifacts = new EntitySetArtifacts(descriptor, namespace, type, ValueUtils.getValue(CollectionNameProperty.getInstance(), type.getProperties()));
+		List<ODataEntityConfiguration> entityConfigurations = getContext(definition).getEntityConfigurations();
+		if (entityConfigurations != null && type instanceof DefinedType) {
+			String structureId = ((DefinedType) type).getId();
+			for (ODataEntityConfiguration entityConfiguration : entityConfigurations) {
+				if (structureId.equals(entityConfiguration.getEntity())) {
+					if (entityConfiguration.getExpansions() != null) {
+						artifacts.getExpansions().addAll(entityConfiguration.getExpansions());
+					}
+					if (entityConfiguration.getManagedBindings() != null) {
+						artifacts.getManagedBindings().addAll(entityConfiguration.getManagedBindings());
+					}
+				}
+			}
+		}
+		return artifacts;
+	}
+	
+	private void applyEntitySet(ODataDefinitionImpl definition, EntitySetArtifacts artifacts) {
+		artifacts.apply(definition);
+		getContext(definition).getMetrics().addFunctions(artifacts.getFunctions().size());
+	}
+	
+	// when reparsing, an unchanged entity set reuses the functions and extension types of the previous definition
+	private EntitySetArtifacts reuseEntitySet(ODataDefinitionImpl definition, String name, Type type, String namespace) {
+		ODataParseContext context = getContext(definition);
+		context.getExistingEntitySets().put(type.getName(), name);
+		context.getMetrics().addEntitySets(1);
+		EntitySetDescriptor descriptor = new EntitySetDescriptor();
+		descriptor.setName(name);
+		descriptor.setTypeName(type.getNamespace() + "." + type.getName());
+		EntitySetArtifacts artifacts = new EntitySetArtifacts(descriptor, namespace, type, ValueUtils.getValue(CollectionNameProperty.getInstance(), type.getProperties()));
+		for (String extension : new String [] { "Insert", "Select", "Update" }) {
+			ComplexType extensionType = context.getPrevious().getRegistry().getComplexType(namespace, name + extension);
+			if (extensionType != null) {
+				artifacts.getTypes().add(extensionType);
+			}
+		}
+		artifacts.getFunctions().addAll(context.getPreviousFunctions(name));
+		return artifacts;
+	}
+	
+	// note that the generation happens after parsing has finished, so it sees the types in their final state
+	private void deferEntitySet(ODataDefinitionImpl definition, EntitySetArtifacts artifacts) {
+		artifacts.setGenerator(() -> generateEntitySet(definition, artifacts));
+		definition.addLazyEntitySet(artifacts);
+	}
+	
+	// generates the functions and extension types for an entity set, this only reads from the definition so it can be done in parallel
+	private EntitySetArtifacts generateEntitySet(ODataDefinitionImpl definition, EntitySetArtifacts artifacts) {
+		EntitySetDescriptor descriptor = artifacts.getDescriptor();
+		String namespace = artifacts.getNamespace();
+		String name = descriptor.getName();
+		String typeName = descriptor.getTypeName();
+		Type type = artifacts.getType();
 		
-		// by default we can insert
-//		boolean canInsert = !singleton && "true".equals(query(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.InsertRestrictions']/edm:Record/edm:PropertyValue[@Property='Insertable']/@Bool").asString("true"));
-		boolean canInsert = !singleton && "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.InsertRestrictions']/edm:Record/edm:PropertyValue[@Property='Insertable']/@Bool", "true"));
-		// searching is basically a "q" parameter, it searches object wide and uses a contains
-		// not supported everywhere
-		boolean canSearch = !singleton && "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.SearchRestrictions']/edm:Record/edm:PropertyValue[@Property='Searchable']/@Bool", "true"));
-		// filter is supported more frequently, does not allow a contains and allows targeting specific fields
-		boolean canFilter = !singleton && "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.SelectSupport']/edm:Record/edm:PropertyValue[@Property='Filterable']/@Bool", "true"));
-		// if either one is set to false, we can't do it
-		canSearch &= "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.SelectSupport']/edm:Record/edm:PropertyValue[@Property='Searchable']/@Bool", "true"));
-		boolean canDelete = !singleton && "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.DeleteRestrictions']/edm:Record/edm:PropertyValue[@Property='Deletable']/@Bool", "true"));
-		boolean canUpdate = true && "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.UpdateRestrictions']/edm:Record/edm:PropertyValue[@Property='Updatable']/@Bool", "true"));
+		boolean canInsert = descriptor.isInsertable();
+		boolean canSearch = descriptor.isSearchable();
+		boolean canFilter = descriptor.isFilterable();
+		boolean canDelete = descriptor.isDeletable();
+		boolean canUpdate = descriptor.isUpdatable();
 		// we presume you can always list/read though additional searching is not always guaranteed
 		boolean listable = true;
 		boolean gettable = listable;
 		
-		boolean canSkip = !singleton && "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.SkipSupported']/@Bool", "true"));
-		canSkip &= "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.SelectSupport']/edm:Record/edm:PropertyValue[@Property='SkipSupported']/@Bool", "true"));
-		boolean canTop = !singleton && "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.TopSupported']/@Bool", "true"));
-		canTop &= "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.SelectSupport']/edm:Record/edm:PropertyValue[@Property='TopSupported']/@Bool", "true"));
-		boolean canCount = !singleton && "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.CountRestrictions']/edm:Record/edm:PropertyValue[@Property='Countable']/@Bool", "true"));
-		canCount &= "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.SelectSupport']/edm:Record/edm:PropertyValue[@Property='CountSupported']/@Bool", "true"));
-		
-		boolean canOrder = !singleton && "true".equals(queryAsString(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.SelectSupport']/edm:Record/edm:PropertyValue[@Property='Sortable']/@Bool", "true"));
+		boolean canSkip = descriptor.isSkipSupported();
+		boolean canTop = descriptor.isTopSupported();
+		boolean canCount = descriptor.isCountable();
+		boolean canOrder = descriptor.isSortable();
+		boolean canTrackChanges = descriptor.isChangeTracking();
+		boolean canSelect = descriptor.isSelectable();
 		
 		// if we can insert, we want to add a function for that
 		// we make an extension of the original type
@@ -465,9 +1380,8 @@ public class ODataParser {
 			inputExtension.setNamespace(namespace);
 			inputExtension.setSuperType(type);
 			inputExtension.setId(((DefinedType) type).getId() + "Insert");
-			((TypeRegistryImpl) definition.getRegistry()).register(inputExtension);
-//			for (Element restricted : query(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.InsertRestrictions']/edm:Record/edm:PropertyValue[@Property='NonInsertableProperties']/edm:Collection/edm:PropertyPath").asElementList()) {
-			restrictedNames.addAll(queryAsStringList(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.InsertRestrictions']/edm:Record/edm:PropertyValue[@Property='NonInsertableProperties']/edm:Collection/edm:PropertyPath"));
+			artifacts.getTypes().add(inputExtension);
+			restrictedNames.addAll(descriptor.getNonInsertableProperties());
 			// if we have restricted names within the fields, we have to restrict them from the parent type
 			if (!restrictedNames.isEmpty()) {
 				StringBuilder builder = new StringBuilder();
@@ -480,10 +1394,9 @@ public class ODataParser {
 				inputExtension.setProperty(new ValueImpl<String>(RestrictProperty.getInstance(), builder.toString()));
 			}
 			// navigation properties are not present in the parent type so we don't need to restrict them, we just need to _not_ add them
-//			for (Element restricted : query(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.InsertRestrictions']/edm:Record/edm:PropertyValue[@Property='NonInsertableNavigationProperties']/edm:Collection/edm:NavigationPropertyPath").asElementList()) {
-			restrictedNames.addAll(queryAsStringList(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.InsertRestrictions']/edm:Record/edm:PropertyValue[@Property='NonInsertableNavigationProperties']/edm:Collection/edm:NavigationPropertyPath"));
+			restrictedNames.addAll(descriptor.getNonInsertableNavigationProperties());
 			for (NavigationProperty navigatableChild : navigatableChildren) {
-				String collectionName = queryAsString(childElement, "edm:NavigationPropertyBinding[@Path='" + navigatableChild.getElement().getName() + "']/@Target", null);
+				String collectionName = descriptor.getBindingTarget(navigatableChild.getElement().getName());
 				// if we haven't restricted it, add it as an optional element (list?) to the insert
 				if (!restrictedNames.contains(navigatableChild.getElement().getName()) && !isObject(navigatableChild.getElement().getType())) {
 					be.nabu.libs.types.api.Element<?> clone = TypeBaseUtils.clone(navigatableChild.getElement(), inputExtension);
@@ -523,7 +1436,7 @@ public class ODataParser {
 			insert.setOutput(output);
 			insert.setAction(true);
 			insert.setName("create");
-			definition.getFunctions().add(insert);
+			artifacts.getFunctions().add(insert);
 		}
 		
 		// let's always build the select extension, you will likely always need it and we want to plug it in into both the list and get
@@ -532,28 +1445,15 @@ public class ODataParser {
 		selectExtension.setNamespace(namespace);
 		selectExtension.setSuperType(type);
 		// we need to inherit at the very least the collection name
-		String originalCollectionName = ValueUtils.getValue(CollectionNameProperty.getInstance(), type.getProperties());
+		String originalCollectionName = artifacts.getCollectionName();
 		if (originalCollectionName != null) {
 			selectExtension.setProperty(new ValueImpl<String>(CollectionNameProperty.getInstance(), originalCollectionName));
 		}
 		
 		selectExtension.setId(((DefinedType) type).getId() + "Select");
-		((TypeRegistryImpl) definition.getRegistry()).register(selectExtension);
-		String structureId = ((DefinedType) type).getId();
-		List<String> expansions = new ArrayList<String>();
-		List<String> managedBindings = new ArrayList<String>();
-		if (this.entityConfigurations != null) {
-			for (ODataEntityConfiguration entityConfiguration : this.entityConfigurations) {
-				if (structureId.equals(entityConfiguration.getEntity())) {
-					if (entityConfiguration.getExpansions() != null) {
-						expansions.addAll(entityConfiguration.getExpansions());
-					}
-					if (entityConfiguration.getManagedBindings() != null) {
-						managedBindings.addAll(entityConfiguration.getManagedBindings());
-					}
-				}
-			}
-		}
+		artifacts.getTypes().add(selectExtension);
+		List<String> expansions = artifacts.getExpansions();
+		List<String> managedBindings = artifacts.getManagedBindings();
 		if (!expansions.isEmpty()) {
 			StringBuilder duplicate = new StringBuilder();
 			for (NavigationProperty navigatableChild : navigatableChildren) {
@@ -592,6 +1492,9 @@ public class ODataParser {
 			if (canCount) {
 				input.add(new SimpleElementImpl<Boolean>("totalCount", SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(Boolean.class), input, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
 			}
+			if (canSelect) {
+				input.add(newSelectElement(input));
+			}
 			Structure output = new Structure();
 			output.setName("output");
 			
@@ -612,7 +1515,54 @@ public class ODataParser {
 			list.setOutput(output);
 			list.setMethod("GET");
 			list.setName("list");
-			definition.getFunctions().add(list);
+			artifacts.getFunctions().add(list);
+		}
+		// with change tracking we can get only what changed since a previous request
+		// the first request returns everything with a delta link, requesting the delta link returns the changes since the first request and a new delta link
+		if (listable && canTrackChanges) {
+			Structure input = new Structure();
+			input.setName("input");
+			if (canFilter) {
+				input.add(new SimpleElementImpl<String>("filter", SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(String.class), input, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
+			}
+			// the delta link of a previous request, if not filled in we start from scratch
+			input.add(new SimpleElementImpl<String>("deltaLink", SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(String.class), input, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
+			
+			// entities that were removed since the previous request only have their id, key and the reason
+			Structure removed = new Structure();
+			removed.setName("removed");
+			removed.add(new SimpleElementImpl<String>("id", SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(String.class), removed, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
+			// either "deleted" or "changed" (it no longer matches the filter)
+			removed.add(new SimpleElementImpl<String>("reason", SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(String.class), removed, new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0)));
+			for (be.nabu.libs.types.api.Element<?> child : TypeUtils.getAllChildren(((ComplexType) type))) {
+				Boolean primaryKey = ValueUtils.getValue(PrimaryKeyProperty.getInstance(), child.getProperties());
+				if (primaryKey != null && primaryKey) {
+					be.nabu.libs.types.api.Element<?> cloned = TypeBaseUtils.clone(child, removed);
+					cloned.setProperty(new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0));
+					removed.add(cloned);
+				}
+			}
+			
+			Structure output = new Structure();
+			output.setName("output");
+			output.add(new ComplexElementImpl("results", selectExtension, output,
+				new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0),
+				new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0),
+				new ValueImpl<String>(AliasProperty.getInstance(), "value")));
+			output.add(new ComplexElementImpl("removed", removed, output,
+				new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0),
+				new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0)));
+			output.add(new SimpleElementImpl<String>("deltaLink", SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(String.class), output, 
+				new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0),
+				new ValueImpl<String>(AliasProperty.getInstance(), "@odata.deltaLink")));
+			
+			FunctionImpl delta = new FunctionImpl();
+			delta.setContext(name);
+			delta.setInput(input);
+			delta.setOutput(output);
+			delta.setMethod("DELTA");
+			delta.setName("delta");
+			artifacts.getFunctions().add(delta);
 		}
 		if (gettable) {
 			Structure input = new Structure();
@@ -632,6 +1582,9 @@ public class ODataParser {
 				}
 			}
 			if (foundPrimary) {
+				if (canSelect) {
+					input.add(newSelectElement(input));
+				}
 				Structure output = new Structure();
 				output.setName("output");
 //				output.add(new ComplexElementImpl("result", (ComplexType) type, output,
@@ -645,7 +1598,45 @@ public class ODataParser {
 				get.setOutput(output);
 				get.setMethod("GET");
 				get.setName("get");
-				definition.getFunctions().add(get);
+				artifacts.getFunctions().add(get);
+			}
+		}
+		// resolving a lot of foreign keys one get at a time is slow, this fetches them in as few requests as possible
+		// the keys are combined in filters which only works for single field keys
+		if (gettable) {
+			List<be.nabu.libs.types.api.Element<?>> primaryKeys = new ArrayList<be.nabu.libs.types.api.Element<?>>();
+			for (be.nabu.libs.types.api.Element<?> child : TypeUtils.getAllChildren(((ComplexType) type))) {
+				Boolean primaryKey = ValueUtils.getValue(PrimaryKeyProperty.getInstance(), child.getProperties());
+				if (primaryKey != null && primaryKey) {
+					primaryKeys.add(child);
+				}
+			}
+			if (primaryKeys.size() == 1) {
+				Structure input = new Structure();
+				input.setName("input");
+				be.nabu.libs.types.api.Element<?> cloned = TypeBaseUtils.clone(primaryKeys.get(0), input);
+				cloned.setProperty(new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0));
+				cloned.setProperty(new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0));
+				input.add(cloned);
+				if (canSelect) {
+					input.add(newSelectElement(input));
+				}
+				Structure output = new Structure();
+				output.setName("output");
+				output.add(new ComplexElementImpl("results", selectExtension, output,
+					new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0),
+					new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0),
+					new ValueImpl<String>(AliasProperty.getInstance(), "value")));
+				
+				FunctionImpl getMany = new FunctionImpl();
+				getMany.setContext(name);
+				getMany.setInput(input);
+				getMany.setOutput(output);
+				getMany.setMethod("GET-MANY");
+				getMany.setName("getMany");
+				// if we can filter, the keys are combined in filters, otherwise they are fetched one by one
+				getMany.setFilterable(canFilter);
+				artifacts.getFunctions().add(getMany);
 			}
 		}
 		if (canDelete) {
@@ -673,7 +1664,7 @@ public class ODataParser {
 				delete.setOutput(output);
 				delete.setMethod("DELETE");
 				delete.setName("delete");
-				definition.getFunctions().add(delete);
+				artifacts.getFunctions().add(delete);
 			}
 		}
 		// when we say updates, we mean puts where the entire object is updated rather than just part of it
@@ -684,9 +1675,8 @@ public class ODataParser {
 			inputExtension.setNamespace(namespace);
 			inputExtension.setSuperType(type);
 			inputExtension.setId(((DefinedType) type).getId() + "Update");
-			((TypeRegistryImpl) definition.getRegistry()).register(inputExtension);
-//			for (Element restricted : query(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.InsertRestrictions']/edm:Record/edm:PropertyValue[@Property='NonInsertableProperties']/edm:Collection/edm:PropertyPath").asElementList()) {
-			restrictedNames.addAll(queryAsStringList(childElement, "edm:Annotation[@Term = 'Org.OData.Capabilities.V1.UpdateRestrictions']/edm:Record/edm:PropertyValue[@Property='NonUpdatableProperties']/edm:Collection/edm:PropertyPath"));
+			artifacts.getTypes().add(inputExtension);
+			restrictedNames.addAll(descriptor.getNonUpdatableProperties());
 			
 			// we want to restrict all fields that have a foreign key, they can not be updated as is but need special handling
 //			for (be.nabu.libs.types.api.Element<?> child : TypeUtils.getAllChildren((ComplexType) type)) {
@@ -712,7 +1702,7 @@ public class ODataParser {
 			}
 			
 			for (NavigationProperty navigatableChild : navigatableChildren) {
-				String collectionName = queryAsString(childElement, "edm:NavigationPropertyBinding[@Path='" + navigatableChild.getElement().getName() + "']/@Target", null);
+				String collectionName = descriptor.getBindingTarget(navigatableChild.getElement().getName());
 				// if we haven't restricted it, add it as an optional element (list?) to the insert
 				if (!restrictedNames.contains(navigatableChild.getElement().getName()) && !isObject(navigatableChild.getElement().getType())) {
 					be.nabu.libs.types.api.Element<?> clone = TypeBaseUtils.clone(navigatableChild.getElement(), inputExtension);
@@ -761,7 +1751,7 @@ public class ODataParser {
 				update.setOutput(output);
 				update.setAction(true);
 				update.setName("update");
-				definition.getFunctions().add(update);
+				artifacts.getFunctions().add(update);
 			}
 		}
 		// if we have managed bindings, add a service for it
@@ -806,7 +1796,7 @@ public class ODataParser {
 										if (navigatableChild.getElement().getType() instanceof DefinedType) {
 											cloned.setProperty(new ValueImpl<String>(ForeignKeyProperty.getInstance(), ((DefinedType) navigatableChild.getElement().getType()).getId() + ":" + navigateChild.getName()));
 										}
-										String collectionName = queryAsString(childElement, "edm:NavigationPropertyBinding[@Path='" + navigatableChild.getElement().getName() + "']/@Target", null);
+										String collectionName = descriptor.getBindingTarget(navigatableChild.getElement().getName());
 										// it might not be a bound navigation property, fall back to the original properties
 										if (collectionName == null) {
 											collectionName = ValueUtils.getValue(CollectionNameProperty.getInstance(), navigatableChild.getElement().getProperties());
@@ -834,7 +1824,7 @@ public class ODataParser {
 						update.setOutput(output);
 						update.setAction(true);
 						update.setName("update" + managedBinding.substring(0, 1).toUpperCase() + managedBinding.substring(1));
-						definition.getFunctions().add(update);
+						artifacts.getFunctions().add(update);
 						
 						// we want an "add" function that makes sure you can add bindings
 						FunctionImpl add = new FunctionImpl();
@@ -846,7 +1836,7 @@ public class ODataParser {
 						add.setOutput(output);
 						add.setAction(true);
 						add.setName("add" + managedBinding.substring(0, 1).toUpperCase() + managedBinding.substring(1));
-						definition.getFunctions().add(add);
+						artifacts.getFunctions().add(add);
 						
 						// we want an "remove" function that makes sure you can remove bindings
 						FunctionImpl remove = new FunctionImpl();
@@ -858,7 +1848,7 @@ public class ODataParser {
 						remove.setOutput(output);
 						remove.setAction(true);
 						remove.setName("remove" + managedBinding.substring(0, 1).toUpperCase() + managedBinding.substring(1));
-						definition.getFunctions().add(remove);
+						artifacts.getFunctions().add(remove);
 						
 						FunctionImpl list = new FunctionImpl();
 						list.setContext(name);
@@ -874,14 +1864,26 @@ public class ODataParser {
 						list.setInput(listInput);
 						list.setAction(true);
 						list.setName("list" + managedBinding.substring(0, 1).toUpperCase() + managedBinding.substring(1));
-						definition.getFunctions().add(list);
+						artifacts.getFunctions().add(list);
 					}
 				}
 			}
 		}
+		return artifacts;
+	}
+	
+	// the fields you want in the result, fields of expanded navigation properties are selected with a path, e.g. "primarycontact/fullname"
+	// if nothing is selected, you get all the fields
+	private be.nabu.libs.types.api.Element<?> newSelectElement(Structure input) {
+		return new SimpleElementImpl<String>("select", SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(String.class), input, 
+			new ValueImpl<Integer>(MinOccursProperty.getInstance(), 0),
+			new ValueImpl<Integer>(MaxOccursProperty.getInstance(), 0));
 	}
 	
 	private List<NavigationProperty> getNavigationPropertiesFor(ODataDefinition definition, String qualifiedName) {
+		if (definition instanceof ODataDefinitionImpl) {
+			return ((ODataDefinitionImpl) definition).getNavigationPropertiesFor(qualifiedName);
+		}
 		List<NavigationProperty> navigatableChildren = new ArrayList<NavigationProperty>();
 		for (NavigationProperty property : definition.getNavigationProperties()) {
 			if (property.getQualifiedName().equals(qualifiedName)) {
@@ -893,9 +1895,9 @@ public class ODataParser {
 	
 	private boolean useOptimizedQuerying = "true".equals(System.getProperty("odata.optimizedQuerying", "false"));
 	
-	private List<Element> queryAsElementList(Element element, String query) {
+	private List<Element> queryAsElementList(ODataDefinition definition, Element element, String query) {
 		if (useOptimizedQuerying) {
-			Object queryContent = queryContent2(element, query);
+			Object queryContent = queryContent2(definition, element, query);
 			List<Element> result = new ArrayList<Element>();
 			if (queryContent == null) {
 				return result;
@@ -912,7 +1914,7 @@ public class ODataParser {
 			return result;
 		}
 		else {
-			Object queryContent = queryContent(element, query);
+			Object queryContent = queryContent(definition, element, query);
 			List<Element> result = new ArrayList<Element>();
 			if (queryContent == null) {
 				return result;
@@ -930,9 +1932,9 @@ public class ODataParser {
 		}
 	}
 	
-	private List<String> queryAsStringList(Element element, String query) {
+	private List<String> queryAsStringList(ODataDefinition definition, Element element, String query) {
 		if (useOptimizedQuerying) {
-			Object queryContent = queryContent2(element, query);
+			Object queryContent = queryContent2(definition, element, query);
 			List<String> result = new ArrayList<String>();
 			if (queryContent == null) {
 				return result;
@@ -950,7 +1952,7 @@ public class ODataParser {
 		}
 		else {
 			List<String> result = new ArrayList<String>();
-			Object queryContent = queryContent(element, query);
+			Object queryContent = queryContent(definition, element, query);
 			if (queryContent == null) {
 				return result;
 			}
@@ -966,9 +1968,9 @@ public class ODataParser {
 			return result;
 		}
 	}
-	private String queryAsString(Element element, String query, String defaultValue) {
+	private String queryAsString(ODataDefinition definition, Element element, String query, String defaultValue) {
 		if (useOptimizedQuerying) {
-			Object result = queryContent2(element, query);
+			Object result = queryContent2(definition, element, query);
 			if (result instanceof List) {
 				result = ((List<?>) result).size() > 0 ? ((List<?>) result).get(0) : null;
 			}
@@ -978,7 +1980,7 @@ public class ODataParser {
 			return (String) result;
 		}
 		else {
-			Object result = queryContent(element, query);
+			Object result = queryContent(definition, element, query);
 			if (result instanceof List) {
 				result = ((List<?>) result).size() > 0 ? ((List<?>) result).get(0) : null;
 			}
@@ -989,16 +1991,22 @@ public class ODataParser {
 		}
 	}
 	
-	private Object queryContent(Element element, String query) {
-		// we don't care about namespaces
-		query = query
-			.replace("edm:", "")
-			.replace("edmx:", "");
+	// the analyzed operations by query, the query parser caches the parsed query but the analyzing is done every time
+	private Map<String, Operation<Object>> operations = Collections.synchronizedMap(new LRUCache<String, Operation<Object>>(256));
+	
+	private Object queryContent(ODataDefinition definition, Element element, String query) {
+		getContext(definition).getMetrics().addXpathQueries(1);
 		try {
-			if (pathAnalyzer == null) {
-				pathAnalyzer = new PathAnalyzer<Object>(new PlainOperationProvider());
+			Operation<Object> analyze = operations.get(query);
+			if (analyze == null) {
+				// we don't care about namespaces
+				synchronized (pathAnalyzer) {
+					analyze = pathAnalyzer.analyze(QueryParser.getInstance().parse(query
+						.replace("edm:", "")
+						.replace("edmx:", "")));
+				}
+				operations.put(query, analyze);
 			}
-			Operation<Object> analyze = pathAnalyzer.analyze(QueryParser.getInstance().parse(query));
 			return analyze.evaluate(new XMLContent(element));
 		}
 		catch (Exception e) {
@@ -1006,97 +2014,9 @@ public class ODataParser {
 		}
 	}
 	
-	private Object queryContent2(Element element, String query) {
-		// we don't care about namespaces
-		query = query
-			.replace("edm:", "")
-			.replace("edmx:", "");
-		
-		String[] parts = query.split("/");
-		
-		List<Element> current = new ArrayList<Element>();
-		current.add(element);
-		
-		for (int i = 0; i < parts.length; i++) {
-			String part = parts[i];
-			List<Element> next = new ArrayList<Element>();
-			
-			String nodeName = part;
-			String attributeName = null;
-			String attributeValue = null;
-			
-			if (part.contains("[")) {
-				nodeName = part.substring(0, part.indexOf("["));
-				String condition = part.substring(part.indexOf("[") + 1, part.indexOf("]"));
-				if (condition.startsWith("@")) {
-					String conditionContent = condition.substring(1);
-					int equalsIndex = conditionContent.indexOf('=');
-					if (equalsIndex != -1) {
-						attributeName = conditionContent.substring(0, equalsIndex).trim();
-						String rawValue = conditionContent.substring(equalsIndex + 1).trim();
-						if (rawValue.startsWith("'") && rawValue.endsWith("'")) {
-							attributeValue = rawValue.substring(1, rawValue.length() - 1);
-						}
-						else {
-							attributeValue = rawValue;
-						}
-					}
-				}
-			}
-			
-			for (Element currentElement : current) {
-				NodeList children = currentElement.getChildNodes();
-				for (int j = 0; j < children.getLength(); j++) {
-					if (children.item(j) instanceof Element) {
-						Element child = (Element) children.item(j);
-						if (child.getLocalName().equals(nodeName)) {
-							if (attributeName != null) {
-								if (child.getAttribute(attributeName).equals(attributeValue)) {
-									next.add(child);
-								}
-							}
-							else {
-								next.add(child);
-							}
-						}
-					}
-				}
-			}
-			current = next;
-			if (current.isEmpty()) {
-				return null;
-			}
-		}
-		
-		if (query.endsWith("/@Bool")) {
-			return current.get(0).getAttribute("Bool");
-		}
-		else if (query.endsWith("/@Name")) {
-			List<String> names = new ArrayList<String>();
-			for (Element el : current) {
-				names.add(el.getAttribute("Name"));
-			}
-			return names;
-		}
-		else if (query.endsWith("/@Target")) {
-			return current.get(0).getAttribute("Target");
-		}
-		else if (query.endsWith("Collection/PropertyPath")) {
-			List<String> paths = new ArrayList<String>();
-			for (Element el : current) {
-				paths.add(el.getTextContent());
-			}
-			return paths;
-		}
-		else if (query.endsWith("Collection/NavigationPropertyPath")) {
-			List<String> paths = new ArrayList<String>();
-			for (Element el : current) {
-				paths.add(el.getTextContent());
-			}
-			return paths;
-		}
-		
-		return current;
+	private Object queryContent2(ODataDefinition definition, Element element, String query) {
+		getContext(definition).getMetrics().addOptimizedQueries(1);
+		return CompiledQuery.compile(query).evaluate(element);
 	}
 	
 	private XPath query(Node node, String query) {
@@ -1109,26 +2029,18 @@ public class ODataParser {
 		return new XPath(query).setNamespaceContext(resolver).query(node);
 	}
 	
-	private void parseEnumType(Element element, ODataDefinitionImpl definition, String namespace) {
+	private void parseEnumType(String name, List<String> values, ODataDefinitionImpl definition, String namespace) {
 		// we currently parse this as a simple type string with an enumeration on it
-		String name = element.getAttribute("Name");
 		EnumType enumType = new EnumType(namespace, name);
-		List<String> values = new ArrayList<String>();
-		NodeList children = element.getElementsByTagNameNS(NS_EDM, "Member");
-		for (int i = 0; i < children.getLength(); i++) {
-			values.add(((Element) children.item(i)).getAttribute("Name"));
-		}
 		logger.debug("Parsing enum " + name + ": "+ values);
 		enumType.setProperty(new ValueImpl<List<String>>(new EnumerationProperty<String>(), values));
 		((TypeRegistryImpl) definition.getRegistry()).register(enumType);
 	}
 	
-	private List<String> emptyComplexTypes = new ArrayList<String>();
-	
 	// we do an initial run over the complex types so we have _a_ functional reference of all types before we start parsing
 	// the problem is as ever: the order of the complex types is not guaranteed, if the first type reference the second type it is syntactically correct but sequentially unknown at that point
-	private void preparseComplexType(Element element, ODataDefinitionImpl definition, String namespace) {
-		String name = element.getAttribute("Name");
+	private void preparseComplexType(SchemaOutline.TypeOutline outline, ODataDefinitionImpl definition, String namespace) {
+		String name = outline.getName();
 		logger.debug("Preparsing complex type " + name);
 		DefinedStructure structure = new DefinedStructure();
 		structure.setName(name);
@@ -1140,7 +2052,7 @@ public class ODataParser {
 		boolean setCollectionName = false;
 		// we parse ComplexType with the same code as entity type but complextype have no persistence, they are helper definitions
 		// if we are an entity type, we add a collection name as a marker of persistence
-		if (element.getLocalName().equals("EntityType")) {
+		if (outline.isEntity()) {
 			setCollectionName = true;
 			id += "entities.";
 		}
@@ -1149,30 +2061,23 @@ public class ODataParser {
 		}
 		structure.setId(id + name);
 		
-		// check if it is empty, for example ms graph sharepoint odata has an element like this:
-		// <ComplexType Name="root" />
-		// we want to switch this to java.lang.object
-		NodeList childNodes = element.getChildNodes();
-		boolean empty = true;
-		for (int i = 0; i < childNodes.getLength(); i++) {
-			if (childNodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
-				empty = false;
-				break;
-			}
-		}
-		if (empty) {
+		// empty types are switched to java.lang.object
+		if (outline.isEmpty()) {
 			setCollectionName = false;
-			emptyComplexTypes.add(id + name);
+			getContext(definition).getEmptyComplexTypes().add(id + name);
 		}
 		if (setCollectionName) {
 			structure.setProperty(new ValueImpl<String>(CollectionNameProperty.getInstance(), name));
 		}
 	}
 	
-	private List<Runnable> parseComplexType(Element element, ODataDefinitionImpl definition, String namespace) {
-		List<Runnable> runnables = new ArrayList<Runnable>();
+	// parsing a complex type only modifies the structure of that type, the navigation properties are returned rather than added so they can be added in document order
+	private ParsedComplexType parseComplexType(Element element, ODataDefinitionImpl definition, String namespace) {
+		ParsedComplexType parsed = new ParsedComplexType();
+		List<Runnable> runnables = parsed.getRunnables();
 		String name = element.getAttribute("Name");
 		logger.debug("Parsing complex type " + name);
+		getContext(definition).getMetrics().addTypes(1);
 		Structure structure = (Structure) definition.getRegistry().getComplexType(namespace, name);
 		if (element.hasAttribute("BaseType")) {
 			structure.setSuperType(getType(definition, element.getAttribute("BaseType")));
@@ -1184,12 +2089,16 @@ public class ODataParser {
 		children = element.getElementsByTagNameNS(NS_EDM, "NavigationProperty");
 		for (int i = 0; i < children.getLength(); i++) {
 			NavigationPropertyImpl navigation = new NavigationPropertyImpl();
+			getContext(definition).getMetrics().addNavigationProperties(1);
 			Element navigationItem = (Element) children.item(i);
 			navigation.setElement(buildElement(definition, structure, navigationItem));
 			navigation.setQualifiedName(namespace + "." + name);
 			navigation.setContainsTarget(navigationItem.hasAttribute("ContainsTarget") && "true".equalsIgnoreCase(navigationItem.getAttribute("ContainsTarget")));
-			navigation.setDomElement(navigationItem);
-			definition.getNavigationProperties().add(navigation);
+			// we only need the entity set information for contained navigation properties, we capture it now so we don't have to hold on to the dom
+			if (navigation.isContainsTarget()) {
+				navigation.setEntitySetDescriptor(describeEntitySet(navigationItem));
+			}
+			parsed.getNavigationProperties().add(navigation);
 			NodeList constraints = ((Element) children.item(i)).getElementsByTagNameNS(NS_EDM, "ReferentialConstraint");
 			// for updating, we can't actually push the foreign keys themselves, we need to wrap it
 			// for example for a particular field called _transactioncurrencyid_value, we have a referenced navigation property, updating it we need to generate this:
@@ -1262,7 +2171,7 @@ public class ODataParser {
 			}
 		}
 //		List<Element> keyList = query(element, "edm:Key/edm:PropertyRef").asElementList();
-		List<String> keyList = queryAsStringList(element, "edm:Key/edm:PropertyRef/@Name");
+		List<String> keyList = queryAsStringList(definition, element, "edm:Key/edm:PropertyRef/@Name");
 		// if we have exactly one key, mark it as primary
 		if (keyList.size() == 1) {
 			String primaryKeyName = keyList.get(0);
@@ -1273,7 +2182,24 @@ public class ODataParser {
 				}
 			}
 		}
-		return runnables;
+		return parsed;
+	}
+	
+	private static class ParsedComplexType {
+		// things that need to run after all the types are parsed
+		private List<Runnable> runnables = new ArrayList<Runnable>();
+		private List<NavigationProperty> navigationProperties = new ArrayList<NavigationProperty>();
+		
+		public List<Runnable> getRunnables() {
+			return runnables;
+		}
+		public List<NavigationProperty> getNavigationProperties() {
+			return navigationProperties;
+		}
+		public void add(ParsedComplexType parsed) {
+			runnables.addAll(parsed.runnables);
+			navigationProperties.addAll(parsed.navigationProperties);
+		}
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
@@ -1287,6 +2213,7 @@ public class ODataParser {
 			childType = childType.substring("Collection(".length(), childType.length() - 1);
 		}
 		logger.debug("\tParsing child " + childName + " of type " + childType);
+		getContext(definition).getMetrics().addProperties(1);
 		Type type = getType(definition, childType);
 		// we assume default nillable? not sure...
 		boolean nillable = !child.hasAttribute("Nullable") || "true".equals(child.getAttribute("Nullable"));
@@ -1315,6 +2242,41 @@ public class ODataParser {
 		return values;
 	}
 
+	// the java classes that are used for the primitive edm types
+	private static final Map<String, Class<?>> EDM_TYPES = new HashMap<String, Class<?>>();
+	
+	static {
+		EDM_TYPES.put("Edm.String", String.class);
+		EDM_TYPES.put("Edm.Binary", byte[].class);
+		// not entirely clear
+		EDM_TYPES.put("Edm.Stream", InputStream.class);
+		EDM_TYPES.put("Edm.Boolean", Boolean.class);
+		// it is unsigned in OData, so we actually put it in a short
+		EDM_TYPES.put("Edm.Byte", Short.class);
+		// signed byte
+		EDM_TYPES.put("Edm.SByte", Byte.class);
+		EDM_TYPES.put("Edm.DateTime", Date.class);
+		EDM_TYPES.put("Edm.Date", Date.class);
+		EDM_TYPES.put("Edm.Time", Date.class);
+		EDM_TYPES.put("Edm.TimeOfDay", Date.class);
+		// Contains a date and time as an offset in minutes from GMT.
+		EDM_TYPES.put("Edm.DateTimeOffset", Date.class);
+		// Numeric values with fixed precision and scale
+		// we might want to change this to bigdecimal in the future...
+		EDM_TYPES.put("Edm.Decimal", BigDecimal.class);
+		// A floating point number with 15 digits precision
+		EDM_TYPES.put("Edm.Double", Double.class);
+		EDM_TYPES.put("Edm.Float", Float.class);
+		// 	A floating point number with 7 digits precision
+		// not sure why this exists...
+		EDM_TYPES.put("Edm.Single", Float.class);
+		EDM_TYPES.put("Edm.Guid", UUID.class);
+		EDM_TYPES.put("Edm.Int16", Short.class);
+		EDM_TYPES.put("Edm.Int32", Integer.class);
+		EDM_TYPES.put("Edm.Int64", Long.class);
+		EDM_TYPES.put("Edm.Duration", Duration.class);
+	}
+	
 	private Type getType(ODataDefinition definition, String name) {
 		// A point representing a geographic location on the globe. For request and response bodies the representation of values of this type follows the GeoJSON "Point" type format.
 		// For URLs OData uses a literal form based on the WKT standard. A point literal is constructed as geography'POINT(lon lat)'.
@@ -1322,78 +2284,8 @@ public class ODataParser {
 			return BeanResolver.getInstance().resolve(GeographyPoint.class);
 		}
 		else if (name.startsWith("Edm.")) {
-			Class<?> wrapper = null;
-			if ("Edm.String".equals(name)) {
-				wrapper = String.class;
-			}
-			else if ("Edm.Binary".equals(name)) {
-				wrapper = byte[].class;
-			}
-			// not entirely clear
-			else if ("Edm.Stream".equals(name)) {
-				wrapper = InputStream.class;
-			}
-			else if ("Edm.Boolean".equals(name)) {
-				wrapper = Boolean.class;
-			}
-			// it is unsigned in OData, so we actually put it in a short
-			else if ("Edm.Byte".equals(name)) {
-				wrapper = Short.class;
-			}
-			// signed byte
-			else if ("Edm.SByte".equals(name)) {
-				wrapper = Byte.class;
-			}
-			else if ("Edm.DateTime".equals(name)) {
-				wrapper = Date.class;
-			}
-			else if ("Edm.Date".equals(name)) {
-				wrapper = Date.class;
-			}
-			else if ("Edm.Time".equals(name)) {
-				wrapper = Date.class;
-			}
-			else if ("Edm.TimeOfDay".equals(name)) {
-				wrapper = Date.class;
-			}
-			// Contains a date and time as an offset in minutes from GMT.
-			else if ("Edm.DateTimeOffset".equals(name)) {
-				wrapper = Date.class;
-//				wrapper = Integer.class;
-			}
-			// Numeric values with fixed precision and scale
-			// we might want to change this to bigdecimal in the future...
-			else if ("Edm.Decimal".equals(name)) {
-				wrapper = BigDecimal.class;
-			}
-			// A floating point number with 15 digits precision
-			else if ("Edm.Double".equals(name)) {
-				wrapper = Double.class;
-			}
-			else if ("Edm.Float".equals(name)) {
-				wrapper = Float.class;
-			}
-			// 	A floating point number with 7 digits precision
-			// not sure why this exists...
-			else if ("Edm.Single".equals(name)) {
-				wrapper = Float.class;
-			}
-			else if ("Edm.Guid".equals(name)) {
-				wrapper = UUID.class;
-			}
-			else if ("Edm.Int16".equals(name)) {
-				wrapper = Short.class;
-			}
-			else if ("Edm.Int32".equals(name)) {
-				wrapper = Integer.class;
-			}
-			else if ("Edm.Int64".equals(name)) {
-				wrapper = Long.class;
-			}
-			else if ("Edm.Duration".equals(name)) {
-				wrapper = Duration.class;
-			}
-			else {
+			Class<?> wrapper = EDM_TYPES.get(name);
+			if (wrapper == null) {
 				throw new IllegalArgumentException("Unknown Edm type: " + name);
 			}
 			return SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(wrapper);
@@ -1408,6 +2300,7 @@ public class ODataParser {
 				throw new IllegalArgumentException("The requested type is not fully qualified: " + name);
 			}
 			String typeNamespace = name.substring(0, index);
+			Map<String, String> aliases = getContext(definition).getAliases();
 			if (aliases.containsKey(typeNamespace)) {
 				typeNamespace = aliases.get(typeNamespace);
 			}
@@ -1416,7 +2309,7 @@ public class ODataParser {
 			if (complexType != null) {
 				if (complexType instanceof DefinedType) {
 					String id = ((DefinedType) complexType).getId();
-					if (emptyComplexTypes.contains(id)) {
+					if (getContext(definition).getEmptyComplexTypes().contains(id)) {
 						return BeanResolver.getInstance().resolve(Object.class);
 					}
 				}
@@ -1438,6 +2331,94 @@ public class ODataParser {
 		this.baseId = baseId;
 	}
 
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public ODataSnapshotStore getSnapshotStore() {
+		return snapshotStore;
+	}
+
+	public void setSnapshotStore(ODataSnapshotStore snapshotStore) {
+		this.snapshotStore = snapshotStore;
+	}
+
+	public ODataDefinitionPool getDefinitionPool() {
+		return definitionPool;
+	}
+
+	public void setDefinitionPool(ODataDefinitionPool definitionPool) {
+		this.definitionPool = definitionPool;
+	}
+
+	public MetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+	public void setMetadataCache(MetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+	}
+
+	public long getSpoolThreshold() {
+		return spoolThreshold;
+	}
+
+	public void setSpoolThreshold(long spoolThreshold) {
+		this.spoolThreshold = spoolThreshold;
+	}
+
+	public boolean isUseOptimizedQuerying() {
+		return useOptimizedQuerying;
+	}
+
+	public void setUseOptimizedQuerying(boolean useOptimizedQuerying) {
+		this.useOptimizedQuerying = useOptimizedQuerying;
+	}
+
+	public boolean isFingerprinting() {
+		return fingerprinting;
+	}
+
+	public void setFingerprinting(boolean fingerprinting) {
+		this.fingerprinting = fingerprinting;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	public ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	public List<String> getEntitySets() {
+		return entitySets;
+	}
+
+	public void setEntitySets(List<String> entitySets) {
+		this.entitySets = entitySets;
+	}
+
+	public List<ODataParseListener> getParseListeners() {
+		return parseListeners;
+	}
+
+	public void setParseListeners(List<ODataParseListener> parseListeners) {
+		this.parseListeners = parseListeners;
+	}
+
 	public List<ODataEntityConfiguration> getEntityConfigurations() {
 		return entityConfigurations;
 	}
@@ -0,0 +1,373 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.property.ValueUtils;
+import be.nabu.libs.types.TypeUtils;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.binding.json.JSONBinding;
+import be.nabu.libs.types.properties.AliasProperty;
+import be.nabu.libs.types.properties.CollectionNameProperty;
+import be.nabu.libs.types.properties.DuplicateProperty;
+
+/**
+ * A single odata request, the path is relative to the root of the service (e.g. "People('russellwhyte')").
+ * This is the unit that is executed by the client, either on its own or as part of a batch.
+ */
+public class ODataRequest {
+
+	private String method, path;
+	private Map<String, String> headers = new LinkedHashMap<String, String>();
+	private byte [] content;
+	
+	public ODataRequest() {
+		// auto
+	}
+	
+	public ODataRequest(String method, String path) {
+		this.method = method;
+		this.path = path;
+	}
+	
+	public ODataRequest(String method, String path, byte [] content, String contentType) {
+		this(method, path);
+		this.content = content;
+		if (contentType != null) {
+			headers.put("Content-Type", contentType);
+		}
+	}
+	
+	/**
+	 * Builds the requests for an invocation of one of the generated modifying functions (create, update, delete and adding or removing managed bindings).
+	 * Adding or removing bindings results in one request per bound id. Merging bindings requires the current state and can not be expressed as fixed requests.
+	 * Contained entity sets are addressed through their parent, those requests have to be built by hand.
+	 */
+	public static List<ODataRequest> forFunction(Function function, ComplexContent input) throws IOException {
+		List<ODataRequest> requests = new ArrayList<ODataRequest>();
+		String entitySet = function.getContext();
+		if ("POST".equals(function.getMethod())) {
+			ComplexContent create = (ComplexContent) input.get("create");
+			requests.add(new ODataRequest("POST", entitySet, marshal(create), "application/json"));
+		}
+		else if ("PATCH".equals(function.getMethod())) {
+			ComplexContent update = (ComplexContent) input.get("update");
+			requests.add(new ODataRequest("PATCH", entitySet + "(" + key(input, "update") + ")", marshal(update), "application/json"));
+		}
+		else if ("DELETE".equals(function.getMethod())) {
+			requests.add(new ODataRequest("DELETE", entitySet + "(" + key(input) + ")"));
+		}
+		else if ("ADD-ASSOCIATIONS".equals(function.getMethod()) || "REMOVE-ASSOCIATIONS".equals(function.getMethod())) {
+			Element<?> boundIds = function.getInput().get("boundIds");
+			String navigation = ValueUtils.getValue(AliasProperty.getInstance(), boundIds.getProperties());
+			String target = ValueUtils.getValue(CollectionNameProperty.getInstance(), boundIds.getProperties());
+			String path = entitySet + "(" + formatKey(input.get("entityId")) + ")/" + navigation + "/$ref";
+			Object ids = input.get("boundIds");
+			for (Object id : ids instanceof Collection ? (Collection<?>) ids : ids == null ? new ArrayList<Object>() : Arrays.asList(ids)) {
+				String reference = target + "(" + formatKey(id) + ")";
+				if ("ADD-ASSOCIATIONS".equals(function.getMethod())) {
+					requests.add(new ODataRequest("POST", path, ("{\"@odata.id\":" + JSONTokenizer.quote(reference) + "}").getBytes(StandardCharsets.UTF_8), "application/json"));
+				}
+				else {
+					requests.add(new ODataRequest("DELETE", path + "?$id=" + encode(reference)));
+				}
+			}
+		}
+		else {
+			throw new IllegalArgumentException("Function " + function.getContext() + "." + function.getName() + " with method " + function.getMethod() + " can not be expressed as fixed requests");
+		}
+		return requests;
+	}
+	
+	/**
+	 * Builds the query string for the input of a generated list function, the paging parameters override the limit and offset of the input
+	 */
+	static String query(ComplexContent input, Long skip, Long top) {
+		StringBuilder builder = new StringBuilder();
+		if (input != null) {
+			append(builder, "$filter", get(input, "filter"));
+			Object orderBy = get(input, "orderBy");
+			if (orderBy instanceof Collection) {
+				StringBuilder order = new StringBuilder();
+				for (Object single : (Collection<?>) orderBy) {
+					if (single != null) {
+						if (order.length() > 0) {
+							order.append(",");
+						}
+						order.append(single);
+					}
+				}
+				append(builder, "$orderby", order.length() == 0 ? null : order.toString());
+			}
+			else {
+				append(builder, "$orderby", orderBy);
+			}
+			append(builder, "$search", get(input, "search"));
+			if (Boolean.TRUE.equals(get(input, "totalCount"))) {
+				append(builder, "$count", "true");
+			}
+		}
+		append(builder, "$skip", skip);
+		append(builder, "$top", top);
+		return builder.toString();
+	}
+	
+	/**
+	 * Builds the query string for the input of a generated list or get function, including the projection and the configured expansions
+	 */
+	static String query(Function function, ComplexContent input, Long skip, Long top) {
+		StringBuilder builder = new StringBuilder(query(input, skip, top));
+		Map<String, List<String>> projection = getProjection(function, input);
+		List<String> select = projection.remove("");
+		if (select != null && !select.isEmpty()) {
+			append(builder, "$select", join(select));
+		}
+		StringBuilder expand = new StringBuilder();
+		for (Map.Entry<String, List<String>> navigation : projection.entrySet()) {
+			if (expand.length() > 0) {
+				expand.append(",");
+			}
+			expand.append(navigation.getKey());
+			if (!navigation.getValue().isEmpty()) {
+				expand.append("($select=").append(join(navigation.getValue())).append(")");
+			}
+		}
+		append(builder, "$expand", expand.length() == 0 ? null : expand.toString());
+		return builder.toString();
+	}
+	
+	/**
+	 * The names of the fields (as they appear in the json) that we expect in each result, this includes the expanded navigation properties.
+	 * If nothing is selected, this returns null: we expect all the fields.
+	 */
+	static Set<String> getFields(Function function, ComplexContent input) {
+		Map<String, List<String>> projection = getProjection(function, input);
+		List<String> select = projection.remove("");
+		if (select == null || select.isEmpty()) {
+			return null;
+		}
+		Set<String> fields = new LinkedHashSet<String>(select);
+		fields.addAll(projection.keySet());
+		return fields;
+	}
+	
+	// the key "" contains the selected fields of the entity itself (it is absent if nothing is selected), the other keys are the expanded navigation properties with their selected fields
+	// we can only select fields of navigation properties that are configured as expansions, otherwise they are not part of the result type
+	private static Map<String, List<String>> getProjection(Function function, ComplexContent input) {
+		Map<String, List<String>> projection = new LinkedHashMap<String, List<String>>();
+		Element<?> results = function.getOutput().get("results") == null ? function.getOutput().get("result") : function.getOutput().get("results");
+		if (results == null) {
+			return projection;
+		}
+		ComplexType type = (ComplexType) results.getType();
+		List<String> expansions = new ArrayList<String>();
+		String duplicate = ValueUtils.getValue(DuplicateProperty.getInstance(), type.getProperties());
+		if (duplicate != null) {
+			expansions.addAll(Arrays.asList(duplicate.split("\\s*,\\s*")));
+		}
+		Object select = get(input, "select");
+		Collection<?> paths = select instanceof Collection ? (Collection<?>) select : select == null ? new ArrayList<Object>() : Arrays.asList(select);
+		List<String> fields = new ArrayList<String>();
+		for (Object path : paths) {
+			if (path == null || path.toString().trim().isEmpty()) {
+				continue;
+			}
+			String [] parts = path.toString().trim().split("/", 2);
+			Element<?> element = type.get(parts[0]);
+			if (element == null) {
+				throw new IllegalArgumentException("Can not select unknown field '" + parts[0] + "' of " + function.getContext());
+			}
+			String name = getJSONName(element);
+			if (expansions.contains(parts[0])) {
+				if (!projection.containsKey(name)) {
+					projection.put(name, new ArrayList<String>());
+				}
+				if (parts.length > 1) {
+					Element<?> child = ((ComplexType) element.getType()).get(parts[1]);
+					// deeper paths are passed along as is
+					projection.get(name).add(child == null ? parts[1] : getJSONName(child));
+				}
+			}
+			else if (parts.length > 1) {
+				throw new IllegalArgumentException("Can not select '" + path + "', '" + parts[0] + "' is not expanded for " + function.getContext());
+			}
+			else if (!fields.contains(name)) {
+				fields.add(name);
+			}
+		}
+		// if nothing is selected, we expand everything we are configured to expand
+		if (fields.isEmpty() && projection.isEmpty()) {
+			for (String expansion : expansions) {
+				Element<?> element = type.get(expansion);
+				if (element != null) {
+					projection.put(getJSONName(element), new ArrayList<String>());
+				}
+			}
+		}
+		else {
+			projection.put("", fields);
+		}
+		return projection;
+	}
+	
+	static String getJSONName(Element<?> element) {
+		String alias = ValueUtils.getValue(AliasProperty.getInstance(), element.getProperties());
+		return alias == null ? element.getName() : alias;
+	}
+	
+	private static String join(List<String> values) {
+		StringBuilder builder = new StringBuilder();
+		for (String value : values) {
+			if (builder.length() > 0) {
+				builder.append(",");
+			}
+			builder.append(value);
+		}
+		return builder.toString();
+	}
+	
+	// not all generated inputs have all the fields
+	static Object get(ComplexContent input, String name) {
+		return input == null || input.getType().get(name) == null ? null : input.get(name);
+	}
+	
+	private static void append(StringBuilder builder, String name, Object value) {
+		if (value != null && !value.toString().trim().isEmpty()) {
+			builder.append(builder.length() == 0 ? "?" : "&").append(name).append("=").append(encode(value.toString()));
+		}
+	}
+	
+	static byte [] marshal(ComplexContent content) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		if (content != null) {
+			new JSONBinding(content.getType(), StandardCharsets.UTF_8).marshal(output, content);
+		}
+		else {
+			output.write("{}".getBytes(StandardCharsets.UTF_8));
+		}
+		return output.toByteArray();
+	}
+	
+	// the key of the generated functions consists of the primary key fields that were copied to the input
+	static String key(ComplexContent input, String...exclude) {
+		Map<String, Object> keys = new LinkedHashMap<String, Object>();
+		ComplexType type = input.getType();
+		for (Element<?> child : TypeUtils.getAllChildren(type)) {
+			if (!Arrays.asList(exclude).contains(child.getName())) {
+				keys.put(child.getName(), input.get(child.getName()));
+			}
+		}
+		if (keys.size() == 1) {
+			return formatKey(keys.values().iterator().next());
+		}
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, Object> key : keys.entrySet()) {
+			if (builder.length() > 0) {
+				builder.append(",");
+			}
+			builder.append(key.getKey()).append("=").append(formatKey(key.getValue()));
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Formats a single key value as an odata literal that can be used in a path
+	 */
+	public static String formatKey(Object value) {
+		return formatLiteral(value, true);
+	}
+	
+	/**
+	 * Formats a single key value as an odata literal, if it is not encoded it can be used in for example a filter (which is encoded as a whole)
+	 */
+	static String formatLiteral(Object value, boolean encoded) {
+		if (value == null) {
+			throw new IllegalArgumentException("A key can not be null");
+		}
+		else if (value instanceof Number || value instanceof Boolean || value instanceof UUID) {
+			return value.toString();
+		}
+		else if (value instanceof Date) {
+			SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+			formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return formatter.format((Date) value);
+		}
+		// single quotes are escaped by doubling them
+		String escaped = value.toString().replace("'", "''");
+		return "'" + (encoded ? encode(escaped) : escaped) + "'";
+	}
+	
+	static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public String getMethod() {
+		return method;
+	}
+	public void setMethod(String method) {
+		this.method = method;
+	}
+	public String getPath() {
+		return path;
+	}
+	public void setPath(String path) {
+		this.path = path;
+	}
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+	public void setHeaders(Map<String, String> headers) {
+		this.headers = headers;
+	}
+	public byte [] getContent() {
+		return content;
+	}
+	public void setContent(byte [] content) {
+		this.content = content;
+	}
+	
+	@Override
+	public String toString() {
+		return method + " " + path;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The response to a single odata request, either executed on its own or as part of a batch.
+ * The content is already decompressed.
+ */
+public class ODataResponse implements Closeable {
+
+	private int code;
+	private String message;
+	// header names are case insensitive
+	private Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+	private InputStream content;
+	
+	public ODataResponse(int code, String message, Map<String, String> headers, InputStream content) {
+		this.code = code;
+		this.message = message;
+		if (headers != null) {
+			this.headers.putAll(headers);
+		}
+		this.content = content == null ? new ByteArrayInputStream(new byte[0]) : content;
+	}
+	
+	public int getCode() {
+		return code;
+	}
+	public String getMessage() {
+		return message;
+	}
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+	public InputStream getContent() {
+		return content;
+	}
+	
+	public boolean isSuccessful() {
+		return code >= 200 && code < 300;
+	}
+	
+	// reads the remaining content in memory, only use this for small responses (e.g. errors)
+	public byte [] getBytes() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte [] buffer = new byte[8192];
+		int read;
+		while ((read = content.read(buffer)) >= 0) {
+			output.write(buffer, 0, read);
+		}
+		content = new ByteArrayInputStream(output.toByteArray());
+		return output.toByteArray();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		content.close();
+	}
+	
+	@Override
+	public String toString() {
+		return code + " " + (message == null ? "" : message);
+	}
+}
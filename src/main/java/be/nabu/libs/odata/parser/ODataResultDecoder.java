@@ -0,0 +1,266 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.property.ValueUtils;
+import be.nabu.libs.types.api.ComplexContent;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.binding.api.Window;
+import be.nabu.libs.types.binding.json.JSONBinding;
+import be.nabu.libs.types.properties.AliasProperty;
+
+/**
+ * Decodes a collection response one record at a time, only the record that is currently being decoded is in memory.
+ * The records are bound to the type of the results of the list function (an extension of the entity type).
+ * The annotations of the collection (count, next link, delta link) are available once they have been read, the links are usually at the end of the response.
+ */
+public class ODataResultDecoder implements Iterator<ComplexContent>, Closeable {
+
+	private InputStream input;
+	private JSONTokenizer tokenizer;
+	private JSONBinding binding;
+	private String collectionName;
+	private ComplexContent next;
+	// the type of the removed entities in a delta response, if applicable
+	private ComplexType removedType;
+	private List<ComplexContent> removed = new ArrayList<ComplexContent>();
+	private boolean finished, inCollection;
+	private Long count;
+	private String nextLink, deltaLink;
+	// the fields we want to bind, the others are skipped while reading
+	private Set<String> projection;
+	
+	/**
+	 * Decodes the response of a generated list (or delta) function
+	 */
+	public ODataResultDecoder(InputStream input, Function function) {
+		this(input, (ComplexType) function.getOutput().get("results").getType(), getCollectionName(function.getOutput().get("results")));
+		if (function.getOutput().get("removed") != null) {
+			this.removedType = (ComplexType) function.getOutput().get("removed").getType();
+		}
+	}
+	
+	public ODataResultDecoder(InputStream input, ComplexType recordType, String collectionName) {
+		this.input = input;
+		this.tokenizer = new JSONTokenizer(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+		this.binding = new JSONBinding(recordType, StandardCharsets.UTF_8);
+		this.binding.setIgnoreUnknownElements(true);
+		this.collectionName = collectionName;
+	}
+	
+	private static String getCollectionName(Element<?> results) {
+		String alias = ValueUtils.getValue(AliasProperty.getInstance(), results.getProperties());
+		return alias == null ? results.getName() : alias;
+	}
+	
+	// reads until the next record (or the end of the response)
+	private ComplexContent read() throws IOException, ParseException {
+		if (finished) {
+			return null;
+		}
+		if (!inCollection) {
+			// the first token is the start of the envelope
+			if (tokenizer.getCurrent() == null && tokenizer.next() != JSONTokenizer.Token.START_OBJECT) {
+				throw new ParseException("Expected a json object", 0);
+			}
+			while (!inCollection) {
+				JSONTokenizer.Token token = tokenizer.next();
+				if (token != JSONTokenizer.Token.NAME) {
+					finished = true;
+					return null;
+				}
+				String name = tokenizer.getText();
+				token = tokenizer.next();
+				if (name.equals(collectionName) && token == JSONTokenizer.Token.START_ARRAY) {
+					inCollection = true;
+				}
+				else {
+					annotation(name);
+					tokenizer.skipValue();
+				}
+			}
+		}
+		JSONTokenizer.Token token = tokenizer.next();
+		while (token == JSONTokenizer.Token.START_OBJECT) {
+			String record = projection == null ? tokenizer.capture() : tokenizer.capture(projection);
+			String kind = removedType == null ? null : getDeltaKind(record);
+			if (kind != null) {
+				if (kind.equals("removed")) {
+					removed.add(toRemoved(record));
+				}
+				// added or deleted links between entities are not reported
+				token = tokenizer.next();
+				continue;
+			}
+			return binding.unmarshal(new ByteArrayInputStream(record.getBytes(StandardCharsets.UTF_8)), new Window[0]);
+		}
+		if (token == JSONTokenizer.Token.END_ARRAY) {
+			inCollection = false;
+			// there may be annotations after the collection
+			return read();
+		}
+		throw new ParseException("Expected a record, found: " + token, 0);
+	}
+	
+	// a delta response mixes the changed entities with removed ones and changed links, this returns "removed", "link" or null for a changed entity
+	private static String getDeltaKind(String record) throws IOException, ParseException {
+		// most records are just changed entities, don't bother scanning them
+		if (!record.contains("removed") && !record.contains("$deletedEntity") && !record.contains("$link") && !record.contains("$deletedLink")) {
+			return null;
+		}
+		JSONTokenizer scanner = new JSONTokenizer(new StringReader(record));
+		scanner.next();
+		while (scanner.next() == JSONTokenizer.Token.NAME) {
+			String name = scanner.getText();
+			scanner.next();
+			// odata 4.01
+			if (name.equals("@removed") || name.equals("@odata.removed")) {
+				return "removed";
+			}
+			// odata 4.0
+			else if (name.equals("@odata.context") || name.equals("odata.context")) {
+				if (scanner.getText().endsWith("$deletedEntity")) {
+					return "removed";
+				}
+				else if (scanner.getText().endsWith("$link") || scanner.getText().endsWith("$deletedLink")) {
+					return "link";
+				}
+			}
+			scanner.skipValue();
+		}
+		return null;
+	}
+	
+	// e.g. {"@removed": {"reason": "deleted"}, "@id": "Customers('ALFKI')"} or {"@odata.context": "...$deletedEntity", "id": "Customers('ALFKI')", "reason": "deleted"}
+	private ComplexContent toRemoved(String record) throws IOException, ParseException {
+		ComplexContent removed = removedType.newInstance();
+		JSONTokenizer scanner = new JSONTokenizer(new StringReader(record));
+		scanner.next();
+		while (scanner.next() == JSONTokenizer.Token.NAME) {
+			String name = scanner.getText();
+			JSONTokenizer.Token token = scanner.next();
+			if (name.endsWith("removed") && token == JSONTokenizer.Token.START_OBJECT) {
+				while (scanner.next() == JSONTokenizer.Token.NAME) {
+					String property = scanner.getText();
+					scanner.next();
+					if (property.equals("reason")) {
+						removed.set("reason", scanner.getText());
+					}
+					scanner.skipValue();
+				}
+			}
+			else if (name.equals("@id") || name.equals("@odata.id") || name.equals("id")) {
+				removed.set("id", scanner.getText());
+			}
+			else if (name.equals("reason")) {
+				removed.set("reason", scanner.getText());
+			}
+			// the key fields
+			else if (!name.startsWith("@") && token != JSONTokenizer.Token.START_OBJECT && token != JSONTokenizer.Token.START_ARRAY && removedType.get(name) != null) {
+				removed.set(name, token == JSONTokenizer.Token.NULL ? null : scanner.getText());
+			}
+			else {
+				scanner.skipValue();
+			}
+		}
+		return removed;
+	}
+	
+	// annotations can have the odata prefix or not (4.01) and the @ or not (4.0 with older json formats)
+	private void annotation(String name) {
+		String annotation = name.replaceFirst("^@", "").replaceFirst("^odata\\.", "");
+		if (annotation.equals("count")) {
+			count = Long.parseLong(tokenizer.getText());
+		}
+		else if (annotation.equals("nextLink")) {
+			nextLink = tokenizer.getText();
+		}
+		else if (annotation.equals("deltaLink")) {
+			deltaLink = tokenizer.getText();
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if (next == null && !finished) {
+			try {
+				next = read();
+			}
+			catch (IOException | ParseException e) {
+				throw new IllegalStateException("Could not decode the results", e);
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public ComplexContent next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		ComplexContent result = next;
+		next = null;
+		return result;
+	}
+	
+	public Set<String> getProjection() {
+		return projection;
+	}
+	/**
+	 * Only the fields (by their name in the json) in the projection are bound, use null to bind all the fields
+	 */
+	public void setProjection(Set<String> projection) {
+		this.projection = projection;
+	}
+	
+	public Long getCount() {
+		return count;
+	}
+	public String getNextLink() {
+		return nextLink;
+	}
+	public String getDeltaLink() {
+		return deltaLink;
+	}
+	// the removed entities we encountered so far (only for delta responses)
+	public List<ComplexContent> getRemoved() {
+		return removed;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+}
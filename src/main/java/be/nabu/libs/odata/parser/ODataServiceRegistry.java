@@ -0,0 +1,223 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.odata.ODataDefinition;
+
+/**
+ * Keeps the definitions of a number of services up to date in the background.
+ * Each service is refreshed on its own schedule, if the parser has a metadata cache the refresh is a conditional request.
+ * Only when the content of the metadata actually changed, we reparse (reusing whatever did not change) and publish the new definition.
+ * Readers never block and never see a definition that is still being built.
+ */
+public class ODataServiceRegistry implements Closeable {
+
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private ODataParser parser;
+	private ScheduledExecutorService scheduler;
+	// whether we created the scheduler ourselves (and should shut it down)
+	private boolean ownScheduler;
+	private ConcurrentHashMap<String, Service> services = new ConcurrentHashMap<String, Service>();
+	
+	public ODataServiceRegistry(ODataParser parser) {
+		this(parser, Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "odata-metadata-refresh");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		this.ownScheduler = true;
+	}
+	
+	public ODataServiceRegistry(ODataParser parser, ScheduledExecutorService scheduler) {
+		this.parser = parser;
+		// every refresh is a reparse based on the current definition
+		this.parser.setFingerprinting(true);
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * Parses the service and refreshes it at the given interval. The initial parse happens on the calling thread so the definition is available as soon as this returns.
+	 */
+	public Service register(String id, URI url, long interval, TimeUnit unit) throws ParseException {
+		Service service = new Service(id, url);
+		refresh(service);
+		if (service.getDefinition() == null) {
+			throw new ParseException("Could not parse the metadata for " + url, 0);
+		}
+		Service existing = services.put(id, service);
+		if (existing != null) {
+			existing.cancel();
+		}
+		if (interval > 0) {
+			service.future = scheduler.scheduleWithFixedDelay(() -> {
+				try {
+					refresh(service);
+				}
+				// an exception would stop the schedule
+				catch (Exception e) {
+					service.lastError = e;
+					logger.error("Could not refresh the metadata for " + service.getUrl(), e);
+				}
+			}, interval, interval, unit);
+		}
+		return service;
+	}
+	
+	public void unregister(String id) {
+		Service service = services.remove(id);
+		if (service != null) {
+			service.cancel();
+		}
+	}
+	
+	/**
+	 * Returns the current definition of the service, or null if it is not registered
+	 */
+	public ODataDefinition getDefinition(String id) {
+		Service service = services.get(id);
+		return service == null ? null : service.getDefinition();
+	}
+	
+	public Service getService(String id) {
+		return services.get(id);
+	}
+	
+	public Collection<Service> getServices() {
+		return services.values();
+	}
+	
+	/**
+	 * Refreshes the service right away, returns true if a new definition was published
+	 */
+	public boolean refresh(String id) throws ParseException {
+		Service service = services.get(id);
+		if (service == null) {
+			throw new IllegalArgumentException("No service registered with id: " + id);
+		}
+		return refresh(service);
+	}
+	
+	// refreshes are serialized per service, a slow refresh can not be overtaken by a later one
+	private boolean refresh(Service service) throws ParseException {
+		synchronized (service) {
+			try (InputStream metadata = parser.getMetadata(service.getUrl())) {
+				if (metadata == null) {
+					throw new IllegalStateException("Could not retrieve the metadata for " + service.getUrl());
+				}
+				try (ContentSpool spool = new ContentSpool(metadata, parser.getSpoolThreshold())) {
+					service.lastChecked = new Date();
+					service.lastError = null;
+					if (spool.getHash().equals(service.hash)) {
+						return false;
+					}
+					ODataDefinition current = service.getDefinition();
+					ODataDefinition definition;
+					try (InputStream content = spool.newInputStream()) {
+						if (current == null) {
+							definition = parser.parse(service.getUrl(), content);
+						}
+						else {
+							ODataDefinitionDiff diff = parser.reparse(current, service.getUrl(), content);
+							logger.info("Metadata for " + service.getUrl() + " changed: " + diff.getChangedTypes().size() + " changed, " + diff.getAddedTypes().size() + " added and " + diff.getRemovedTypes().size() + " removed types");
+							definition = diff.getDefinition();
+						}
+					}
+					// in lazy mode we don't want the first reader to pay for the generation
+					definition.getFunctions();
+					service.definition.set(definition);
+					service.hash = spool.getHash();
+					service.lastChanged = service.lastChecked;
+					return true;
+				}
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	@Override
+	public void close() {
+		for (String id : services.keySet()) {
+			unregister(id);
+		}
+		if (ownScheduler) {
+			scheduler.shutdownNow();
+		}
+	}
+	
+	public static class Service {
+		private String id;
+		private URI url;
+		private AtomicReference<ODataDefinition> definition = new AtomicReference<ODataDefinition>();
+		private volatile String hash;
+		private volatile Date lastChecked, lastChanged;
+		private volatile Exception lastError;
+		private volatile ScheduledFuture<?> future;
+		
+		Service(String id, URI url) {
+			this.id = id;
+			this.url = url;
+		}
+		
+		private void cancel() {
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+		
+		public String getId() {
+			return id;
+		}
+		public URI getUrl() {
+			return url;
+		}
+		public ODataDefinition getDefinition() {
+			return definition.get();
+		}
+		// the last time we checked the metadata
+		public Date getLastChecked() {
+			return lastChecked;
+		}
+		// the last time we published a new definition
+		public Date getLastChanged() {
+			return lastChanged;
+		}
+		// the exception of the last refresh, if it failed
+		public Exception getLastError() {
+			return lastError;
+		}
+	}
+}
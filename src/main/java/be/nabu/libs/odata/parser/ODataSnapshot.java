@@ -0,0 +1,601 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.types.ConformanceLevel;
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.odata.types.NavigationProperty;
+import be.nabu.libs.property.api.Property;
+import be.nabu.libs.property.api.Value;
+import be.nabu.libs.types.SimpleTypeWrapperFactory;
+import be.nabu.libs.types.TypeRegistryImpl;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.DefinedType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.api.ModifiableType;
+import be.nabu.libs.types.api.SimpleType;
+import be.nabu.libs.types.api.Type;
+import be.nabu.libs.types.api.TypeRegistry;
+import be.nabu.libs.types.base.ComplexElementImpl;
+import be.nabu.libs.types.base.SimpleElementImpl;
+import be.nabu.libs.types.base.ValueImpl;
+import be.nabu.libs.types.java.BeanResolver;
+import be.nabu.libs.types.java.BeanType;
+import be.nabu.libs.types.properties.AliasProperty;
+import be.nabu.libs.types.properties.CollectionCrudProviderProperty;
+import be.nabu.libs.types.properties.CollectionNameProperty;
+import be.nabu.libs.types.properties.DuplicateProperty;
+import be.nabu.libs.types.properties.EnumerationProperty;
+import be.nabu.libs.types.properties.ForeignKeyProperty;
+import be.nabu.libs.types.properties.ForeignNameProperty;
+import be.nabu.libs.types.properties.FormatProperty;
+import be.nabu.libs.types.properties.MaxOccursProperty;
+import be.nabu.libs.types.properties.MinOccursProperty;
+import be.nabu.libs.types.properties.NameProperty;
+import be.nabu.libs.types.properties.NillableProperty;
+import be.nabu.libs.types.properties.PrimaryKeyProperty;
+import be.nabu.libs.types.properties.RestrictProperty;
+import be.nabu.libs.types.properties.UUIDFormatProperty;
+import be.nabu.libs.types.structure.DefinedStructure;
+import be.nabu.libs.types.structure.Structure;
+
+/**
+ * A compact binary snapshot of a parsed odata definition.
+ * It contains everything the parser generates: the registered structures and enumerations, the functions (and their anonymous input/output structures) and the navigation properties.
+ * Loading a snapshot only has to recreate the objects, it does not need to interpret any xml nor resolve any types by name.
+ * 
+ * Types are written in three flavors: references to the registry (by namespace and name), references to simple types (by their instance class) and anonymous structures.
+ * Anonymous structures are written inline the first time we encounter them and by index afterwards, this maintains the identity of structures that are shared (e.g. by the managed binding functions).
+ */
+public class ODataSnapshot {
+	
+	private static final int MAGIC = 0x4f44534e;
+	// increase this whenever the format changes, older snapshots are simply ignored
+	private static final int FORMAT_VERSION = 4;
+	
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_REGISTERED_COMPLEX = 1;
+	private static final byte TYPE_REGISTERED_SIMPLE = 2;
+	private static final byte TYPE_WRAPPED_SIMPLE = 3;
+	private static final byte TYPE_BEAN = 4;
+	private static final byte TYPE_STRUCTURE = 5;
+	private static final byte TYPE_STRUCTURE_REFERENCE = 6;
+	
+	private static final byte VALUE_NULL = 0;
+	private static final byte VALUE_STRING = 1;
+	private static final byte VALUE_INTEGER = 2;
+	private static final byte VALUE_LONG = 3;
+	private static final byte VALUE_BOOLEAN = 4;
+	private static final byte VALUE_LIST = 5;
+	private static final byte VALUE_ENUM = 6;
+	
+	private static final byte ELEMENT_SIMPLE = 0;
+	private static final byte ELEMENT_COMPLEX = 1;
+	
+	// the properties the parser sets, anything else is not retained in the snapshot
+	private static Map<String, Property<?>> properties = new HashMap<String, Property<?>>();
+	
+	static {
+		register(AliasProperty.getInstance());
+		register(CollectionCrudProviderProperty.getInstance());
+		register(CollectionNameProperty.getInstance());
+		register(DuplicateProperty.getInstance());
+		register(new EnumerationProperty<String>());
+		register(ForeignKeyProperty.getInstance());
+		register(ForeignNameProperty.getInstance());
+		register(FormatProperty.getInstance());
+		register(MaxOccursProperty.getInstance());
+		register(MinOccursProperty.getInstance());
+		register(NameProperty.getInstance());
+		register(NillableProperty.getInstance());
+		register(PrimaryKeyProperty.getInstance());
+		register(RestrictProperty.getInstance());
+		register(UUIDFormatProperty.getInstance());
+	}
+	
+	private static void register(Property<?> property) {
+		properties.put(property.getName(), property);
+	}
+
+	public void write(ODataDefinition definition, OutputStream output) throws IOException {
+		new Writer(definition, new DataOutputStream(output)).write();
+	}
+	
+	public ODataDefinitionImpl read(InputStream input) throws IOException {
+		return new Reader(new DataInputStream(input)).read();
+	}
+	
+	private static class Writer {
+		private ODataDefinition definition;
+		private DataOutputStream output;
+		private Map<Structure, Integer> structures = new IdentityHashMap<Structure, Integer>();
+		
+		public Writer(ODataDefinition definition, DataOutputStream output) {
+			this.definition = definition;
+			this.output = output;
+		}
+		
+		public void write() throws IOException {
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			writeString(definition.getVersion());
+			writeString(definition.getScheme());
+			writeString(definition.getHost());
+			writeString(definition.getBasePath());
+			writeStrings(definition.getSupportedFormats());
+			writeStrings(definition.getFilterFunctions());
+			writeString(definition.getConformanceLevel() == null ? null : definition.getConformanceLevel().name());
+			writeBoolean(definition.getAsynchronousRequestsSupported());
+			writeBoolean(definition.getBatchContinueOnErrorSupported());
+			writeBoolean(definition.getCrossJoinSupported());
+			
+			// in lazy mode this generates all the remaining functions and extension types, they have to be in the registry before we write it
+			List<Function> functions = definition.getFunctions() == null ? new ArrayList<Function>() : definition.getFunctions();
+			TypeRegistry registry = definition.getRegistry();
+			List<EnumType> enumTypes = new ArrayList<EnumType>();
+			List<DefinedStructure> complexTypes = new ArrayList<DefinedStructure>();
+			for (String namespace : registry.getNamespaces()) {
+				for (SimpleType<?> simpleType : registry.getSimpleTypes(namespace)) {
+					if (simpleType instanceof EnumType) {
+						enumTypes.add((EnumType) simpleType);
+					}
+				}
+				for (ComplexType complexType : registry.getComplexTypes(namespace)) {
+					if (complexType instanceof DefinedStructure) {
+						complexTypes.add((DefinedStructure) complexType);
+					}
+				}
+			}
+			output.writeInt(enumTypes.size());
+			for (EnumType enumType : enumTypes) {
+				writeString(enumType.getNamespace());
+				writeString(enumType.getName());
+				writeProperties(enumType.getProperties());
+			}
+			// first all the shells so any body can reference any registered type
+			output.writeInt(complexTypes.size());
+			for (DefinedStructure complexType : complexTypes) {
+				writeString(complexType.getNamespace());
+				writeString(complexType.getName());
+				writeString(complexType.getId());
+			}
+			for (DefinedStructure complexType : complexTypes) {
+				writeStructureBody(complexType);
+			}
+			
+			output.writeInt(functions.size());
+			for (Function function : functions) {
+				output.writeBoolean(function.isAction());
+				writeString(function.getContext());
+				writeString(function.getName());
+				writeString(function.getMethod());
+				output.writeBoolean(function instanceof FunctionImpl && ((FunctionImpl) function).isFilterable());
+				writeType(function.getInput());
+				writeType(function.getOutput());
+			}
+			
+			List<NavigationProperty> navigationProperties = definition.getNavigationProperties() == null ? new ArrayList<NavigationProperty>() : definition.getNavigationProperties();
+			output.writeInt(navigationProperties.size());
+			for (NavigationProperty navigationProperty : navigationProperties) {
+				writeString(navigationProperty.getQualifiedName());
+				output.writeBoolean(navigationProperty.isContainsTarget());
+				writeType(navigationProperty.getElement().getParent());
+				writeElement(navigationProperty.getElement());
+				writeType(navigationProperty.getUpdateType());
+			}
+			
+			// the fingerprints allow a snapshot to be used as the basis for a reparse
+			Map<String, String> fingerprints = definition instanceof ODataDefinitionImpl ? ((ODataDefinitionImpl) definition).getFingerprints() : null;
+			output.writeInt(fingerprints == null ? -1 : fingerprints.size());
+			if (fingerprints != null) {
+				for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+					writeString(fingerprint.getKey());
+					writeString(fingerprint.getValue());
+				}
+			}
+			output.flush();
+		}
+		
+		private void writeStructureBody(Structure structure) throws IOException {
+			writeType(structure.getSuperType());
+			writeProperties(structure.getProperties());
+			List<Element<?>> children = new ArrayList<Element<?>>();
+			for (Element<?> child : structure) {
+				children.add(child);
+			}
+			output.writeInt(children.size());
+			for (Element<?> child : children) {
+				writeElement(child);
+			}
+		}
+		
+		private void writeElement(Element<?> element) throws IOException {
+			output.writeByte(element.getType() instanceof ComplexType ? ELEMENT_COMPLEX : ELEMENT_SIMPLE);
+			writeString(element.getName());
+			writeType(element.getType());
+			writeProperties(element.getProperties());
+		}
+		
+		private void writeType(Type type) throws IOException {
+			if (type == null) {
+				output.writeByte(TYPE_NULL);
+			}
+			else if (type instanceof EnumType) {
+				output.writeByte(TYPE_REGISTERED_SIMPLE);
+				writeString(type.getNamespace());
+				writeString(type.getName());
+			}
+			else if (type instanceof BeanType) {
+				output.writeByte(TYPE_BEAN);
+				writeString(((BeanType<?>) type).getBeanClass().getName());
+			}
+			else if (type instanceof SimpleType) {
+				output.writeByte(TYPE_WRAPPED_SIMPLE);
+				writeString(((SimpleType<?>) type).getInstanceClass().getName());
+			}
+			else if (type instanceof DefinedStructure && definition.getRegistry().getComplexType(type.getNamespace(), type.getName()) == type) {
+				output.writeByte(TYPE_REGISTERED_COMPLEX);
+				writeString(type.getNamespace());
+				writeString(type.getName());
+			}
+			else if (type instanceof Structure) {
+				Integer index = structures.get(type);
+				if (index != null) {
+					output.writeByte(TYPE_STRUCTURE_REFERENCE);
+					output.writeInt(index);
+				}
+				else {
+					structures.put((Structure) type, structures.size());
+					output.writeByte(TYPE_STRUCTURE);
+					output.writeBoolean(type instanceof DefinedStructure);
+					if (type instanceof DefinedStructure) {
+						writeString(((DefinedStructure) type).getId());
+					}
+					writeString(type.getName());
+					writeString(type.getNamespace());
+					writeStructureBody((Structure) type);
+				}
+			}
+			else {
+				throw new IllegalStateException("Can not snapshot type: " + type);
+			}
+		}
+		
+		private void writeProperties(Value<?>[] values) throws IOException {
+			List<Value<?>> supported = new ArrayList<Value<?>>();
+			if (values != null) {
+				for (Value<?> value : values) {
+					if (value != null && properties.containsKey(value.getProperty().getName())) {
+						supported.add(value);
+					}
+				}
+			}
+			output.writeInt(supported.size());
+			for (Value<?> value : supported) {
+				writeString(value.getProperty().getName());
+				writeValue(value.getValue());
+			}
+		}
+		
+		private void writeValue(Object value) throws IOException {
+			if (value == null) {
+				output.writeByte(VALUE_NULL);
+			}
+			else if (value instanceof String) {
+				output.writeByte(VALUE_STRING);
+				writeUTF8((String) value);
+			}
+			else if (value instanceof Integer) {
+				output.writeByte(VALUE_INTEGER);
+				output.writeInt((Integer) value);
+			}
+			else if (value instanceof Long) {
+				output.writeByte(VALUE_LONG);
+				output.writeLong((Long) value);
+			}
+			else if (value instanceof Boolean) {
+				output.writeByte(VALUE_BOOLEAN);
+				output.writeBoolean((Boolean) value);
+			}
+			else if (value instanceof List) {
+				output.writeByte(VALUE_LIST);
+				output.writeInt(((List<?>) value).size());
+				for (Object single : (List<?>) value) {
+					writeValue(single);
+				}
+			}
+			else if (value instanceof Enum) {
+				output.writeByte(VALUE_ENUM);
+				writeUTF8(((Enum<?>) value).getDeclaringClass().getName());
+				writeUTF8(((Enum<?>) value).name());
+			}
+			else {
+				throw new IllegalStateException("Can not snapshot value of type: " + value.getClass());
+			}
+		}
+		
+		private void writeStrings(List<String> strings) throws IOException {
+			output.writeInt(strings == null ? -1 : strings.size());
+			if (strings != null) {
+				for (String string : strings) {
+					writeString(string);
+				}
+			}
+		}
+		
+		private void writeBoolean(Boolean value) throws IOException {
+			output.writeByte(value == null ? -1 : (value ? 1 : 0));
+		}
+		
+		private void writeString(String string) throws IOException {
+			output.writeBoolean(string != null);
+			if (string != null) {
+				writeUTF8(string);
+			}
+		}
+		
+		// writeUTF is limited to 65535 bytes which large restrictions or enumerations can exceed
+		private void writeUTF8(String string) throws IOException {
+			byte [] bytes = string.getBytes(StandardCharsets.UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+	
+	private static class Reader {
+		private DataInputStream input;
+		private TypeRegistryImpl registry = new TypeRegistryImpl();
+		private List<Structure> structures = new ArrayList<Structure>();
+		
+		public Reader(DataInputStream input) {
+			this.input = input;
+		}
+		
+		public ODataDefinitionImpl read() throws IOException {
+			if (input.readInt() != MAGIC) {
+				throw new IOException("Not an odata snapshot");
+			}
+			int version = input.readInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported snapshot format version: " + version);
+			}
+			ODataDefinitionImpl definition = new ODataDefinitionImpl();
+			definition.setVersion(readString());
+			definition.setScheme(readString());
+			definition.setHost(readString());
+			definition.setBasePath(readString());
+			definition.setSupportedFormats(readStrings());
+			definition.setFilterFunctions(readStrings());
+			String conformanceLevel = readString();
+			definition.setConformanceLevel(conformanceLevel == null ? null : ConformanceLevel.valueOf(conformanceLevel));
+			definition.setAsynchronousRequestsSupported(readBoolean());
+			definition.setBatchContinueOnErrorSupported(readBoolean());
+			definition.setCrossJoinSupported(readBoolean());
+			definition.setRegistry(registry);
+			
+			int amount = input.readInt();
+			for (int i = 0; i < amount; i++) {
+				EnumType enumType = new EnumType(readString(), readString());
+				enumType.setProperty(readProperties());
+				registry.register(enumType);
+			}
+			amount = input.readInt();
+			List<DefinedStructure> complexTypes = new ArrayList<DefinedStructure>();
+			for (int i = 0; i < amount; i++) {
+				DefinedStructure structure = new DefinedStructure();
+				structure.setNamespace(readString());
+				structure.setName(readString());
+				structure.setId(readString());
+				registry.register(structure);
+				complexTypes.add(structure);
+			}
+			for (DefinedStructure complexType : complexTypes) {
+				readStructureBody(complexType);
+			}
+			
+			amount = input.readInt();
+			List<Function> functions = new ArrayList<Function>();
+			for (int i = 0; i < amount; i++) {
+				FunctionImpl function = new FunctionImpl();
+				function.setAction(input.readBoolean());
+				function.setContext(readString());
+				function.setName(readString());
+				function.setMethod(readString());
+				function.setFilterable(input.readBoolean());
+				function.setInput((ComplexType) readType());
+				function.setOutput((ComplexType) readType());
+				functions.add(function);
+			}
+			definition.setFunctions(functions);
+			
+			amount = input.readInt();
+			definition.setNavigationProperties(new ArrayList<NavigationProperty>());
+			for (int i = 0; i < amount; i++) {
+				NavigationPropertyImpl navigationProperty = new NavigationPropertyImpl();
+				navigationProperty.setQualifiedName(readString());
+				navigationProperty.setContainsTarget(input.readBoolean());
+				ComplexType parent = (ComplexType) readType();
+				navigationProperty.setElement(readElement(parent));
+				navigationProperty.setUpdateType((Structure) readType());
+				definition.addNavigationProperty(navigationProperty);
+			}
+			
+			amount = input.readInt();
+			if (amount >= 0) {
+				Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+				for (int i = 0; i < amount; i++) {
+					fingerprints.put(readString(), readString());
+				}
+				definition.setFingerprints(fingerprints);
+			}
+			return definition;
+		}
+		
+		private void readStructureBody(Structure structure) throws IOException {
+			structure.setSuperType(readType());
+			structure.setProperty(readProperties());
+			int amount = input.readInt();
+			for (int i = 0; i < amount; i++) {
+				structure.add(readElement(structure));
+			}
+		}
+		
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private Element<?> readElement(ComplexType parent) throws IOException {
+			byte kind = input.readByte();
+			String name = readString();
+			Type type = readType();
+			Value<?>[] values = readProperties();
+			if (kind == ELEMENT_COMPLEX) {
+				return new ComplexElementImpl(name, (ComplexType) type, parent, values);
+			}
+			else {
+				return new SimpleElementImpl(name, (SimpleType<?>) type, parent, values);
+			}
+		}
+		
+		private Type readType() throws IOException {
+			byte kind = input.readByte();
+			switch (kind) {
+				case TYPE_NULL:
+					return null;
+				case TYPE_REGISTERED_COMPLEX:
+					return registry.getComplexType(readString(), readString());
+				case TYPE_REGISTERED_SIMPLE:
+					return registry.getSimpleType(readString(), readString());
+				case TYPE_WRAPPED_SIMPLE:
+					return SimpleTypeWrapperFactory.getInstance().getWrapper().wrap(loadClass(readString()));
+				case TYPE_BEAN:
+					return BeanResolver.getInstance().resolve(loadClass(readString()));
+				case TYPE_STRUCTURE_REFERENCE:
+					return structures.get(input.readInt());
+				case TYPE_STRUCTURE:
+					Structure structure;
+					if (input.readBoolean()) {
+						structure = new DefinedStructure();
+						((DefinedStructure) structure).setId(readString());
+					}
+					else {
+						structure = new Structure();
+					}
+					// register it before the body so the children can refer to it
+					structures.add(structure);
+					structure.setName(readString());
+					structure.setNamespace(readString());
+					readStructureBody(structure);
+					return structure;
+				default:
+					throw new IOException("Unknown type kind: " + kind);
+			}
+		}
+		
+		private Value<?>[] readProperties() throws IOException {
+			int amount = input.readInt();
+			List<Value<?>> values = new ArrayList<Value<?>>();
+			for (int i = 0; i < amount; i++) {
+				String name = readString();
+				values.add(newValue(properties.get(name), readValue()));
+			}
+			return values.toArray(new Value[0]);
+		}
+		
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private Value<?> newValue(Property property, Object value) {
+			return new ValueImpl(property, value);
+		}
+		
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		private Object readValue() throws IOException {
+			byte kind = input.readByte();
+			switch (kind) {
+				case VALUE_NULL:
+					return null;
+				case VALUE_STRING:
+					return readUTF8();
+				case VALUE_INTEGER:
+					return input.readInt();
+				case VALUE_LONG:
+					return input.readLong();
+				case VALUE_BOOLEAN:
+					return input.readBoolean();
+				case VALUE_LIST:
+					int amount = input.readInt();
+					List<Object> list = new ArrayList<Object>();
+					for (int i = 0; i < amount; i++) {
+						list.add(readValue());
+					}
+					return list;
+				case VALUE_ENUM:
+					Class enumClass = loadClass(readUTF8());
+					return Enum.valueOf(enumClass, readUTF8());
+				default:
+					throw new IOException("Unknown value kind: " + kind);
+			}
+		}
+		
+		private List<String> readStrings() throws IOException {
+			int amount = input.readInt();
+			if (amount < 0) {
+				return null;
+			}
+			List<String> strings = new ArrayList<String>();
+			for (int i = 0; i < amount; i++) {
+				strings.add(readString());
+			}
+			return strings;
+		}
+		
+		private Boolean readBoolean() throws IOException {
+			byte value = input.readByte();
+			return value < 0 ? null : value == 1;
+		}
+		
+		private String readString() throws IOException {
+			return input.readBoolean() ? readUTF8() : null;
+		}
+		
+		private String readUTF8() throws IOException {
+			byte [] bytes = new byte[input.readInt()];
+			input.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		
+		private Class<?> loadClass(String name) throws IOException {
+			try {
+				return Class.forName(name, true, ODataSnapshot.class.getClassLoader());
+			}
+			catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.nabu.libs.odata.ODataDefinition;
+
+/**
+ * Keeps snapshots of parsed definitions on the local disk.
+ * A snapshot is keyed by the metadata url and the hash of the metadata content, so a changed document never loads a stale snapshot.
+ * Only the latest snapshot per url is retained.
+ */
+public class ODataSnapshotStore {
+	
+	private static final String EXTENSION = ".snapshot";
+	
+	private Logger logger = LoggerFactory.getLogger(getClass());
+	private File directory;
+	private ODataSnapshot snapshot = new ODataSnapshot();
+
+	public ODataSnapshotStore(File directory) {
+		this.directory = directory;
+	}
+	
+	/**
+	 * Returns null if there is no (valid) snapshot for this url and content hash
+	 */
+	public ODataDefinitionImpl load(URI url, String contentHash) {
+		File file = getFile(url, contentHash);
+		if (!file.exists()) {
+			return null;
+		}
+		try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+			return snapshot.read(input);
+		}
+		// a snapshot is only a cache, if it can not be read we simply parse again
+		catch (Exception e) {
+			logger.warn("Could not load snapshot " + file, e);
+			return null;
+		}
+	}
+	
+	public void save(URI url, String contentHash, ODataDefinition definition) {
+		if (!directory.exists() && !directory.mkdirs()) {
+			logger.warn("Could not create snapshot directory: " + directory);
+			return;
+		}
+		File file = getFile(url, contentHash);
+		File temporary = null;
+		try {
+			// concurrent saves of the same snapshot each write their own temporary file
+			temporary = File.createTempFile(file.getName() + "-", ".tmp", directory);
+			try (OutputStream output = new BufferedOutputStream(new FileOutputStream(temporary))) {
+				snapshot.write(definition, output);
+			}
+			// readers should never see a partially written snapshot
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			// remove snapshots of older versions of the metadata
+			String prefix = getPrefix(url);
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File child : files) {
+					if (child.getName().startsWith(prefix) && child.getName().endsWith(EXTENSION) && !child.equals(file)) {
+						child.delete();
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			logger.warn("Could not save snapshot " + file, e);
+			if (temporary != null) {
+				temporary.delete();
+			}
+		}
+	}
+	
+	private File getFile(URI url, String contentHash) {
+		return new File(directory, getPrefix(url) + contentHash + EXTENSION);
+	}
+	
+	private String getPrefix(URI url) {
+		try {
+			return ContentSpool.toHex(MessageDigest.getInstance("SHA-256").digest(url.toString().getBytes(StandardCharsets.UTF_8))) + "-";
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.net.URI;
+import java.util.List;
+
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.types.ConformanceLevel;
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.odata.types.NavigationProperty;
+import be.nabu.libs.types.api.TypeRegistry;
+
+/**
+ * The view of a single tenant on a shared definition, only the endpoint is specific to the tenant.
+ */
+public class ODataTenantDefinition implements ODataDefinition {
+
+	private ODataDefinition definition;
+	private String scheme, host, basePath;
+	
+	public ODataTenantDefinition(ODataDefinition definition, URI url) {
+		this.definition = definition;
+		this.scheme = url.getScheme();
+		this.host = url.getHost();
+		this.basePath = url.getPath();
+	}
+	
+	// the shared definition
+	public ODataDefinition getDefinition() {
+		return definition;
+	}
+	
+	@Override
+	public String getScheme() {
+		return scheme;
+	}
+	public void setScheme(String scheme) {
+		this.scheme = scheme;
+	}
+	@Override
+	public String getHost() {
+		return host;
+	}
+	public void setHost(String host) {
+		this.host = host;
+	}
+	@Override
+	public String getBasePath() {
+		return basePath;
+	}
+	public void setBasePath(String basePath) {
+		this.basePath = basePath;
+	}
+	
+	@Override
+	public String getVersion() {
+		return definition.getVersion();
+	}
+	@Override
+	public List<String> getSupportedFormats() {
+		return definition.getSupportedFormats();
+	}
+	@Override
+	public List<String> getFilterFunctions() {
+		return definition.getFilterFunctions();
+	}
+	@Override
+	public ConformanceLevel getConformanceLevel() {
+		return definition.getConformanceLevel();
+	}
+	@Override
+	public Boolean getAsynchronousRequestsSupported() {
+		return definition.getAsynchronousRequestsSupported();
+	}
+	@Override
+	public Boolean getBatchContinueOnErrorSupported() {
+		return definition.getBatchContinueOnErrorSupported();
+	}
+	@Override
+	public Boolean getCrossJoinSupported() {
+		return definition.getCrossJoinSupported();
+	}
+	@Override
+	public TypeRegistry getRegistry() {
+		return definition.getRegistry();
+	}
+	@Override
+	public List<Function> getFunctions() {
+		return definition.getFunctions();
+	}
+	@Override
+	public List<NavigationProperty> getNavigationProperties() {
+		return definition.getNavigationProperties();
+	}
+}
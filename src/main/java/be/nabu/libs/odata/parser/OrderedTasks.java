@@ -0,0 +1,80 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks in a fork join pool but hands the results to the consumer in the order they were submitted, on the submitting thread.
+ * This allows the parser to do the heavy lifting in parallel while still applying the results to the definition in document order.
+ * The amount of tasks in flight is bounded so we don't keep an unbounded amount of pending input (e.g. dom fragments) in memory.
+ * Without a pool, the tasks are simply run when they are submitted.
+ */
+class OrderedTasks<T> {
+	
+	private ForkJoinPool pool;
+	private Consumer<T> consumer;
+	private int maxInFlight;
+	private Deque<ForkJoinTask<T>> tasks = new ArrayDeque<ForkJoinTask<T>>();
+
+	public OrderedTasks(ForkJoinPool pool, Consumer<T> consumer) {
+		this.pool = pool;
+		this.consumer = consumer;
+		this.maxInFlight = pool == null ? 0 : pool.getParallelism() * 4;
+	}
+	
+	public void submit(Callable<T> task) {
+		if (pool == null) {
+			try {
+				consumer.accept(task.call());
+			}
+			catch (RuntimeException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		else {
+			tasks.add(pool.submit(ForkJoinTask.adapt(task)));
+			while (tasks.size() > maxInFlight) {
+				consumer.accept(tasks.poll().join());
+			}
+		}
+	}
+	
+	public void finish() {
+		try {
+			while (!tasks.isEmpty()) {
+				consumer.accept(tasks.poll().join());
+			}
+		}
+		finally {
+			// if something went wrong, don't leave work running in the background
+			for (ForkJoinTask<T> task : tasks) {
+				task.cancel(true);
+			}
+			tasks.clear();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.libs.odata.parser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The preparsing only needs a fraction of the information in a schema: the names of the types, whether or not they are empty and which entity sets point to which types.
+ * Capturing that in an outline allows us to preparse both from a dom and from a stream without holding on to the actual schema.
+ * The outline also captures which types reference which other types, this allows us to determine which types are needed for a subset of the entity sets.
+ */
+public class SchemaOutline {
+
+	private String namespace, alias;
+	// enumerations are small enough to capture entirely
+	private Map<String, List<String>> enumTypes = new LinkedHashMap<String, List<String>>();
+	private List<TypeOutline> complexTypes = new ArrayList<TypeOutline>();
+	private List<TypeOutline> entityTypes = new ArrayList<TypeOutline>();
+	// the key is the name of the entity set, the value the (possibly aliased) name of the entity type
+	private Map<String, String> entitySets = new LinkedHashMap<String, String>();
+	// the fingerprints of the entity sets, this allows us to detect changes when reparsing
+	private Map<String, String> entitySetFingerprints = new LinkedHashMap<String, String>();
+
+	public String getNamespace() {
+		return namespace;
+	}
+	public void setNamespace(String namespace) {
+		this.namespace = namespace;
+	}
+	public String getAlias() {
+		return alias;
+	}
+	public void setAlias(String alias) {
+		this.alias = alias;
+	}
+	public Map<String, List<String>> getEnumTypes() {
+		return enumTypes;
+	}
+	public List<TypeOutline> getComplexTypes() {
+		return complexTypes;
+	}
+	public List<TypeOutline> getEntityTypes() {
+		return entityTypes;
+	}
+	public Map<String, String> getEntitySets() {
+		return entitySets;
+	}
+	public Map<String, String> getEntitySetFingerprints() {
+		return entitySetFingerprints;
+	}
+
+	public static class TypeOutline {
+		private String name;
+		private boolean entity, empty;
+		// the (possibly aliased) qualified names of the types this type depends on: the base type, the types of the properties and the types of the navigation properties
+		private List<String> references = new ArrayList<String>();
+		// the types of the contained navigation properties, they are modified when the parent is parsed
+		private List<String> containments = new ArrayList<String>();
+		private String fingerprint;
+
+		public TypeOutline(String name, boolean entity, boolean empty) {
+			this.name = name;
+			this.entity = entity;
+			this.empty = empty;
+		}
+		public String getName() {
+			return name;
+		}
+		public boolean isEntity() {
+			return entity;
+		}
+		public boolean isEmpty() {
+			return empty;
+		}
+		public List<String> getReferences() {
+			return references;
+		}
+		public List<String> getContainments() {
+			return containments;
+		}
+		public String getFingerprint() {
+			return fingerprint;
+		}
+		public void setFingerprint(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+	}
+}
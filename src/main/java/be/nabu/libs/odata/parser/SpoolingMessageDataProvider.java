@@ -0,0 +1,184 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import be.nabu.libs.http.api.server.MessageDataProvider;
+import be.nabu.libs.resources.api.ReadableResource;
+import be.nabu.libs.resources.api.ResourceContainer;
+import be.nabu.libs.resources.api.WritableResource;
+import be.nabu.utils.io.IOUtils;
+import be.nabu.utils.io.api.ByteBuffer;
+import be.nabu.utils.io.api.ReadableContainer;
+import be.nabu.utils.io.api.WritableContainer;
+import be.nabu.utils.mime.api.Header;
+import be.nabu.utils.mime.impl.MimeUtils;
+
+/**
+ * The http client buffers the body of a response before it hands it over, for metadata that can be tens of megabytes.
+ * This provider keeps small bodies in memory, once a body exceeds the threshold it is spooled to a temporary file instead.
+ * A body can be read as often as needed, the temporary file lives as long as the resource: once the response is no longer reachable the file is removed.
+ * Closing the provider removes the files of all the responses it created.
+ */
+public class SpoolingMessageDataProvider implements MessageDataProvider, Closeable {
+
+	private long threshold;
+	// the temporary files that still exist, the reference is enqueued once the resource that owns the file has been garbage collected
+	private Set<FileReference> files = new HashSet<FileReference>();
+	private ReferenceQueue<SpooledResource> queue = new ReferenceQueue<SpooledResource>();
+	
+	public SpoolingMessageDataProvider(long threshold) {
+		this.threshold = threshold;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends WritableResource & ReadableResource> T newResource(String method, String target, double version, Header...headers) throws IOException {
+		purge();
+		Header contentType = MimeUtils.getHeader("Content-Type", headers);
+		return (T) new SpooledResource(contentType == null ? null : contentType.getValue());
+	}
+	
+	public long getThreshold() {
+		return threshold;
+	}
+	
+	@Override
+	public void close() {
+		List<FileReference> references;
+		synchronized (files) {
+			references = new ArrayList<FileReference>(files);
+			files.clear();
+		}
+		for (FileReference reference : references) {
+			reference.file.delete();
+		}
+	}
+	
+	// remove the files of resources that have been garbage collected
+	private void purge() {
+		FileReference reference;
+		while ((reference = (FileReference) queue.poll()) != null) {
+			synchronized (files) {
+				files.remove(reference);
+			}
+			reference.file.delete();
+		}
+	}
+	
+	private static class FileReference extends PhantomReference<SpooledResource> {
+		private File file;
+		
+		public FileReference(SpooledResource resource, File file, ReferenceQueue<SpooledResource> queue) {
+			super(resource, queue);
+			this.file = file;
+		}
+	}
+	
+	private class SpooledResource implements ReadableResource, WritableResource {
+		
+		private long size;
+		private String contentType;
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+		private File file;
+		private OutputStream output = memory;
+		
+		public SpooledResource(String contentType) {
+			this.contentType = contentType;
+		}
+
+		@Override
+		public WritableContainer<ByteBuffer> getWritable() throws IOException {
+			return IOUtils.wrap(new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte [] { (byte) b }, 0, 1);
+				}
+				@Override
+				public void write(byte [] bytes, int offset, int length) throws IOException {
+					// switch to a file once we exceed the threshold
+					if (file == null && size + length > threshold) {
+						file = File.createTempFile("odata-message", ".tmp");
+						synchronized (files) {
+							files.add(new FileReference(SpooledResource.this, file, queue));
+						}
+						output = new BufferedOutputStream(new FileOutputStream(file));
+						memory.writeTo(output);
+						memory = null;
+					}
+					output.write(bytes, offset, length);
+					size += length;
+				}
+				@Override
+				public void flush() throws IOException {
+					output.flush();
+				}
+				@Override
+				public void close() throws IOException {
+					output.close();
+				}
+			});
+		}
+		
+		@Override
+		public ReadableContainer<ByteBuffer> getReadable() throws IOException {
+			if (file == null) {
+				return IOUtils.wrap(new ByteArrayInputStream(memory.toByteArray()));
+			}
+			// anything that is still buffered has to be on disk before we read
+			output.flush();
+			InputStream input = new BufferedInputStream(new FileInputStream(file)) {
+				// as long as someone is reading, the resource (and with it the file) has to stay around
+				@SuppressWarnings("unused")
+				private SpooledResource resource = SpooledResource.this;
+			};
+			return IOUtils.wrap(input);
+		}
+		
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+		@Override
+		public String getName() {
+			return "message";
+		}
+		@Override
+		public ResourceContainer<?> getParent() {
+			return null;
+		}
+	}
+}
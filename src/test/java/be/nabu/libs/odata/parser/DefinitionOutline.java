@@ -0,0 +1,136 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.types.Function;
+import be.nabu.libs.odata.types.NavigationProperty;
+import be.nabu.libs.property.api.Value;
+import be.nabu.libs.types.api.ComplexType;
+import be.nabu.libs.types.api.Element;
+import be.nabu.libs.types.api.SimpleType;
+import be.nabu.libs.types.api.Type;
+import be.nabu.libs.types.api.TypeRegistry;
+import junit.framework.TestCase;
+
+/**
+ * Writes out the structure of a definition line by line so two definitions can be compared in order: types, their children and properties, functions and navigation properties.
+ * Registered types are referenced by name, anonymous structures (like function inputs and outputs) are written out in full the first time we encounter them.
+ */
+class DefinitionOutline {
+	
+	private List<String> lines = new ArrayList<String>();
+	private Map<ComplexType, Integer> anonymous = new IdentityHashMap<ComplexType, Integer>();
+	private TypeRegistry registry;
+	
+	public static List<String> outline(ODataDefinition definition) {
+		return new DefinitionOutline(definition).lines;
+	}
+	
+	public static void assertSameOutline(ODataDefinition expected, ODataDefinition actual) {
+		List<String> expectedLines = outline(expected), actualLines = outline(actual);
+		for (int i = 0; i < Math.min(expectedLines.size(), actualLines.size()); i++) {
+			TestCase.assertEquals("Line " + i, expectedLines.get(i), actualLines.get(i));
+		}
+		TestCase.assertEquals("Amount of lines", expectedLines.size(), actualLines.size());
+	}
+	
+	private DefinitionOutline(ODataDefinition definition) {
+		this.registry = definition.getRegistry();
+		lines.add("definition " + definition.getVersion() + " " + definition.getScheme() + "://" + definition.getHost() + definition.getBasePath()
+			+ " formats=" + definition.getSupportedFormats() + " filters=" + definition.getFilterFunctions() + " conformance=" + definition.getConformanceLevel()
+			+ " async=" + definition.getAsynchronousRequestsSupported() + " continueOnError=" + definition.getBatchContinueOnErrorSupported() + " crossJoin=" + definition.getCrossJoinSupported());
+		// functions first, in lazy mode they generate the remaining types
+		List<Function> functions = definition.getFunctions() == null ? new ArrayList<Function>() : definition.getFunctions();
+		// the namespaces are a set, the order of the types within a namespace should be stable
+		for (String namespace : new TreeSet<String>(registry.getNamespaces())) {
+			for (SimpleType<?> simpleType : registry.getSimpleTypes(namespace)) {
+				lines.add("simple " + namespace + ":" + simpleType.getName() + " " + properties(simpleType.getProperties()));
+			}
+			for (ComplexType complexType : registry.getComplexTypes(namespace)) {
+				lines.add("complex " + namespace + ":" + complexType.getName() + " extends " + name(complexType.getSuperType()) + " " + properties(complexType.getProperties()));
+				children(complexType, "\t");
+			}
+		}
+		for (Function function : functions) {
+			lines.add("function " + function.getContext() + "." + function.getName() + " " + function.getMethod() + (function.isAction() ? " action" : "")
+				+ (function instanceof FunctionImpl && ((FunctionImpl) function).isFilterable() ? " filterable" : ""));
+			lines.add("\tinput " + name(function.getInput()));
+			lines.add("\toutput " + name(function.getOutput()));
+		}
+		if (definition.getNavigationProperties() != null) {
+			for (NavigationProperty navigationProperty : definition.getNavigationProperties()) {
+				Element<?> element = navigationProperty.getElement();
+				lines.add("navigation " + navigationProperty.getQualifiedName() + (navigationProperty.isContainsTarget() ? " contained" : "")
+					+ " " + name(element.getParent()) + "." + element.getName() + " " + name(element.getType()) + " " + properties(element.getProperties()));
+				lines.add("\tupdate " + name(navigationProperty.getUpdateType()));
+			}
+		}
+	}
+	
+	private void children(ComplexType type, String indent) {
+		for (Element<?> child : type) {
+			lines.add(indent + child.getName() + " " + name(child.getType()) + " " + properties(child.getProperties()));
+		}
+	}
+	
+	// registered types by name, anonymous structures are written out the first time and referenced by number afterwards
+	private String name(Type type) {
+		if (type == null) {
+			return "null";
+		}
+		else if (type instanceof SimpleType) {
+			return type.getNamespace() == null || type.getName() == null || registry.getSimpleType(type.getNamespace(), type.getName()) != type
+				? ((SimpleType<?>) type).getInstanceClass().getName()
+				: type.getNamespace() + ":" + type.getName();
+		}
+		else if (type instanceof ComplexType && (type.getNamespace() == null || registry.getComplexType(type.getNamespace(), type.getName()) != type)) {
+			Integer index = anonymous.get(type);
+			if (index == null) {
+				index = anonymous.size();
+				anonymous.put((ComplexType) type, index);
+				lines.add("anonymous#" + index + " " + type.getNamespace() + ":" + type.getName() + " extends " + name(type.getSuperType()) + " " + properties(type.getProperties()));
+				children((ComplexType) type, "\t#" + index + " ");
+			}
+			return "anonymous#" + index;
+		}
+		return type.getNamespace() + ":" + type.getName();
+	}
+	
+	private static String properties(Value<?>[] values) {
+		StringBuilder builder = new StringBuilder("[");
+		if (values != null) {
+			for (Value<?> value : values) {
+				if (value != null) {
+					if (builder.length() > 1) {
+						builder.append(", ");
+					}
+					builder.append(value.getProperty().getName()).append("=").append(value.getValue());
+				}
+			}
+		}
+		return builder.append("]").toString();
+	}
+}
@@ -0,0 +1,150 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.io.ByteArrayInputStream;
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.parser.benchmark.EdmxGenerator;
+import junit.framework.TestCase;
+
+/**
+ * Once parsed, a definition should not hold on to any part of the metadata document, the dom is a multiple of the size of the metadata.
+ * We walk everything that is reachable from the definition and fail if we encounter a dom node.
+ */
+public class DomRetentionTest extends TestCase {
+
+	public void testDefinitionRetainsNoDom() throws Exception {
+		assertNoDom(parse(false));
+	}
+	
+	public void testStreamingDefinitionRetainsNoDom() throws Exception {
+		assertNoDom(parse(true));
+	}
+	
+	private static ODataDefinition parse(boolean streaming) throws Exception {
+		// graph has contained navigation properties, dynamics has referential constraints, both end up in the navigation properties
+		byte [] metadata = new EdmxGenerator(EdmxGenerator.Shape.GRAPH).generate(64 * 1024);
+		ODataParser parser = new ODataParser();
+		parser.setUseOptimizedQuerying(true);
+		parser.setStreaming(streaming);
+		ODataDefinition definition = parser.parse(URI.create("https://example.com/odata/graph"), new ByteArrayInputStream(metadata));
+		// make sure everything is generated
+		definition.getFunctions();
+		return definition;
+	}
+	
+	private static void assertNoDom(Object root) throws Exception {
+		Map<Object, String> paths = new IdentityHashMap<Object, String>();
+		Deque<Object> queue = new ArrayDeque<Object>();
+		paths.put(root, "definition");
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			Object current = queue.poll();
+			String path = paths.get(current);
+			if (current instanceof org.w3c.dom.Node) {
+				fail("A dom node is reachable from the definition: " + path);
+			}
+			for (Map.Entry<String, Object> child : getChildren(current).entrySet()) {
+				Object value = child.getValue();
+				if (value != null && !isLeaf(value) && !paths.containsKey(value)) {
+					paths.put(value, path + child.getKey());
+					queue.add(value);
+				}
+			}
+		}
+	}
+	
+	// values that can not lead to a dom
+	private static boolean isLeaf(Object value) {
+		return value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum
+			|| value instanceof Class || value instanceof Thread || value instanceof ClassLoader;
+	}
+	
+	private static Map<String, Object> getChildren(Object object) {
+		Map<String, Object> children = new java.util.LinkedHashMap<String, Object>();
+		if (object.getClass().isArray()) {
+			if (!object.getClass().getComponentType().isPrimitive()) {
+				for (int i = 0; i < Array.getLength(object); i++) {
+					children.put("[" + i + "]", Array.get(object, i));
+				}
+			}
+		}
+		// the internals of the jdk are not accessible through reflection on newer jvms, we use the public api instead
+		else if (object.getClass().getName().startsWith("java.")) {
+			if (object instanceof Map) {
+				int i = 0;
+				for (Map.Entry<?, ?> entry : new ArrayList<Map.Entry<?, ?>>(((Map<?, ?>) object).entrySet())) {
+					children.put("{key" + i + "}", entry.getKey());
+					children.put("{" + entry.getKey() + "}", entry.getValue());
+					i++;
+				}
+			}
+			else if (object instanceof Collection) {
+				int i = 0;
+				for (Object single : new ArrayList<Object>((Collection<?>) object)) {
+					children.put("[" + i++ + "]", single);
+				}
+			}
+			else if (object instanceof Reference) {
+				children.put(".get()", ((Reference<?>) object).get());
+			}
+			else {
+				addFields(object, children);
+			}
+		}
+		else {
+			addFields(object, children);
+		}
+		return children;
+	}
+	
+	private static void addFields(Object object, Map<String, Object> children) {
+		List<Field> fields = new ArrayList<Field>();
+		for (Class<?> type = object.getClass(); type != null; type = type.getSuperclass()) {
+			for (Field field : type.getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+					fields.add(field);
+				}
+			}
+		}
+		for (Field field : fields) {
+			try {
+				field.setAccessible(true);
+				children.put("." + field.getName(), field.get(object));
+			}
+			// inaccessible jdk internals (e.g. of a lock), they do not hold our data
+			catch (RuntimeException | IllegalAccessException e) {
+				continue;
+			}
+		}
+	}
+}
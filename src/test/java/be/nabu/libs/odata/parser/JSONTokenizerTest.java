@@ -0,0 +1,133 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+public class JSONTokenizerTest extends TestCase {
+
+	public void testTokens() throws Exception {
+		JSONTokenizer tokenizer = tokenizer("{ \"a\" : [1.5e3, -2, true, false, null, \"b\"], \"c\": {} }");
+		assertToken(tokenizer, JSONTokenizer.Token.START_OBJECT, null);
+		assertToken(tokenizer, JSONTokenizer.Token.NAME, "a");
+		assertToken(tokenizer, JSONTokenizer.Token.START_ARRAY, null);
+		assertToken(tokenizer, JSONTokenizer.Token.NUMBER, "1.5e3");
+		assertToken(tokenizer, JSONTokenizer.Token.NUMBER, "-2");
+		assertToken(tokenizer, JSONTokenizer.Token.TRUE, "true");
+		assertToken(tokenizer, JSONTokenizer.Token.FALSE, "false");
+		assertToken(tokenizer, JSONTokenizer.Token.NULL, "null");
+		assertToken(tokenizer, JSONTokenizer.Token.STRING, "b");
+		assertToken(tokenizer, JSONTokenizer.Token.END_ARRAY, null);
+		assertToken(tokenizer, JSONTokenizer.Token.NAME, "c");
+		assertToken(tokenizer, JSONTokenizer.Token.START_OBJECT, null);
+		assertToken(tokenizer, JSONTokenizer.Token.END_OBJECT, null);
+		assertToken(tokenizer, JSONTokenizer.Token.END_OBJECT, null);
+		assertToken(tokenizer, JSONTokenizer.Token.END, null);
+	}
+	
+	public void testEscapes() throws Exception {
+		JSONTokenizer tokenizer = tokenizer("[\"quote \\\" backslash \\\\ slash \\/ \\b\\f\\n\\r\\t \\u00e9\\u20AC\", \"name \\\"quoted\\\"\" : 1]");
+		tokenizer.next();
+		assertToken(tokenizer, JSONTokenizer.Token.STRING, "quote \" backslash \\ slash / \b\f\n\r\t \u00e9\u20ac");
+		// an escaped quote does not end the name
+		assertToken(tokenizer, JSONTokenizer.Token.NAME, "name \"quoted\"");
+	}
+	
+	public void testQuote() throws Exception {
+		String value = "a \"b\" \\ c\nd\re\tf \u0001 \u00e9";
+		assertEquals("\"a \\\"b\\\" \\\\ c\\nd\\re\\tf \\u0001 \u00e9\"", JSONTokenizer.quote(value));
+		JSONTokenizer tokenizer = tokenizer(JSONTokenizer.quote(value));
+		assertToken(tokenizer, JSONTokenizer.Token.STRING, value);
+	}
+	
+	public void testCapture() throws Exception {
+		JSONTokenizer tokenizer = tokenizer("{\"body\": {\"a\": [1, {\"b\": \"}\"}], \"c\": 2}, \"next\": true}");
+		tokenizer.next();
+		tokenizer.next();
+		tokenizer.next();
+		// the value is captured as is, including the whitespace
+		assertEquals("{\"a\": [1, {\"b\": \"}\"}], \"c\": 2}", tokenizer.capture());
+		assertEquals(JSONTokenizer.Token.END_OBJECT, tokenizer.getCurrent());
+		assertToken(tokenizer, JSONTokenizer.Token.NAME, "next");
+		assertToken(tokenizer, JSONTokenizer.Token.TRUE, "true");
+		assertEquals("true", tokenizer.capture());
+	}
+	
+	public void testCaptureProjection() throws Exception {
+		JSONTokenizer tokenizer = tokenizer("[{\"@odata.etag\": \"W/\\\"1\\\"\", \"id\": 1, \"skipped\": {\"id\": 2, \"name\": [\"x\", {\"name\": \"y\"}]}, "
+			+ "\"text\": \"a \\\" } ] { [\", \"name\": \"n\", \"list\": [{\"id\": 3}], \"last\": 4}, {\"id\": 5}]");
+		tokenizer.next();
+		tokenizer.next();
+		// nested fields with a projected name are not retained, nor are strings that look like structure
+		assertEquals("{\"@odata.etag\":\"W/\\\"1\\\"\",\"id\":1,\"name\":\"n\"}", tokenizer.capture(new HashSet<String>(Arrays.asList("id", "name"))));
+		assertEquals(JSONTokenizer.Token.END_OBJECT, tokenizer.getCurrent());
+		// the tokenizer continues with the next object
+		tokenizer.next();
+		assertEquals("{\"id\":5}", tokenizer.capture(new HashSet<String>(Arrays.asList("id"))));
+		assertToken(tokenizer, JSONTokenizer.Token.END_ARRAY, null);
+		assertToken(tokenizer, JSONTokenizer.Token.END, null);
+	}
+	
+	public void testCaptureProjectionOfNestedValue() throws Exception {
+		JSONTokenizer tokenizer = tokenizer("{\"id\": 1, \"address\": {\"street\": \"s\", \"city\": {\"name\": \"c\"}}}");
+		tokenizer.next();
+		// a projected field is captured in full
+		assertEquals("{\"address\":{\"street\": \"s\", \"city\": {\"name\": \"c\"}}}", tokenizer.capture(new HashSet<String>(Arrays.asList("address"))));
+	}
+	
+	public void testUnterminatedString() throws Exception {
+		JSONTokenizer tokenizer = tokenizer("[\"abc");
+		tokenizer.next();
+		try {
+			tokenizer.next();
+			fail("An unterminated string should fail");
+		}
+		catch (ParseException e) {
+			// expected
+		}
+	}
+	
+	public void testUnexpectedEnd() throws Exception {
+		JSONTokenizer tokenizer = tokenizer("{\"a\": [1, 2");
+		tokenizer.next();
+		try {
+			tokenizer.skipValue();
+			fail("Skipping an incomplete value should fail");
+		}
+		catch (ParseException e) {
+			// expected
+		}
+	}
+	
+	private static JSONTokenizer tokenizer(String json) {
+		return new JSONTokenizer(new StringReader(json));
+	}
+	
+	private static void assertToken(JSONTokenizer tokenizer, JSONTokenizer.Token token, String text) throws Exception {
+		assertEquals(token, tokenizer.next());
+		if (text != null) {
+			assertEquals(text, tokenizer.getText());
+		}
+	}
+}
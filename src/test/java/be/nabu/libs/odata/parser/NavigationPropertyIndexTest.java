@@ -0,0 +1,150 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.parser.benchmark.EdmxGenerator;
+import be.nabu.libs.odata.types.NavigationProperty;
+import junit.framework.TestCase;
+
+/**
+ * Generating the functions of an entity set needs the navigation properties of its type, looking them up used to be a scan of all the navigation properties.
+ * With dynamics-like metadata both the amount of entity sets and the amount of navigation properties grow with the size, so a scan per lookup is quadratic.
+ * Instead of timing the parse (which is left to the benchmarks), we check that the lookups go through the index and that the index matches a scan.
+ */
+public class NavigationPropertyIndexTest extends TestCase {
+
+	public void testParsedDefinitionMatchesScan() throws Exception {
+		ODataParser parser = new ODataParser();
+		parser.setUseOptimizedQuerying(true);
+		ODataDefinition definition = parser.parse(URI.create("https://example.com/odata/dynamics"), new ByteArrayInputStream(new EdmxGenerator(EdmxGenerator.Shape.DYNAMICS).generate(256 * 1024)));
+		definition.getFunctions();
+		assertFalse(definition.getNavigationProperties().isEmpty());
+		assertMatchesScan((ODataDefinitionImpl) definition);
+	}
+	
+	public void testLookupsDoNotScan() {
+		ODataDefinitionImpl definition = new ODataDefinitionImpl();
+		CountingList navigationProperties = new CountingList();
+		for (int i = 0; i < 1000; i++) {
+			navigationProperties.add(newNavigationProperty("test.type" + (i % 100)));
+		}
+		definition.setNavigationProperties(navigationProperties);
+		// the first lookup indexes the list once
+		assertEquals(10, definition.getNavigationPropertiesFor("test.type0").size());
+		assertTrue("Indexing should visit each entry once, it visited " + navigationProperties.visited, navigationProperties.visited <= 1000);
+		navigationProperties.visited = 0;
+		for (int i = 0; i < 100; i++) {
+			assertEquals(10, definition.getNavigationPropertiesFor("test.type" + i).size());
+		}
+		assertEquals("Lookups should not visit the list once it is indexed", 0, navigationProperties.visited);
+		// entries added to the list directly are picked up without visiting the rest
+		navigationProperties.add(newNavigationProperty("test.type0"));
+		assertEquals(11, definition.getNavigationPropertiesFor("test.type0").size());
+		assertEquals(1, navigationProperties.visited);
+	}
+	
+	public void testSuppliedListsMatchScan() {
+		ODataDefinitionImpl definition = new ODataDefinitionImpl();
+		List<NavigationProperty> navigationProperties = new ArrayList<NavigationProperty>();
+		for (int i = 0; i < 50; i++) {
+			navigationProperties.add(newNavigationProperty("test.type" + (i % 7)));
+		}
+		definition.setNavigationProperties(navigationProperties);
+		assertMatchesScan(definition);
+		// appended through the definition
+		definition.addNavigationProperty(newNavigationProperty("test.type3"));
+		assertMatchesScan(definition);
+		// appended to the list directly
+		navigationProperties.add(newNavigationProperty("test.other"));
+		assertMatchesScan(definition);
+		// a list that shrinks or is replaced is indexed again
+		navigationProperties.remove(0);
+		navigationProperties.remove(0);
+		assertMatchesScan(definition);
+		List<NavigationProperty> replacement = new ArrayList<NavigationProperty>();
+		replacement.add(newNavigationProperty("test.replaced"));
+		definition.setNavigationProperties(replacement);
+		assertMatchesScan(definition);
+		assertTrue(definition.getNavigationPropertiesFor("test.type3").isEmpty());
+	}
+	
+	private static void assertMatchesScan(ODataDefinitionImpl definition) {
+		Set<String> qualifiedNames = new LinkedHashSet<String>();
+		for (NavigationProperty navigationProperty : definition.getNavigationProperties()) {
+			qualifiedNames.add(navigationProperty.getQualifiedName());
+		}
+		qualifiedNames.add("test.unknown");
+		for (String qualifiedName : qualifiedNames) {
+			List<NavigationProperty> scanned = new ArrayList<NavigationProperty>();
+			for (NavigationProperty navigationProperty : definition.getNavigationProperties()) {
+				if (navigationProperty.getQualifiedName().equals(qualifiedName)) {
+					scanned.add(navigationProperty);
+				}
+			}
+			List<NavigationProperty> indexed = definition.getNavigationPropertiesFor(qualifiedName);
+			assertEquals("Wrong amount of navigation properties for " + qualifiedName, scanned.size(), indexed.size());
+			for (int i = 0; i < scanned.size(); i++) {
+				assertSame("Wrong navigation property " + i + " for " + qualifiedName, scanned.get(i), indexed.get(i));
+			}
+		}
+	}
+	
+	private static NavigationProperty newNavigationProperty(String qualifiedName) {
+		NavigationPropertyImpl navigationProperty = new NavigationPropertyImpl();
+		navigationProperty.setQualifiedName(qualifiedName);
+		return navigationProperty;
+	}
+	
+	// counts how many entries are visited
+	private static class CountingList extends ArrayList<NavigationProperty> {
+		private static final long serialVersionUID = 1L;
+		private int visited;
+		
+		@Override
+		public NavigationProperty get(int index) {
+			visited++;
+			return super.get(index);
+		}
+		
+		@Override
+		public Iterator<NavigationProperty> iterator() {
+			Iterator<NavigationProperty> iterator = super.iterator();
+			return new Iterator<NavigationProperty>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+				@Override
+				public NavigationProperty next() {
+					visited++;
+					return iterator.next();
+				}
+			};
+		}
+	}
+}
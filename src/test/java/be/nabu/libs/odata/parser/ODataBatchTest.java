@@ -0,0 +1,207 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Reads canned batch responses, both multipart and json, and checks that every call ends up with the right responses.
+ * The requests are numbered in the order they were added, that is the content id the server echoes.
+ */
+public class ODataBatchTest extends TestCase {
+
+	private static final String BOUNDARY = "batchresponse_1";
+	private static final String CHANGE_SET_BOUNDARY = "changesetresponse_1";
+	
+	public void testResponses() throws Exception {
+		ODataBatch batch = new ODataBatch();
+		ODataBatch.Call read = batch.add(new ODataRequest("GET", "People('a')"));
+		ODataBatch.Call create = batch.add(post("People"));
+		read(batch, multipart(BOUNDARY,
+			single("200 OK", "application/json", "{\"id\":\"a\"}"),
+			single("201 Created", "application/json", "{\"id\":\"b\"}")
+		));
+		assertResponse(read, 0, 200, "{\"id\":\"a\"}");
+		assertResponse(create, 0, 201, "{\"id\":\"b\"}");
+		assertEquals("application/json", read.getResponses().get(0).getHeader("content-type"));
+		assertTrue(ODataBatch.isSuccessful(batch.getEntries()));
+	}
+	
+	public void testChangeSetResponses() throws Exception {
+		ODataBatch batch = new ODataBatch();
+		ODataBatch.Call read = batch.add(new ODataRequest("GET", "People('a')"));
+		batch.beginChangeSet();
+		ODataBatch.Call first = batch.add(post("People"));
+		ODataBatch.Call second = batch.add(post("Trips"));
+		batch.endChangeSet();
+		// the server is free to answer the requests in a change set in any order
+		read(batch, multipart(BOUNDARY,
+			single("200 OK", "application/json", "{\"id\":\"a\"}"),
+			changeSet(multipart(CHANGE_SET_BOUNDARY,
+				contentId("3", "201 Created", "{\"id\":\"trip\"}"),
+				contentId("2", "201 Created", "{\"id\":\"person\"}")
+			))
+		));
+		assertResponse(read, 0, 200, "{\"id\":\"a\"}");
+		assertResponse(first, 0, 201, "{\"id\":\"person\"}");
+		assertResponse(second, 0, 201, "{\"id\":\"trip\"}");
+		assertTrue(ODataBatch.isSuccessful(batch.getEntries()));
+	}
+	
+	public void testFailedChangeSet() throws Exception {
+		ODataBatch batch = new ODataBatch();
+		batch.beginChangeSet();
+		ODataBatch.Call first = batch.add(post("People"));
+		ODataBatch.Call second = batch.add(post("Trips"));
+		batch.endChangeSet();
+		// a change set that fails as a whole is answered with a single response
+		read(batch, multipart(BOUNDARY,
+			single("400 Bad Request", "application/json", "{\"error\":{\"code\":\"invalid\"}}")
+		));
+		assertResponse(first, 0, 400, "{\"error\":{\"code\":\"invalid\"}}");
+		assertResponse(second, 0, 400, "{\"error\":{\"code\":\"invalid\"}}");
+		assertFalse(first.isSuccessful());
+		assertFalse(ODataBatch.isSuccessful(batch.getEntries()));
+	}
+	
+	public void testMissingContentId() throws Exception {
+		ODataBatch batch = new ODataBatch();
+		batch.beginChangeSet();
+		ODataBatch.Call first = batch.add(post("People"));
+		ODataBatch.Call second = batch.add(post("Trips"));
+		batch.endChangeSet();
+		// without content ids we fall back to the order of the requests
+		read(batch, multipart(BOUNDARY,
+			changeSet(multipart(CHANGE_SET_BOUNDARY,
+				single("201 Created", "application/json", "{\"id\":\"person\"}"),
+				single("204 No Content", null, null)
+			))
+		));
+		assertResponse(first, 0, 201, "{\"id\":\"person\"}");
+		assertResponse(second, 0, 204, "");
+	}
+	
+	public void testServerStopsEarly() throws Exception {
+		ODataBatch batch = new ODataBatch();
+		ODataBatch.Call first = batch.add(post("People"));
+		ODataBatch.Call second = batch.add(new ODataRequest("DELETE", "People('missing')"));
+		ODataBatch.Call third = batch.add(post("Trips"));
+		read(batch, multipart(BOUNDARY,
+			single("201 Created", "application/json", "{\"id\":\"person\"}"),
+			single("404 Not Found", "application/json", "{\"error\":{\"code\":\"missing\"}}")
+		));
+		assertResponse(first, 0, 201, "{\"id\":\"person\"}");
+		assertResponse(second, 0, 404, "{\"error\":{\"code\":\"missing\"}}");
+		// the request after the failure was not executed
+		assertTrue(third.getResponses().isEmpty());
+		assertFalse(third.isSuccessful());
+		assertFalse(ODataBatch.isSuccessful(batch.getEntries()));
+	}
+	
+	public void testMultiRequestCall() throws Exception {
+		ODataBatch batch = new ODataBatch();
+		ODataBatch.Call call = batch.add(post("People"), post("Trips"));
+		// the server stopped at the first request, the call has a response for it but not for the second one
+		read(batch, multipart(BOUNDARY,
+			single("500 Internal Server Error", null, null)
+		));
+		assertEquals(2, call.getResponses().size());
+		assertEquals(500, call.getResponses().get(0).getCode());
+		assertNull(call.getResponses().get(1));
+		assertFalse(call.isSuccessful());
+	}
+	
+	public void testQuotedBoundary() throws Exception {
+		assertEquals("batch_1", ODataBatch.getBoundary("multipart/mixed; boundary=\"batch_1\""));
+		assertEquals("batch_1", ODataBatch.getBoundary("Multipart/Mixed;charset=utf-8;Boundary=batch_1"));
+		assertNull(ODataBatch.getBoundary("application/json"));
+	}
+	
+	public void testJsonResponses() throws Exception {
+		ODataBatch batch = new ODataBatch(ODataBatch.Format.JSON, false);
+		ODataBatch.Call read = batch.add(new ODataRequest("GET", "People('a')"));
+		batch.beginChangeSet();
+		ODataBatch.Call first = batch.add(post("People"));
+		ODataBatch.Call second = batch.add(post("Trips"));
+		batch.endChangeSet();
+		ODataBatch.Call notExecuted = batch.add(post("Airlines"));
+		String response = "{\"responses\":["
+			// responses can come in any order and contain fields we don't know
+			+ "{\"id\":\"2\",\"atomicityGroup\":\"g1\",\"status\":201,\"headers\":{\"content-type\":\"application/json\",\"location\":\"People('b')\"},\"body\":{\"id\":\"b\",\"friends\":[{\"id\":\"c\"}]}},"
+			+ "{\"id\":\"1\",\"status\":200,\"extra\":{\"nested\":[1,{\"id\":\"9\"}]},\"headers\":{},\"body\":{\"id\":\"a\"}},"
+			+ "{\"id\":\"3\",\"atomicityGroup\":\"g1\",\"status\":400,\"body\":\"invalid \\\"trip\\\"\"}"
+			+ "]}";
+		read(batch, "application/json;charset=utf-8", response);
+		assertResponse(read, 0, 200, "{\"id\":\"a\"}");
+		assertResponse(first, 0, 201, "{\"id\":\"b\",\"friends\":[{\"id\":\"c\"}]}");
+		assertEquals("People('b')", first.getResponses().get(0).getHeader("location"));
+		// a string body is unescaped
+		assertResponse(second, 0, 400, "invalid \"trip\"");
+		assertTrue(notExecuted.getResponses().isEmpty());
+	}
+	
+	private static ODataRequest post(String path) {
+		return new ODataRequest("POST", path, "{}".getBytes(StandardCharsets.UTF_8), "application/json");
+	}
+	
+	// writing the batch assigns the content ids
+	private static void read(ODataBatch batch, String response) throws Exception {
+		read(batch, "multipart/mixed; boundary=" + BOUNDARY, response);
+	}
+	
+	private static void read(ODataBatch batch, String contentType, String response) throws Exception {
+		List<ODataBatch.Entry> entries = batch.getEntries();
+		ODataBatch.write(entries, batch.getFormat(), new ByteArrayOutputStream());
+		ODataBatch.read(entries, contentType, new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	private static void assertResponse(ODataBatch.Call call, int index, int code, String content) throws Exception {
+		assertTrue(call.getResponses().size() > index);
+		ODataResponse response = call.getResponses().get(index);
+		assertEquals(code, response.getCode());
+		assertEquals(content, new String(response.getBytes(), StandardCharsets.UTF_8));
+	}
+	
+	private static String multipart(String boundary, String...parts) {
+		StringBuilder builder = new StringBuilder();
+		for (String part : parts) {
+			builder.append("--").append(boundary).append("\r\n").append(part).append("\r\n");
+		}
+		return builder.append("--").append(boundary).append("--\r\n").toString();
+	}
+	
+	private static String changeSet(String content) {
+		return "Content-Type: multipart/mixed; boundary=" + CHANGE_SET_BOUNDARY + "\r\n\r\n" + content;
+	}
+	
+	private static String contentId(String id, String status, String body) {
+		return "Content-Type: application/http\r\nContent-Transfer-Encoding: binary\r\nContent-ID: " + id + "\r\n\r\n"
+			+ "HTTP/1.1 " + status + "\r\nContent-Type: application/json\r\n\r\n" + body;
+	}
+	
+	private static String single(String status, String contentType, String body) {
+		return "Content-Type: application/http\r\nContent-Transfer-Encoding: binary\r\n\r\n"
+			+ "HTTP/1.1 " + status + "\r\n" + (contentType == null ? "" : "Content-Type: " + contentType + "\r\n") + "\r\n" + (body == null ? "" : body);
+	}
+}
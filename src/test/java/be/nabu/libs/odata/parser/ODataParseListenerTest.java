@@ -0,0 +1,104 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import be.nabu.libs.odata.parser.benchmark.EdmxGenerator;
+import junit.framework.TestCase;
+
+/**
+ * The listeners should hear about every parse that is started, including the ones where we can't even get the metadata.
+ */
+public class ODataParseListenerTest extends TestCase {
+
+	private static final URI URL = URI.create("https://example.com/odata/graph");
+	
+	public void testFailedFetchIsReported() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		ODataParser parser = newParser(new IllegalStateException("connection refused"), null, listener);
+		try {
+			parser.parse(URL);
+			fail("The fetch should have failed");
+		}
+		catch (IllegalStateException e) {
+			assertEquals(Arrays.asList(ODataParsePhase.FETCH), listener.phases);
+			assertEquals(1, listener.exceptions.size());
+			assertSame(e, listener.exceptions.get(0));
+		}
+	}
+	
+	public void testMissingMetadataIsReported() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		ODataParser parser = newParser(null, null, listener);
+		try {
+			parser.parse(URL);
+			fail("The parse should have failed without metadata");
+		}
+		catch (ParseException e) {
+			assertEquals(Arrays.asList(ODataParsePhase.FETCH), listener.phases);
+			assertEquals(1, listener.exceptions.size());
+			assertSame(e, listener.exceptions.get(0));
+		}
+	}
+	
+	public void testSuccessfulParseIsReportedOnce() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		byte [] metadata = new EdmxGenerator(EdmxGenerator.Shape.GRAPH).generate(16 * 1024);
+		ODataParser parser = newParser(null, metadata, listener);
+		assertNotNull(parser.parse(URL));
+		assertEquals(ODataParsePhase.FETCH, listener.phases.get(0));
+		assertEquals(1, listener.exceptions.size());
+		assertNull(listener.exceptions.get(0));
+	}
+	
+	private static ODataParser newParser(final RuntimeException failure, final byte [] metadata, ODataParseListener listener) {
+		ODataParser parser = new ODataParser() {
+			@Override
+			public InputStream getMetadata(URI url) {
+				if (failure != null) {
+					throw failure;
+				}
+				return metadata == null ? null : new ByteArrayInputStream(metadata);
+			}
+		};
+		parser.setUseOptimizedQuerying(true);
+		parser.setParseListeners(new ArrayList<ODataParseListener>(Arrays.asList(listener)));
+		return parser;
+	}
+	
+	private static class RecordingListener implements ODataParseListener {
+		private List<ODataParsePhase> phases = new ArrayList<ODataParsePhase>();
+		private List<Exception> exceptions = new ArrayList<Exception>();
+		@Override
+		public void phaseFinished(URI url, ODataParsePhase phase, long duration) {
+			phases.add(phase);
+		}
+		@Override
+		public void parseFinished(URI url, ODataParseMetrics metrics, Exception exception) {
+			exceptions.add(exception);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.concurrent.ForkJoinPool;
+
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.parser.benchmark.EdmxGenerator;
+import junit.framework.TestCase;
+
+/**
+ * A parallel parse must build exactly the same definition as a sequential one, in the same order.
+ */
+public class ParallelParseTest extends TestCase {
+
+	private ForkJoinPool pool;
+	
+	@Override
+	protected void setUp() throws Exception {
+		pool = new ForkJoinPool(4);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		pool.shutdownNow();
+	}
+	
+	public void testGraph() throws Exception {
+		assertParallelMatchesSequential(EdmxGenerator.Shape.GRAPH, false);
+	}
+	
+	public void testDynamics() throws Exception {
+		assertParallelMatchesSequential(EdmxGenerator.Shape.DYNAMICS, false);
+	}
+	
+	public void testStreamingGraph() throws Exception {
+		assertParallelMatchesSequential(EdmxGenerator.Shape.GRAPH, true);
+	}
+	
+	public void testStreamingDynamics() throws Exception {
+		assertParallelMatchesSequential(EdmxGenerator.Shape.DYNAMICS, true);
+	}
+	
+	private void assertParallelMatchesSequential(EdmxGenerator.Shape shape, boolean streaming) throws Exception {
+		// large enough to be split over multiple tasks
+		byte [] metadata = new EdmxGenerator(shape).generate(512 * 1024);
+		ODataDefinition sequential = parse(metadata, streaming, null);
+		ODataDefinition parallel = parse(metadata, streaming, pool);
+		assertFalse(DefinitionOutline.outline(sequential).size() < 100);
+		DefinitionOutline.assertSameOutline(sequential, parallel);
+	}
+	
+	private static ODataDefinition parse(byte [] metadata, boolean streaming, ForkJoinPool pool) throws Exception {
+		ODataParser parser = new ODataParser();
+		parser.setUseOptimizedQuerying(true);
+		parser.setStreaming(streaming);
+		parser.setForkJoinPool(pool);
+		return parser.parse(URI.create("https://example.com/odata/service"), new ByteArrayInputStream(metadata));
+	}
+}
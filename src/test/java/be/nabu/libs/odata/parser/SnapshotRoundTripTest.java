@@ -0,0 +1,72 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+
+import be.nabu.libs.odata.ODataDefinition;
+import be.nabu.libs.odata.parser.benchmark.EdmxGenerator;
+import junit.framework.TestCase;
+
+/**
+ * A definition loaded from a snapshot must have the same structure as the definition it was taken from.
+ */
+public class SnapshotRoundTripTest extends TestCase {
+
+	public void testGraph() throws Exception {
+		assertRoundTrip(EdmxGenerator.Shape.GRAPH, false);
+	}
+	
+	public void testDynamics() throws Exception {
+		assertRoundTrip(EdmxGenerator.Shape.DYNAMICS, false);
+	}
+	
+	public void testLazyDynamics() throws Exception {
+		// the snapshot generates the remaining entity sets before it is written
+		assertRoundTrip(EdmxGenerator.Shape.DYNAMICS, true);
+	}
+	
+	public void testSnapshotOfSnapshot() throws Exception {
+		ODataDefinition loaded = roundTrip(parse(EdmxGenerator.Shape.GRAPH, false));
+		DefinitionOutline.assertSameOutline(loaded, roundTrip(loaded));
+	}
+	
+	private static void assertRoundTrip(EdmxGenerator.Shape shape, boolean lazy) throws Exception {
+		ODataDefinition definition = parse(shape, lazy);
+		ODataDefinition loaded = roundTrip(definition);
+		assertFalse(definition.getNavigationProperties().isEmpty());
+		DefinitionOutline.assertSameOutline(definition, loaded);
+	}
+	
+	private static ODataDefinition parse(EdmxGenerator.Shape shape, boolean lazy) throws Exception {
+		byte [] metadata = new EdmxGenerator(shape).generate(128 * 1024);
+		ODataParser parser = new ODataParser();
+		parser.setUseOptimizedQuerying(true);
+		parser.setLazy(lazy);
+		return parser.parse(URI.create("https://example.com/odata/service"), new ByteArrayInputStream(metadata));
+	}
+	
+	private static ODataDefinition roundTrip(ODataDefinition definition) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new ODataSnapshot().write(definition, output);
+		return new ODataSnapshot().read(new ByteArrayInputStream(output.toByteArray()));
+	}
+}
@@ -0,0 +1,250 @@
+/*
+* Copyright (C) 2022 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+
+package be.nabu.libs.odata.parser.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates edmx documents that resemble the metadata of well known odata services.
+ * The output only depends on the shape, the size and the seed so benchmark runs can be compared with one another.
+ * The generated types are not copies of the actual services, they mimic the characteristics that matter for parsing:
+ * - navision: a single flat schema with a lot of wide entity sets, each with capabilities annotations
+ * - graph: an aliased schema with a common base type, a lot of complex types and contained navigation properties
+ * - dynamics: very wide entity types with a lot of lookups (navigation properties with referential constraints)
+ * - trippin: a small service with enums, complex types, singletons and collections
+ */
+public class EdmxGenerator {
+
+	public enum Shape {
+		NAVISION, GRAPH, DYNAMICS, TRIPPIN
+	}
+	
+	private static final String [] PRIMITIVES = new String [] { "Edm.String", "Edm.String", "Edm.String", "Edm.Int32", "Edm.Int64", "Edm.Decimal", "Edm.Boolean", "Edm.Date", "Edm.DateTimeOffset", "Edm.Guid", "Edm.Double", "Edm.Binary" };
+	
+	private Shape shape;
+	private long seed = 42;
+	
+	public EdmxGenerator(Shape shape) {
+		this.shape = shape;
+	}
+	
+	public EdmxGenerator(Shape shape, long seed) {
+		this.shape = shape;
+		this.seed = seed;
+	}
+	
+	/**
+	 * Generates a document of approximately the given size (in bytes), the container is estimated up front so the actual size can be off by a few percent
+	 */
+	public byte [] generate(long size) {
+		Random random = new Random(seed);
+		String namespace = getNamespace();
+		// the prefix used to reference types in this schema
+		String prefix = shape == Shape.GRAPH ? "graph" : namespace;
+		
+		StringBuilder builder = new StringBuilder();
+		builder.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+		builder.append("<edmx:Edmx Version=\"4.0\" xmlns:edmx=\"http://docs.oasis-open.org/odata/ns/edmx\">\n");
+		builder.append("\t<edmx:DataServices>\n");
+		builder.append("\t\t<Schema Namespace=\"").append(namespace).append("\"");
+		if (shape == Shape.GRAPH) {
+			builder.append(" Alias=\"graph\"");
+		}
+		builder.append(" xmlns=\"http://docs.oasis-open.org/odata/ns/edm\">\n");
+		
+		List<String> enumTypes = new ArrayList<String>();
+		int enumCount = shape == Shape.NAVISION ? 20 : 5;
+		for (int i = 0; i < enumCount; i++) {
+			String name = "status" + i;
+			enumTypes.add(name);
+			builder.append("\t\t\t<EnumType Name=\"").append(name).append("\">\n");
+			for (int j = 0; j < 3 + random.nextInt(8); j++) {
+				builder.append("\t\t\t\t<Member Name=\"value").append(j).append("\" Value=\"").append(j).append("\"/>\n");
+			}
+			builder.append("\t\t\t</EnumType>\n");
+		}
+		
+		List<String> complexTypes = new ArrayList<String>();
+		int complexCount = shape == Shape.GRAPH ? 50 : 5;
+		for (int i = 0; i < complexCount; i++) {
+			String name = "complex" + i;
+			builder.append("\t\t\t<ComplexType Name=\"").append(name).append("\">\n");
+			for (int j = 0; j < 2 + random.nextInt(8); j++) {
+				appendProperty(builder, random, "field" + j, prefix, enumTypes, complexTypes);
+			}
+			builder.append("\t\t\t</ComplexType>\n");
+			complexTypes.add(name);
+		}
+		// a few empty types, they are switched to objects
+		builder.append("\t\t\t<ComplexType Name=\"emptyType\"/>\n");
+		
+		if (shape == Shape.GRAPH) {
+			builder.append("\t\t\t<EntityType Name=\"entity\" Abstract=\"true\">\n");
+			builder.append("\t\t\t\t<Key><PropertyRef Name=\"id\"/></Key>\n");
+			builder.append("\t\t\t\t<Property Name=\"id\" Type=\"Edm.String\" Nullable=\"false\"/>\n");
+			builder.append("\t\t\t</EntityType>\n");
+		}
+		
+		List<String> entityTypes = new ArrayList<String>();
+		// the container is roughly 200 bytes per entity set, we reserve room for it
+		while (builder.length() + (entityTypes.size() * 200) < size || entityTypes.isEmpty()) {
+			String name = "entity" + entityTypes.size();
+			builder.append("\t\t\t<EntityType Name=\"").append(name).append("\"");
+			if (shape == Shape.GRAPH) {
+				builder.append(" BaseType=\"graph.entity\"");
+			}
+			builder.append(">\n");
+			if (shape != Shape.GRAPH) {
+				builder.append("\t\t\t\t<Key><PropertyRef Name=\"id\"/></Key>\n");
+				builder.append("\t\t\t\t<Property Name=\"id\" Type=\"").append(shape == Shape.DYNAMICS ? "Edm.Guid" : "Edm.String").append("\" Nullable=\"false\"/>\n");
+			}
+			int propertyCount;
+			switch (shape) {
+				case NAVISION: propertyCount = 30 + random.nextInt(40); break;
+				case DYNAMICS: propertyCount = 100 + random.nextInt(150); break;
+				case GRAPH: propertyCount = 5 + random.nextInt(20); break;
+				default: propertyCount = 3 + random.nextInt(7);
+			}
+			for (int j = 0; j < propertyCount; j++) {
+				appendProperty(builder, random, "property" + j, prefix, enumTypes, complexTypes);
+			}
+			// navigation properties can only point to types we already generated (or ourselves) so the document is always valid
+			int navigationCount;
+			switch (shape) {
+				case DYNAMICS: navigationCount = 10 + random.nextInt(30); break;
+				case GRAPH: navigationCount = 2 + random.nextInt(6); break;
+				case NAVISION: navigationCount = random.nextInt(3); break;
+				default: navigationCount = 1 + random.nextInt(2);
+			}
+			for (int j = 0; j < navigationCount; j++) {
+				String target = random.nextInt(entityTypes.size() + 1) < entityTypes.size() ? entityTypes.get(random.nextInt(entityTypes.size())) : name;
+				boolean collection = random.nextBoolean();
+				builder.append("\t\t\t\t<NavigationProperty Name=\"navigation").append(j).append("\" Type=\"");
+				if (collection) {
+					builder.append("Collection(").append(prefix).append(".").append(target).append(")");
+				}
+				else {
+					builder.append(prefix).append(".").append(target);
+				}
+				builder.append("\"");
+				if (shape == Shape.GRAPH && collection && random.nextInt(4) == 0) {
+					builder.append(" ContainsTarget=\"true\"");
+				}
+				if (shape == Shape.DYNAMICS && !collection) {
+					builder.append(">\n");
+					builder.append("\t\t\t\t\t<ReferentialConstraint Property=\"navigation").append(j).append("Id\" ReferencedProperty=\"id\"/>\n");
+					builder.append("\t\t\t\t</NavigationProperty>\n");
+					builder.append("\t\t\t\t<Property Name=\"navigation").append(j).append("Id\" Type=\"Edm.Guid\"/>\n");
+				}
+				else {
+					builder.append("/>\n");
+				}
+			}
+			builder.append("\t\t\t</EntityType>\n");
+			entityTypes.add(name);
+		}
+		
+		builder.append("\t\t\t<EntityContainer Name=\"").append(shape == Shape.TRIPPIN ? "Container" : "default").append("\">\n");
+		for (int i = 0; i < entityTypes.size(); i++) {
+			String entityType = entityTypes.get(i);
+			// trippin exposes some of its types as singletons
+			if (shape == Shape.TRIPPIN && i % 5 == 4) {
+				builder.append("\t\t\t\t<Singleton Name=\"").append(entityType).append("Singleton\" Type=\"").append(prefix).append(".").append(entityType).append("\"/>\n");
+				continue;
+			}
+			builder.append("\t\t\t\t<EntitySet Name=\"").append(entityType).append("s\" EntityType=\"").append(prefix).append(".").append(entityType).append("\">\n");
+			// bind a navigation property to the set of the target, navision has no navigation properties to speak of
+			if (shape != Shape.NAVISION && i > 0) {
+				builder.append("\t\t\t\t\t<NavigationPropertyBinding Path=\"navigation0\" Target=\"").append(entityTypes.get(random.nextInt(i))).append("s\"/>\n");
+			}
+			if (shape == Shape.NAVISION || shape == Shape.DYNAMICS) {
+				appendCapabilities(builder, random);
+			}
+			builder.append("\t\t\t\t</EntitySet>\n");
+		}
+		builder.append("\t\t\t</EntityContainer>\n");
+		builder.append("\t\t</Schema>\n");
+		builder.append("\t</edmx:DataServices>\n");
+		builder.append("</edmx:Edmx>\n");
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	private String getNamespace() {
+		switch (shape) {
+			case NAVISION: return "NAV";
+			case GRAPH: return "microsoft.graph";
+			case DYNAMICS: return "Microsoft.Dynamics.CRM";
+			default: return "Microsoft.OData.SampleService.Models.TripPin";
+		}
+	}
+	
+	private void appendProperty(StringBuilder builder, Random random, String name, String prefix, List<String> enumTypes, List<String> complexTypes) {
+		String type;
+		int chance = random.nextInt(20);
+		if (chance == 0 && !enumTypes.isEmpty()) {
+			type = prefix + "." + enumTypes.get(random.nextInt(enumTypes.size()));
+		}
+		else if (chance == 1 && !complexTypes.isEmpty()) {
+			type = prefix + "." + complexTypes.get(random.nextInt(complexTypes.size()));
+		}
+		else {
+			type = PRIMITIVES[random.nextInt(PRIMITIVES.length)];
+		}
+		// collections are common in graph and trippin
+		if ((shape == Shape.GRAPH || shape == Shape.TRIPPIN) && random.nextInt(8) == 0) {
+			type = "Collection(" + type + ")";
+		}
+		builder.append("\t\t\t\t<Property Name=\"").append(name).append("\" Type=\"").append(type).append("\"");
+		if (random.nextBoolean()) {
+			builder.append(" Nullable=\"false\"");
+		}
+		if (type.equals("Edm.String") && random.nextBoolean()) {
+			builder.append(" MaxLength=\"").append(10 * (1 + random.nextInt(25))).append("\"");
+		}
+		builder.append("/>\n");
+	}
+	
+	private void appendCapabilities(StringBuilder builder, Random random) {
+		builder.append("\t\t\t\t\t<Annotation Term=\"Org.OData.Capabilities.V1.InsertRestrictions\">\n");
+		builder.append("\t\t\t\t\t\t<Record>\n");
+		builder.append("\t\t\t\t\t\t\t<PropertyValue Property=\"Insertable\" Bool=\"").append(random.nextInt(4) != 0).append("\"/>\n");
+		builder.append("\t\t\t\t\t\t\t<PropertyValue Property=\"NonInsertableProperties\">\n");
+		builder.append("\t\t\t\t\t\t\t\t<Collection>\n");
+		builder.append("\t\t\t\t\t\t\t\t\t<PropertyPath>property0</PropertyPath>\n");
+		builder.append("\t\t\t\t\t\t\t\t</Collection>\n");
+		builder.append("\t\t\t\t\t\t\t</PropertyValue>\n");
+		builder.append("\t\t\t\t\t\t</Record>\n");
+		builder.append("\t\t\t\t\t</Annotation>\n");
+		builder.append("\t\t\t\t\t<Annotation Term=\"Org.OData.Capabilities.V1.UpdateRestrictions\">\n");
+		builder.append("\t\t\t\t\t\t<Record>\n");
+		builder.append("\t\t\t\t\t\t\t<PropertyValue Property=\"Updatable\" Bool=\"").append(random.nextInt(4) != 0).append("\"/>\n");
+		builder.append("\t\t\t\t\t\t</Record>\n");
+		builder.append("\t\t\t\t\t</Annotation>\n");
+		builder.append("\t\t\t\t\t<Annotation Term=\"Org.OData.Capabilities.V1.DeleteRestrictions\">\n");
+		builder.append("\t\t\t\t\t\t<Record>\n");
+		builder.append("\t\t\t\t\t\t\t<PropertyValue Property=\"Deletable\" Bool=\"").append(random.nextInt(4) != 0).append("\"/>\n");
+		builder.append("\t\t\t\t\t\t</Record>\n");
+		builder.append("\t\t\t\t\t</Annotation>\n");
+		builder.append("\t\t\t\t\t<Annotation Term=\"Org.OData.Capabilities.V1.SkipSupported\" Bool=\"true\"/>\n");
+		builder.append("\t\t\t\t\t<Annotation Term=\"Org.OData.Capabilities.V1.TopSupported\" Bool=\"true\"/>\n");
+	}
+}